@@ -0,0 +1,168 @@
+/*
+    Copyright (c) 2010, NullNoname
+    All rights reserved.
+
+    Redistribution and use in source and binary forms, with or without
+    modification, are permitted provided that the following conditions are met:
+
+        * Redistributions of source code must retain the above copyright
+          notice, this list of conditions and the following disclaimer.
+        * Redistributions in binary form must reproduce the above copyright
+          notice, this list of conditions and the following disclaimer in the
+          documentation and/or other materials provided with the distribution.
+        * Neither the name of NullNoname nor the names of its
+          contributors may be used to endorse or promote products derived from
+          this software without specific prior written permission.
+
+    THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+    AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+    IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+    ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+    LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+    CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+    SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+    INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+    CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+    ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+    POSSIBILITY OF SUCH DAMAGE.
+*/
+package mu.nu.nullpo.game.component;
+
+/**
+ * Lightweight handle of a piece in play.
+ * <p>
+ * Only carries the position, Direction and Big flag of a shared {@link PieceShape}, so it can be moved around
+ * (AI search, ghost piece etc.) without copying a Piece.
+ */
+public final class ActivePiece {
+	/** Shape */
+	public PieceShape shape;
+
+	/** X-coordinate */
+	public int x;
+
+	/** Y-coordinate */
+	public int y;
+
+	/** Direction */
+	public int direction;
+
+	/** BigBlock */
+	public boolean big;
+
+	/**
+	 * Set this handle to a piece
+	 * @param p Piece
+	 * @param x X-coordinate
+	 * @param y Y-coordinate
+	 */
+	public void set(Piece p, int x, int y) {
+		set(p.getShape(), x, y, p.direction, p.big);
+	}
+
+	/**
+	 * Set this handle to a template
+	 * @param t Template
+	 * @param x X-coordinate
+	 * @param y Y-coordinate
+	 * @param big BigBlock
+	 */
+	public void set(PieceTemplate t, int x, int y, boolean big) {
+		set(t.getShape(), x, y, t.direction, big);
+	}
+
+	/**
+	 * Set this handle
+	 * @param shape Shape
+	 * @param x X-coordinate
+	 * @param y Y-coordinate
+	 * @param direction Direction
+	 * @param big BigBlock
+	 */
+	public void set(PieceShape shape, int x, int y, int direction, boolean big) {
+		this.shape = shape;
+		this.x = x;
+		this.y = y;
+		this.direction = direction;
+		this.big = big;
+	}
+
+	/**
+	 * Get the X-coordinate of a block in the field
+	 * @param i Block number
+	 * @return X-coordinate (the top-left cell for Big pieces)
+	 */
+	public int getBlockX(int i) {
+		return x + shape.dataX[direction][i] * (big ? 2 : 1);
+	}
+
+	/**
+	 * Get the Y-coordinate of a block in the field
+	 * @param i Block number
+	 * @return Y-coordinate (the top-left cell for Big pieces)
+	 */
+	public int getBlockY(int i) {
+		return y + shape.dataY[direction][i] * (big ? 2 : 1);
+	}
+
+	/**
+	 * ピースの当たり判定 (今の位置とDirection)
+	 * @param fld field
+	 * @return Blockに重なっていたらtrue, 重なっていないならfalse
+	 */
+	public boolean checkCollision(Field fld) {
+		return checkCollision(x, y, direction, fld);
+	}
+
+	/**
+	 * ピースの当たり判定
+	 * @param x X-coordinate
+	 * @param y Y-coordinate
+	 * @param rt Direction
+	 * @param fld field
+	 * @return Blockに重なっていたらtrue, 重なっていないならfalse
+	 */
+	public boolean checkCollision(int x, int y, int rt, Field fld) {
+		if(fld.isRowMaskEnabled()) return shape.getCollisionData(big).checkCollision(x, y, rt, fld);
+
+		int size = big ? 2 : 1;
+		for(int i = 0; i < shape.dataX[rt].length; i++) {
+			int x2 = x + shape.dataX[rt][i] * size;
+			int y2 = y + shape.dataY[rt][i] * size;
+
+			for(int k = 0; k < size; k++) for(int l = 0; l < size; l++) {
+				if(fld.checkCollision(x2 + k, y2 + l)) return true;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * ピースをそのまま落とした場合のY-coordinateを取得 (今の位置とDirection)
+	 * @param fld field
+	 * @return ピースをそのまま落とした場合のY-coordinate
+	 */
+	public int getBottom(Field fld) {
+		return getBottom(x, y, direction, fld);
+	}
+
+	/**
+	 * ピースをそのまま落とした場合のY-coordinateを取得
+	 * @param x X-coordinate
+	 * @param y Y-coordinate
+	 * @param rt Direction
+	 * @param fld field
+	 * @return ピースをそのまま落とした場合のY-coordinate
+	 */
+	public int getBottom(int x, int y, int rt, Field fld) {
+		if(fld.isRowMaskEnabled()) {
+			int bottom = shape.getCollisionData(big).getBottom(x, y, rt, fld);
+			if(bottom != Integer.MIN_VALUE) return bottom;
+		}
+
+		int y2 = y;
+		while(!checkCollision(x, y2, rt, fld)) y2++;
+		return y2 - 1;
+	}
+}
@@ -30,6 +30,7 @@ package mu.nu.nullpo.game.component;
 
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Random;
 
 import mu.nu.nullpo.game.play.GameEngine;
@@ -56,6 +57,9 @@ public class Field implements Serializable {
 	/**  default の見えない部分の高さ */
 	public static final int DEFAULT_HIDDEN_HEIGHT = 3;
 
+	/** Maximum field width which can be tracked by the row bitmasks */
+	public static final int MAX_BITMASK_WIDTH = 64;
+
 	/** 座標の属性 (通常) */
 	public static final int COORD_NORMAL = 0;
 
@@ -68,6 +72,16 @@ public class Field implements Serializable {
 	/** 座標の属性 (壁) */
 	public static final int COORD_WALL = 3;
 
+	/** Square判定用bitmaskの種類 */
+	protected static final int SQUARE_MASK_ELIGIBLE = 0,
+							   SQUARE_MASK_CONNECT_LEFT = 1,
+							   SQUARE_MASK_CONNECT_RIGHT = 2,
+							   SQUARE_MASK_CONNECT_UP = 3,
+							   SQUARE_MASK_CONNECT_DOWN = 4,
+							   SQUARE_MASK_SAME_RIGHT = 5,
+							   SQUARE_MASK_SAME_DOWN = 6,
+							   SQUARE_MASK_MAX = 7;
+
 	/** fieldの幅 */
 	protected int width;
 
@@ -99,6 +113,59 @@ public class Field implements Serializable {
 	/** 見えない部分のLine clear flag */
 	protected boolean[] lineflag_hidden;
 
+	/*
+	 * Row bitmasks: bit x of a row is set when the block at column x is not empty.
+	 * Indexed by (y + hidden_height), so the hidden rows come first.
+	 * They are kept in sync by setBlock/setBlockColor and the other methods of this class.
+	 * Code that changes the color of a block returned by getBlock() directly
+	 * must call refreshRow() afterwards.
+	 */
+
+	/** true if the row bitmasks are used (field width is MAX_BITMASK_WIDTH or less) */
+	protected boolean useRowMask;
+
+	/** Occupancy bitmask of each row */
+	protected long[] rowOccupied;
+
+	/** Bitmask of wall blocks (BLOCK_ATTRIBUTE_WALL) of each row */
+	protected long[] rowWall;
+
+	/** Bitmask which has a bit set for every column */
+	protected long rowFullMask;
+
+	/** fieldHashに含まれている各セルのBlock color ((y + hidden_height) * width + x) */
+	protected int[] hashColor;
+
+	/** field全体のZobrist hash (空白でない全セルのkeyのXOR) */
+	protected long fieldHash;
+
+	/** 設定されているLine clear flagのcount */
+	protected int lineFlagCount;
+
+	/** 地形情報 (必要になった時に作られる) */
+	protected transient FieldMetrics metrics;
+
+	/** snapshot用の保存領域 (一度作ったら使い回す) */
+	protected transient ArrayList<PackedField> snapshotArena;
+
+	/** 現在有効なsnapshotのcount */
+	protected transient int snapshotDepth;
+
+	/** 行ごとのT-Spinできそうな穴のbitmask (y + hidden_height, 必要になった時に作られる) */
+	protected transient long[] tslotMask;
+
+	/** 行ごとの1Line消せるT-Spinできそうな穴のcount */
+	protected transient int[] tslotSingle;
+
+	/** 行ごとの2Lines消せるT-Spinできそうな穴のcount */
+	protected transient int[] tslotDouble;
+
+	/** tslotMaskの再計算が必要な行 */
+	protected transient boolean[] tslotDirty;
+
+	/** tslotMaskがBig用かどうか */
+	protected transient boolean tslotBig;
+
 	/** HURRY UP地面のcount */
 	protected int hurryupFloorLines;
 
@@ -120,9 +187,55 @@ public class Field implements Serializable {
 	/** List of colors of lines cleared in most recent line color clear */
 	public ArrayList<Integer> lineColorsCleared;
 
-	/** List of last rows cleared in most recent horizontal line clear. */
+	/** List of last rows cleared in most recent horizontal line clear.
+	 *  The row arrays are reused by the next checkLine(), copy them if they must be kept. */
 	public ArrayList<Block[]> lastLinesCleared;
 
+	/** lastLinesClearedに使う行のコピーを再利用するための置き場 */
+	protected ArrayList<Block[]> lastLinesClearedPool;
+
+	/** 色グループのラベル (セルごと, -1ならグループなし) */
+	protected int[] colorGroupLabel;
+
+	/** 色グループごとのBlockcount */
+	protected int[] colorGroupSize;
+
+	/** 色グループごとの消去の起点になるセル (garbage以外で一番最初のもの, なければ-1) */
+	protected int[] colorGroupStart;
+
+	/** 色グループごとのgem blockの起点セル (なければ-1) */
+	protected int[] colorGroupGemStart;
+
+	/** 色グループのcount */
+	protected int colorGroupCount;
+
+	/** 色消し判定用の作業領域 (起点セルの並び) */
+	protected int[] colorGroupOrder;
+
+	/** Cascade用: セルごとの印 (linkStampと同じならcheckBlockLinkのTEMP_MARKと同じ扱い) */
+	protected int[] linkMark;
+
+	/** Cascade用: 今の印の番号 */
+	protected int linkStamp;
+
+	/** Cascade用: 印を付けたセル */
+	protected int[] linkCells;
+
+	/** Cascade用: 今回落ちたセル (CASCADE_FALLと同じ扱い) */
+	protected boolean[] linkFell;
+
+	/** Cascade用: 印を付けたBlockの列ビットマスク (resolveCascadeGravity) */
+	protected long[] linkColumn;
+
+	/** 塗りつぶし用のスタック */
+	protected int[] floodStack;
+
+	/** 塗りつぶし用の訪問済みビットマップ */
+	protected long[] floodVisited;
+
+	/** Square判定用の行ごとのbitmask (SQUARE_MASK_*ごとに1つ) */
+	protected long[][] squareMasks;
+
 	/** Used for TGM garbage, can later be extended to all types */
 	//public ArrayList<Block[]> pendingGarbage;
 
@@ -176,14 +289,29 @@ public class Field implements Serializable {
 		block_hidden = new Block[hidden_height][width];
 		lineflag_field = new boolean[height];
 		lineflag_hidden = new boolean[hidden_height];
+		lineFlagCount = 0;
 		hurryupFloorLines = 0;
+		snapshotDepth = 0;
+
+		useRowMask = (width <= MAX_BITMASK_WIDTH);
+		rowOccupied = new long[hidden_height + height];
+		rowWall = new long[hidden_height + height];
+		rowFullMask = (width >= 64) ? -1L : ((1L << width) - 1L);
+		hashColor = new int[(hidden_height + height) * width];
+		fieldHash = 0;
 
 		colorClearExtraCount = 0;
 		colorsCleared = 0;
 		gemsCleared = 0;
 		lineColorsCleared = null;
 		lastLinesCleared = null;
+		lastLinesClearedPool = null;
 		garbageCleared = 0;
+		colorGroupLabel = null;
+		colorGroupCount = 0;
+		linkMark = null;
+		squareMasks = null;
+		tslotDirty = null;
 
 		for(int i = 0; i < width; i++) {
 			for(int j = 0; j < height; j++) {
@@ -193,6 +321,8 @@ public class Field implements Serializable {
 				block_hidden[j][i] = new Block();
 			}
 		}
+
+		if(metrics != null) metrics.rebuild();
 	}
 
 	/**
@@ -209,14 +339,41 @@ public class Field implements Serializable {
 		block_hidden = new Block[hidden_height][width];
 		lineflag_field = new boolean[height];
 		lineflag_hidden = new boolean[hidden_height];
+		lineFlagCount = 0;
 		hurryupFloorLines = f.hurryupFloorLines;
+		snapshotDepth = 0;
+
+		useRowMask = f.useRowMask;
+		rowOccupied = f.rowOccupied.clone();
+		rowWall = f.rowWall.clone();
+		rowFullMask = f.rowFullMask;
+		hashColor = f.hashColor.clone();
+		fieldHash = f.fieldHash;
 
 		colorClearExtraCount = f.colorClearExtraCount;
 		colorsCleared = f.colorsCleared;
 		gemsCleared = f.gemsCleared = 0;
 		lineColorsCleared = f.lineColorsCleared;
-		lastLinesCleared = f.lastLinesCleared;
+		// コピー元の行は次のcheckLineで上書きされるので, 行の中身ごとコピーする
+		if(f.lastLinesCleared == null) {
+			lastLinesCleared = null;
+		} else {
+			lastLinesCleared = new ArrayList<Block[]>(f.lastLinesCleared.size());
+			for(Block[] src : f.lastLinesCleared) {
+				Block[] row = new Block[src.length];
+				for(int j = 0; j < src.length; j++) {
+					row[j] = new Block(src[j]);
+				}
+				lastLinesCleared.add(row);
+			}
+		}
+		lastLinesClearedPool = null;
 		garbageCleared = f.garbageCleared;
+		colorGroupLabel = null;
+		colorGroupCount = 0;
+		linkMark = null;
+		squareMasks = null;
+		tslotDirty = null;
 
 		for(int i = 0; i < width; i++) {
 			for(int j = 0; j < height; j++) {
@@ -226,6 +383,54 @@ public class Field implements Serializable {
 				block_hidden[j][i] = new Block(f.getBlock(i, -j-1));
 			}
 		}
+
+		if(metrics != null) metrics.rebuild();
+	}
+
+	/**
+	 * 現在の状態を保存する.
+	 * 保存先は使い回されるので, 探索などで何度も呼んでもBlockオブジェクトは作られない.
+	 * @return restoreに渡すtoken
+	 */
+	public int snapshot() {
+		if(snapshotArena == null) snapshotArena = new ArrayList<PackedField>();
+
+		if(snapshotDepth < snapshotArena.size()) {
+			snapshotArena.get(snapshotDepth).fromField(this);
+		} else {
+			snapshotArena.add(new PackedField(this));
+		}
+
+		return snapshotDepth++;
+	}
+
+	/**
+	 * snapshotで保存した状態に戻す.
+	 * 行ごとに比較して, 変わっていた行だけを書き戻す.
+	 * tokenより後に取ったsnapshotは無効になる (token自身は何度でも使える).
+	 * @param token snapshotの戻り値
+	 * @return true if successful, false if the token is no longer valid
+	 */
+	public boolean restore(int token) {
+		if((token < 0) || (token >= snapshotDepth)) return false;
+
+		PackedField p = snapshotArena.get(token);
+		for(int i = (hidden_height * -1); i < height; i++) {
+			if(!p.rowEquals(this, i)) p.loadRow(this, i);
+		}
+		hurryupFloorLines = p.hurryupFloorLines;
+		ceiling = p.ceiling;
+
+		snapshotDepth = token + 1;
+		return true;
+	}
+
+	/**
+	 * snapshotを破棄する (tokenより後に取ったものも全て破棄)
+	 * @param token snapshotの戻り値
+	 */
+	public void releaseSnapshot(int token) {
+		if((token >= 0) && (token < snapshotDepth)) snapshotDepth = token;
 	}
 
 	/**
@@ -354,6 +559,81 @@ public class Field implements Serializable {
 		}
 	}
 
+	/**
+	 * 行の参照を差し替える (行の入れ替え用)
+	 * @param y Y-coordinate
+	 * @param row 新しい行
+	 */
+	protected void setRowRef(int y, Block[] row) {
+		if(y >= 0) block_field[y] = row;
+		else block_hidden[(y * -1) - 1] = row;
+	}
+
+	/**
+	 * 行を空にする (Blockオブジェクトは再利用)
+	 * @param y Y-coordinate
+	 */
+	protected void emptyRow(int y) {
+		Block[] row = getRowE(y);
+		for(int j = 0; j < width; j++) {
+			row[j].reset();
+		}
+		rowOccupied[y + hidden_height] = 0;
+		rowWall[y + hidden_height] = 0;
+		xorHashRow(y);
+		Arrays.fill(hashColor, (y + hidden_height) * width, (y + hidden_height + 1) * width, Block.BLOCK_COLOR_NONE);
+		if(metrics != null) metrics.refreshRow(y);
+		markTSlotRows(y, y);
+	}
+
+	/**
+	 * top～bottomの行を参照ごと1段下にずらし, bottomにあった行を空にしてtopに回す.
+	 * Line flagは動かさない.
+	 * @param top 一番上の行
+	 * @param bottom 一番下の行
+	 */
+	protected void rotateRowsDown(int top, int bottom) {
+		if(bottom < top) return;
+
+		Block[] temp = getRowE(bottom);
+		for(int i = bottom; i > top; i--) {
+			setRowRef(i, getRowE(i - 1));
+		}
+		setRowRef(top, temp);
+
+		int t = top + hidden_height;
+		System.arraycopy(rowOccupied, t, rowOccupied, t + 1, bottom - top);
+		System.arraycopy(rowWall, t, rowWall, t + 1, bottom - top);
+		shiftHashRows(top, bottom, true);
+		if(metrics != null) metrics.rotateRowsDown(top, bottom);
+		markTSlotRows(top, bottom);
+		emptyRow(top);
+	}
+
+	/**
+	 * top～bottomの行を参照ごと1段上にずらし, topにあった行を空にしてbottomに回す.
+	 * Line flagは動かさない.
+	 * @param top 一番上の行
+	 * @param bottom 一番下の行
+	 */
+	protected void rotateRowsUp(int top, int bottom) {
+		if(bottom < top) return;
+
+		Block[] temp = getRowE(top);
+		for(int i = top; i < bottom; i++) {
+			setRowRef(i, getRowE(i + 1));
+		}
+		setRowRef(bottom, temp);
+
+		int t = top + hidden_height;
+		System.arraycopy(rowOccupied, t + 1, rowOccupied, t, bottom - top);
+		System.arraycopy(rowWall, t + 1, rowWall, t, bottom - top);
+		shiftHashRows(top, bottom, false);
+		if(metrics != null) metrics.rotateRowsUp(top, bottom);
+		markTSlotRows(top, bottom);
+		emptyRow(bottom);
+	}
+
 	/**
 	 * 指定した座標にあるBlockを取得
 	 * @param x X-coordinate
@@ -415,6 +695,7 @@ public class Field implements Serializable {
 		} catch(ArrayIndexOutOfBoundsException e) {
 			throw e;
 		}
+		updateRowMask(x, y, blk);
 	}
 
 	/**
@@ -482,11 +763,155 @@ public class Field implements Serializable {
 	 * @throws ArrayIndexOutOfBoundsException 指定した座標が範囲外
 	 */
 	public void setBlockColorE(int x, int y, int c) throws ArrayIndexOutOfBoundsException {
+		Block blk;
 		try {
-			getBlockE(x,y).color = c;
+			blk = getBlockE(x,y);
+			blk.color = c;
 		} catch(ArrayIndexOutOfBoundsException e) {
 			throw e;
 		}
+		updateRowMask(x, y, blk);
+	}
+
+	/**
+	 * Update the row bitmasks for a single block
+	 * @param x X-coordinate
+	 * @param y Y-coordinate
+	 * @param blk Block which is now at the coordinate
+	 */
+	protected void updateRowMask(int x, int y, Block blk) {
+		updateHashCell(x, y, blk.color);
+		if(!useRowMask) return;
+
+		int i = y + hidden_height;
+		long bit = 1L << x;
+
+		if(blk.isEmpty()) rowOccupied[i] &= ~bit;
+		else rowOccupied[i] |= bit;
+
+		if(blk.getAttribute(Block.BLOCK_ATTRIBUTE_WALL)) rowWall[i] |= bit;
+		else rowWall[i] &= ~bit;
+
+		if(metrics != null) metrics.setCell(x, y, !blk.isEmpty());
+		markTSlotRows(y, y);
+	}
+
+	/**
+	 * Recalculates the row bitmasks of the specified row.
+	 * Call this after changing the color of blocks returned by getBlock() or getRow() directly.
+	 * @param y Y-coordinate
+	 */
+	public void refreshRow(int y) {
+		updateHashRow(y);
+		if(!useRowMask) return;
+
+		Block[] row = getRow(y);
+		if(row == null) return;
+
+		long occupied = 0;
+		long wall = 0;
+
+		for(int j = 0; j < width; j++) {
+			if(!row[j].isEmpty()) occupied |= (1L << j);
+			if(row[j].getAttribute(Block.BLOCK_ATTRIBUTE_WALL)) wall |= (1L << j);
+		}
+
+		rowOccupied[y + hidden_height] = occupied;
+		rowWall[y + hidden_height] = wall;
+		if(metrics != null) metrics.refreshRow(y);
+		markTSlotRows(y, y);
+	}
+
+	/**
+	 * Recalculates the row bitmasks of all rows
+	 */
+	public void refreshAllRows() {
+		for(int i = (hidden_height * -1); i < height; i++) {
+			refreshRow(i);
+		}
+	}
+
+	/**
+	 * Check if the row bitmasks can be used for this field
+	 * @return true if the row bitmasks are available
+	 */
+	public boolean isRowMaskEnabled() {
+		return useRowMask;
+	}
+
+	/**
+	 * Get the occupancy bitmask of the specified row
+	 * (bit x is set when the block at column x is not empty)
+	 * @param y Y-coordinate
+	 * @return Occupancy bitmask (0 if the row is outside the field or the bitmasks are unavailable)
+	 */
+	public long getRowMask(int y) {
+		int i = y + hidden_height;
+		if(!useRowMask || (i < 0) || (i >= rowOccupied.length)) return 0;
+		return rowOccupied[i];
+	}
+
+	/**
+	 * Get the collision bitmask of the specified row.
+	 * Rows below the field (and above it when there is a ceiling) are completely solid,
+	 * and rows in the vanish zone are completely empty.
+	 * Columns outside the field are not included.
+	 * Only valid when isRowMaskEnabled() returns true.
+	 * @param y Y-coordinate
+	 * @return Collision bitmask
+	 */
+	public long getRowCollisionMask(int y) {
+		if(y >= height) return -1L;
+		if((y < 0) && (ceiling)) return -1L;
+		if(y < (hidden_height * -1)) return 0;
+		return rowOccupied[y + hidden_height];
+	}
+
+	/**
+	 * Check if the coordinate is inside the field and tracked by the row bitmasks
+	 * @param x X-coordinate
+	 * @param y Y-coordinate
+	 * @return true if the row bitmasks can answer for the coordinate
+	 */
+	protected boolean isRowMaskCoord(int x, int y) {
+		return useRowMask && (x >= 0) && (x < width) && (y >= (hidden_height * -1)) && (y < height);
+	}
+
+	/**
+	 * Checks whether a block of a piece at the specified coordinate collides with the field
+	 * (Same rules as Piece.checkCollision)
+	 * @param x X-coordinate
+	 * @param y Y-coordinate
+	 * @return true if a block can't be put there
+	 */
+	public boolean checkCollision(int x, int y) {
+		if((x < 0) || (x >= width) || (y >= height)) return true;
+		if((y < 0) && (ceiling)) return true;
+		if(y < (hidden_height * -1)) return false;
+
+		if(useRowMask) return ((rowOccupied[y + hidden_height] & (1L << x)) != 0);
+		return (getBlockColorE(x, y) != Block.BLOCK_COLOR_NONE);
+	}
+
+	/**
+	 * 指定した列で, y以下 (yを含む) で最初にcheckCollisionがtrueになるY-coordinateを取得.
+	 * 床 (height) より下に行くことはない.
+	 * @param x X-coordinate
+	 * @param y Y-coordinate
+	 * @return checkCollision(x, 戻り値)がtrueになる一番上のY-coordinate (y以上)
+	 */
+	public int getFirstCollisionY(int x, int y) {
+		if((x < 0) || (x >= width) || (y >= height)) return y;
+		if((y < 0) && (ceiling)) return y;
+
+		if(getMetrics().isColumnMaskEnabled()) {
+			// 見えない部分より上 (COORD_VANISH) には何もない
+			return metrics.getFirstBlockY(x, Math.max(y, hidden_height * -1));
+		}
+
+		int y2 = y;
+		while(!checkCollision(x, y2)) y2++;
+		return y2;
 	}
 
 	/**
@@ -521,6 +946,8 @@ public class Field implements Serializable {
 	 * @return 指定した座標にあるBlockが空白ならtrue (指定した座標が範囲外の場合もtrue）
 	 */
 	public boolean getBlockEmpty(int x, int y) {
+		if(isRowMaskCoord(x, y)) return ((rowOccupied[y + hidden_height] & (1L << x)) == 0);
+
 		try {
 			return getBlockEmptyE(x,y);
 		} catch(ArrayIndexOutOfBoundsException e) {
@@ -535,6 +962,8 @@ public class Field implements Serializable {
 	 * @return 指定した座標にあるBlockが空白ならtrue (指定した座標が範囲外の場合はfalse）
 	 */
 	public boolean getBlockEmptyF(int x, int y) {
+		if(isRowMaskCoord(x, y)) return ((rowOccupied[y + hidden_height] & (1L << x)) == 0);
+
 		try {
 			return getBlockEmptyE(x,y);
 		} catch(ArrayIndexOutOfBoundsException e) {
@@ -550,6 +979,8 @@ public class Field implements Serializable {
 	 * @throws ArrayIndexOutOfBoundsException 指定した座標が範囲外
 	 */
 	public boolean getBlockEmptyE(int x, int y) throws ArrayIndexOutOfBoundsException {
+		if(isRowMaskCoord(x, y)) return ((rowOccupied[y + hidden_height] & (1L << x)) == 0);
+
 		try {
 			return getBlockE(x,y).isEmpty();
 		} catch(ArrayIndexOutOfBoundsException e) {
@@ -589,23 +1020,10 @@ public class Field implements Serializable {
 	 * @return true if successful, false if failed
 	 */
 	public boolean setLineFlag(int y, boolean flag) {
-		// field内
-		if(y >= 0) {
-			try {
-				lineflag_field[y] = flag;
-			} catch(ArrayIndexOutOfBoundsException e) {
-				return false;
-			}
-		}
-		// field外
-		else {
-			int y2 = (y * -1) - 1;
-
-			try {
-				lineflag_hidden[y2] = flag;
-			} catch(ArrayIndexOutOfBoundsException e) {
-				return false;
-			}
+		try {
+			setLineFlagE(y, flag);
+		} catch(ArrayIndexOutOfBoundsException e) {
+			return false;
 		}
 
 		return true;
@@ -618,25 +1036,25 @@ public class Field implements Serializable {
 	 * @throws ArrayIndexOutOfBoundsException 指定した座標が範囲外
 	 */
 	public void setLineFlagE(int y, boolean flag) throws ArrayIndexOutOfBoundsException {
-		// field内
-		if(y >= 0) {
-			try {
-				lineflag_field[y] = flag;
-			} catch(ArrayIndexOutOfBoundsException e) {
-				throw e;
-			}
-		}
-		// field外
-		else {
-			try {
-				int y2 = (y * -1) - 1;
-				lineflag_hidden[y2] = flag;
-			} catch(ArrayIndexOutOfBoundsException e) {
-				throw e;
-			}
+		boolean[] flags = (y >= 0) ? lineflag_field : lineflag_hidden;
+		int y2 = (y >= 0) ? y : (y * -1) - 1;
+
+		try {
+			if(flags[y2] != flag) lineFlagCount += flag ? 1 : -1;
+			flags[y2] = flag;
+		} catch(ArrayIndexOutOfBoundsException e) {
+			throw e;
 		}
 	}
 
+	/**
+	 * Line clear flagが1つでも設定されているか調べる
+	 * @return 設定されていればtrue
+	 */
+	public boolean hasLineFlag() {
+		return (lineFlagCount > 0);
+	}
+
 	/**
 	 * Line clear check
 	 * @return 消えるLinescount
@@ -648,24 +1066,22 @@ public class Field implements Serializable {
 			lastLinesCleared = new ArrayList<Block[]>();
 		}
 		lastLinesCleared.clear();
-
-		Block[] row = new Block[width];
+		if (lastLinesClearedPool == null){
+			lastLinesClearedPool = new ArrayList<Block[]>();
+		}
 
 		for(int i = (hidden_height * -1); i < getHeightWithoutHurryupFloor(); i++) {
-			boolean flag = true;
-
-			for(int j = 0; j < width; j++) {
-				row[j] = new Block(getBlock(j, i));
-				if((getBlockEmpty(j, i) == true) || (getBlock(j, i).getAttribute(Block.BLOCK_ATTRIBUTE_WALL) == true)) {
-					flag = false;
-					break;
-				}
-			}
+			boolean flag = isFullLine(i);
 
 			setLineFlag(i, flag);
 
 			if(flag) {
+				Block[] row = getPooledLineCopy(lines);
 				lines++;
+				Block[] src = getRow(i);
+				for(int j = 0; j < width; j++) {
+					row[j].copy(src[j]);
+				}
 				lastLinesCleared.add(row);
 
 				for(int j = 0; j < width; j++) {
@@ -677,6 +1093,22 @@ public class Field implements Serializable {
 		return lines;
 	}
 
+	/**
+	 * lastLinesCleared用の行を置き場から取得 (足りなければ作る)
+	 * @param index 何番目の行か
+	 * @return 行
+	 */
+	private Block[] getPooledLineCopy(int index) {
+		while(lastLinesClearedPool.size() <= index) {
+			Block[] row = new Block[width];
+			for(int j = 0; j < width; j++) {
+				row[j] = new Block();
+			}
+			lastLinesClearedPool.add(row);
+		}
+		return lastLinesClearedPool.get(index);
+	}
+
 	/**
 	 * Line clear check  (消去 flagの設定とかはしない）
 	 * @return 消えるLinescount
@@ -685,16 +1117,7 @@ public class Field implements Serializable {
 		int lines = 0;
 
 		for(int i = (hidden_height * -1); i < getHeightWithoutHurryupFloor(); i++) {
-			boolean flag = true;
-
-			for(int j = 0; j < width; j++) {
-				if((getBlockEmpty(j, i) == true) || (getBlock(j, i).getAttribute(Block.BLOCK_ATTRIBUTE_WALL) == true)) {
-					flag = false;
-					break;
-				}
-			}
-
-			if(flag) {
+			if(isFullLine(i)) {
 				lines++;
 			}
 		}
@@ -768,20 +1191,10 @@ public class Field implements Serializable {
 			if(getLineFlag(y)) {
 				lines++;
 
-				// Blockを1段上からコピー
+				// 消えた行を一番上に回し, その上の行を1段下ろす
+				rotateRowsDown((hidden_height * -1), y);
 				for(int k = y; k > (hidden_height * -1); k--) {
-					for(int l = 0; l < width; l++) {
-						Block blk = getBlock(l, k - 1);
-						if(blk == null) blk = new Block();
-						setBlock(l, k, blk);
-						setLineFlag(k, getLineFlag(k - 1));
-					}
-				}
-
-				// 一番上を空白にする
-				for(int l = 0; l < width; l++) {
-					Block blk = new Block();
-					setBlock(l, (hidden_height * -1), blk);
+					setLineFlag(k, getLineFlag(k - 1));
 				}
 				setLineFlag((hidden_height * -1), false);
 			} else {
@@ -800,20 +1213,10 @@ public class Field implements Serializable {
 
 		for(int i = (hidden_height * -1); i < getHeightWithoutHurryupFloor(); i++) {
 			if(getLineFlag(y)) {
-				// Blockを1段上からコピー
+				// 消えた行を一番上に回し, その上の行を1段下ろす
+				rotateRowsDown((hidden_height * -1), y);
 				for(int k = y; k > (hidden_height * -1); k--) {
-					for(int l = 0; l < width; l++) {
-						Block blk = getBlock(l, k - 1);
-						if(blk == null) blk = new Block();
-						setBlock(l, k, blk);
-						setLineFlag(k, getLineFlag(k - 1));
-					}
-				}
-
-				// 一番上を空白にする
-				for(int l = 0; l < width; l++) {
-					Block blk = new Block();
-					setBlock(l, (hidden_height * -1), blk);
+					setLineFlag(k, getLineFlag(k - 1));
 				}
 				setLineFlag((hidden_height * -1), false);
 				return;
@@ -863,12 +1266,34 @@ public class Field implements Serializable {
 	 * @return <code>true</code> if the specified line is completely empty, <code>false</code> otherwise.
 	 */
 	public boolean isEmptyLine(int y) {
+		if(isRowMaskCoord(0, y)) return (rowOccupied[y + hidden_height] == 0);
+
 		for(int x = 0; x < width; x++) {
 			if(getBlockEmpty(x, y) == false) return false;
 		}
 		return true;
 	}
 
+	/**
+	 * Check if specified line is completely filled (Wall blocks don't count)
+	 * @param y Y coord
+	 * @return <code>true</code> if the specified line can be cleared, <code>false</code> otherwise.
+	 */
+	public boolean isFullLine(int y) {
+		if(isRowMaskCoord(0, y)) {
+			int i = y + hidden_height;
+			return ((rowOccupied[i] & ~rowWall[i]) == rowFullMask);
+		}
+
+		for(int j = 0; j < width; j++) {
+			if((getBlockEmpty(j, y) == true) || (getBlock(j, y).getAttribute(Block.BLOCK_ATTRIBUTE_WALL) == true)) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
 	/**
 	 * T-Spinになる地形だったらtrue
 	 * @param x X-coordinate
@@ -877,6 +1302,30 @@ public class Field implements Serializable {
 	 * @return T-Spinになる地形だったらtrue
 	 */
 	public boolean isTSpinSpot(int x, int y, boolean big) {
+		if(useRowMask && (x >= 0) && (x < width)) {
+			long a, b, c, d;
+
+			if(big == true) {
+				a = getTSlotSolidMask(y + 1, 1);
+				b = getTSlotSolidMask(y + 1, 4);
+				c = getTSlotSolidMask(y + 4, 1);
+				d = getTSlotSolidMask(y + 4, 4);
+			} else {
+				a = getTSlotSolidMask(y, 0);
+				b = getTSlotSolidMask(y, 2);
+				c = getTSlotSolidMask(y + 2, 0);
+				d = getTSlotSolidMask(y + 2, 2);
+			}
+
+			long bit = 1L << x;
+			int count = 0;
+			if((a & bit) != 0) count++;
+			if((b & bit) != 0) count++;
+			if((c & bit) != 0) count++;
+			if((d & bit) != 0) count++;
+			return (count >= 3);
+		}
+
 		// 判定用相対座標を設定
 		int[] tx = new int[4];
 		int[] ty = new int[4];
@@ -921,6 +1370,10 @@ public class Field implements Serializable {
 	 * @return T-Spinできそうな穴だったらtrue
 	 */
 	public boolean isTSlot(int x, int y, boolean big) {
+		if(useRowMask && (x >= 0) && (x < width)) {
+			return ((getTSlotMask(y, big) & (1L << x)) != 0);
+		}
+
 		// 中央が埋まってると無理
 		if(big == true) {
 			if(!getBlockEmptyF(x + 2, y + 2)) {
@@ -986,6 +1439,16 @@ public class Field implements Serializable {
 	public int getHowManyTSlot(boolean big) {
 		int result = 0;
 
+		if(useRowMask) {
+			updateTSlotCache(big);
+			for(int i = 0; i < getHeightWithoutHurryupFloor() - 2; i++) {
+				if(getLineFlag(i) == false) {
+					result += Long.bitCount(tslotMask[i + hidden_height]);
+				}
+			}
+			return result;
+		}
+
 		for(int j = 0; j < width; j++) {
 			for(int i = 0; i < getHeightWithoutHurryupFloor() - 2; i++) {
 				if(getLineFlag(i) == false) {
@@ -1028,6 +1491,10 @@ public class Field implements Serializable {
 	public int getTSlotLineClear(int x, int y, boolean big) {
 		if(!isTSlot(x, y, big)) return 0;
 
+		if(useRowMask && (x >= 0) && (x < width)) {
+			return getTSlotLineClearMask(x, y);
+		}
+
 		boolean[] lineflag = new boolean[2];
 		lineflag[0] = lineflag[1] = true;
 
@@ -1058,17 +1525,7 @@ public class Field implements Serializable {
 	 * @return T-Spinで消えるLinescount(T-Spinじゃない場合などは0)
 	 */
 	public int getTSlotLineClearAll(boolean big) {
-		int result = 0;
-
-		for(int j = 0; j < width; j++) {
-			for(int i = 0; i < getHeightWithoutHurryupFloor() - 2; i++) {
-				if(getLineFlag(i) == false) {
-					result += getTSlotLineClear(j, i, big);
-				}
-			}
-		}
-
-		return result;
+		return getTSlotLineClearAll(big, 0);
 	}
 
 	/**
@@ -1080,6 +1537,17 @@ public class Field implements Serializable {
 	public int getTSlotLineClearAll(boolean big, int minimum) {
 		int result = 0;
 
+		if(useRowMask) {
+			updateTSlotCache(big);
+			for(int i = 0; i < getHeightWithoutHurryupFloor() - 2; i++) {
+				if(getLineFlag(i) == false) {
+					if(minimum <= 1) result += tslotSingle[i + hidden_height];
+					if(minimum <= 2) result += tslotDouble[i + hidden_height] * 2;
+				}
+			}
+			return result;
+		}
+
 		for(int j = 0; j < width; j++) {
 			for(int i = 0; i < getHeightWithoutHurryupFloor() - 2; i++) {
 				if(getLineFlag(i) == false) {
@@ -1094,6 +1562,241 @@ public class Field implements Serializable {
 		return result;
 	}
 
+	/**
+	 * 指定した行にあるT-Spinできそうな穴をまとめて調べる (Row bitmaskが使えるときのみ)
+	 * @param y Y-coordinate
+	 * @param big Bigかどうか
+	 * @return bit xが立っていれば(x, y)がisTSlotの条件を満たす
+	 */
+	public long getTSlotMask(int y, boolean big) {
+		long blocked, a, b, c, d;
+
+		if(big == true) {
+			// 中央
+			blocked = getTSlotSolidMask(y + 2, 2);
+			// 角
+			a = getTSlotSolidMask(y + 1, 1);
+			b = getTSlotSolidMask(y + 1, 4);
+			c = getTSlotSolidMask(y + 4, 1);
+			d = getTSlotSolidMask(y + 4, 4);
+		} else {
+			long middle = getTSlotSolidMask(y + 1, 0);
+
+			// 中央とその上下左右
+			blocked = getTSlotSolidMask(y - 1, 1) | getTSlotSolidMask(y, 1) | getTSlotSolidMask(y + 1, 1) |
+					  getTSlotSolidMask(y + 2, 1) | middle | getTSlotSolidMask(y + 1, 2);
+			// 角
+			a = getTSlotSolidMask(y, 0);
+			b = getTSlotSolidMask(y, 2);
+			c = getTSlotSolidMask(y + 2, 0);
+			d = getTSlotSolidMask(y + 2, 2);
+		}
+
+		// 角がちょうど3つ埋まっている
+		long three = (a & b & (c ^ d)) | (c & d & (a ^ b));
+
+		return ~blocked & three & rowFullMask;
+	}
+
+	/**
+	 * T-Slot判定用に, 指定した行の埋まっているマスのbitmaskを右にずらして取得.
+	 * field外のマス (左右・上下とも) は埋まっている扱い.
+	 * @param y Y-coordinate
+	 * @param shift ずらすcount (0～4)
+	 * @return bit xが立っていれば(x + shift, y)が空白ではない
+	 */
+	protected long getTSlotSolidMask(int y, int shift) {
+		if((y < hidden_height * -1) || (y >= height)) return -1L;
+
+		long solid = rowOccupied[y + hidden_height] | ~rowFullMask;
+		if(shift == 0) return solid;
+		return (solid >>> shift) | (-1L << (64 - shift));
+	}
+
+	/**
+	 * (x, y)のT-Slotで消えるLinescountをRow bitmaskから計算
+	 * @param x X-coordinate
+	 * @param y Y-coordinate
+	 * @return 消えるLinescount
+	 */
+	protected int getTSlotLineClearMask(int x, int y) {
+		long outside = ~(7L << x);
+		int lines = 0;
+
+		for(int i = 1; i <= 2; i++) {
+			long holes = ~getTSlotSolidMask(y + i, 0);
+			if((holes & outside) == 0) lines++;
+		}
+
+		return lines;
+	}
+
+	/**
+	 * 変更があった行についてだけT-Slotの情報を再計算する
+	 * @param big Bigかどうか
+	 */
+	protected void updateTSlotCache(boolean big) {
+		int size = hidden_height + height;
+
+		if((tslotDirty == null) || (tslotDirty.length != size)) {
+			tslotMask = new long[size];
+			tslotSingle = new int[size];
+			tslotDouble = new int[size];
+			tslotDirty = new boolean[size];
+			Arrays.fill(tslotDirty, true);
+		} else if(tslotBig != big) {
+			Arrays.fill(tslotDirty, true);
+		}
+		tslotBig = big;
+
+		for(int i = hidden_height; i < size; i++) {
+			if(!tslotDirty[i]) continue;
+
+			int y = i - hidden_height;
+			long mask = getTSlotMask(y, big);
+			int single = 0;
+			int doubles = 0;
+
+			for(long m = mask; m != 0; m &= m - 1) {
+				int lines = getTSlotLineClearMask(Long.numberOfTrailingZeros(m), y);
+				if(lines == 1) single++;
+				else if(lines == 2) doubles++;
+			}
+
+			tslotMask[i] = mask;
+			tslotSingle[i] = single;
+			tslotDouble[i] = doubles;
+			tslotDirty[i] = false;
+		}
+	}
+
+	/**
+	 * top～bottomの行が変わった時に, 影響するT-Slotの情報を再計算が必要にする
+	 * @param top 一番上の行
+	 * @param bottom 一番下の行
+	 */
+	protected void markTSlotRows(int top, int bottom) {
+		if(tslotDirty == null) return;
+
+		// 通常は上2段・下1段, Bigは上4段まで影響する
+		int from = Math.max(top - 4 + hidden_height, 0);
+		int to = Math.min(bottom + 1 + hidden_height, tslotDirty.length - 1);
+		for(int i = from; i <= to; i++) {
+			tslotDirty[i] = true;
+		}
+	}
+
+	/**
+	 * 盤面のZobrist hashを取得.
+	 * 空白でない各セルのkey (座標とBlock colorから作る) のXORで, 同じ盤面なら同じ値になる (実行ごとにも変わらない).
+	 * Field経由の変更 (setBlock, setBlockColor, Line clear, pushUp, garbage, cascadeなど) のたびに差分だけ更新される.
+	 * BlockのcolorをFieldの外から直接書き換えた場合はrefreshRowを呼ぶこと.
+	 * @return 64bitのhash
+	 */
+	public long getHash() {
+		return fieldHash;
+	}
+
+	/**
+	 * 1セル分のhashを更新
+	 * @param x X-coordinate
+	 * @param y Y-coordinate
+	 * @param color 新しいBlock color
+	 */
+	protected void updateHashCell(int x, int y, int color) {
+		int c = ((y + hidden_height) * width) + x;
+		int old = hashColor[c];
+
+		if(old != color) {
+			fieldHash ^= getHashKey(x, y, old) ^ getHashKey(x, y, color);
+			hashColor[c] = color;
+		}
+	}
+
+	/**
+	 * 1行分のhashを今のBlock colorに合わせて更新
+	 * @param y Y-coordinate
+	 */
+	protected void updateHashRow(int y) {
+		Block[] row = getRow(y);
+		if(row == null) return;
+
+		for(int j = 0; j < width; j++) {
+			updateHashCell(j, y, row[j].color);
+		}
+	}
+
+	/**
+	 * 1行分のkeyをhashに出し入れする (同じ行で2回呼ぶと元に戻る)
+	 * @param y Y-coordinate
+	 */
+	protected void xorHashRow(int y) {
+		int c = (y + hidden_height) * width;
+
+		for(int j = 0; j < width; j++) {
+			if(hashColor[c + j] != Block.BLOCK_COLOR_NONE) fieldHash ^= getHashKey(j, y, hashColor[c + j]);
+		}
+	}
+
+	/**
+	 * top～bottomの行のhashを1段ずらす (行を動かすと全セルのkeyが変わるので, 抜いてから入れ直す).
+	 * 空いた行は空白として扱う.
+	 * @param top 一番上の行
+	 * @param bottom 一番下の行
+	 * @param down trueなら下に, falseなら上にずらす
+	 */
+	protected void shiftHashRows(int top, int bottom, boolean down) {
+		for(int i = top; i <= bottom; i++) {
+			xorHashRow(i);
+		}
+
+		int t = (top + hidden_height) * width;
+		int n = (bottom - top) * width;
+		if(down) {
+			System.arraycopy(hashColor, t, hashColor, t + width, n);
+			Arrays.fill(hashColor, t, t + width, Block.BLOCK_COLOR_NONE);
+		} else {
+			System.arraycopy(hashColor, t + width, hashColor, t, n);
+			Arrays.fill(hashColor, t + n, t + n + width, Block.BLOCK_COLOR_NONE);
+		}
+
+		for(int i = top; i <= bottom; i++) {
+			xorHashRow(i);
+		}
+	}
+
+	/**
+	 * 1セル分のZobrist hashのkeyを取得 (空白のセルは0)
+	 * @param x X-coordinate
+	 * @param y Y-coordinate
+	 * @param color Block color
+	 * @return key
+	 */
+	protected static long getHashKey(int x, int y, int color) {
+		if(color == Block.BLOCK_COLOR_NONE) return 0;
+		return mixHash((((long)y) << 40) ^ (((long)x) << 32) ^ (color & 0xFFFFFFFFL) ^ 0x5DEECE66DL);
+	}
+
+	/**
+	 * Zobrist hashのキーを作るための混ぜ関数 (splitmix64)
+	 * @param z 元の値
+	 * @return 混ぜた値
+	 */
+	protected static long mixHash(long z) {
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+
+	/**
+	 * 地形情報を取得 (初回は作成する)
+	 * @return 地形情報
+	 */
+	public FieldMetrics getMetrics() {
+		if(metrics == null) metrics = new FieldMetrics(this);
+		return metrics;
+	}
+
 	/**
 	 * field内に何個のBlockがあるか調べる
 	 * @return field内にあるBlockのcount
@@ -1163,6 +1866,8 @@ public class Field implements Serializable {
 	 * @return 一番上にあるBlockのY-coordinate
 	 */
 	public int getHighestBlockY() {
+		if(getMetrics().isAvailable()) return metrics.getHighestBlockY();
+
 		for(int i = (hidden_height * -1); i < getHeightWithoutHurryupFloor(); i++) {
 			if(getLineFlag(i) == false) {
 				for(int j = 0; j < width; j++) {
@@ -1180,6 +1885,8 @@ public class Field implements Serializable {
 	 * @return 一番上にあるBlockのY-coordinate
 	 */
 	public int getHighestBlockY(int x) {
+		if(getMetrics().isAvailable()) return metrics.getHighestBlockY(x);
+
 		for(int i = (hidden_height * -1); i < getHeightWithoutHurryupFloor(); i++) {
 			if(getLineFlag(i) == false) {
 				if(!getBlockEmpty(x, i)) return i;
@@ -1222,6 +1929,8 @@ public class Field implements Serializable {
 	 * @return field内の隙間のcount
 	 */
 	public int getHowManyHoles() {
+		if(getMetrics().isAvailable()) return metrics.getHowManyHoles();
+
 		int hole = 0;
 		boolean samehole = false;
 
@@ -1249,6 +1958,8 @@ public class Field implements Serializable {
 	 * @return 積み重なっているBlockのcount
 	 */
 	public int getHowManyLidAboveHoles() {
+		if(getMetrics().isAvailable()) return metrics.getHowManyLidAboveHoles();
+
 		int blocks = 0;
 
 		for(int j = 0; j < width; j++) {
@@ -1275,6 +1986,8 @@ public class Field implements Serializable {
 	 * @return 全ての谷の深さを合計したもの
 	 */
 	public int getTotalValleyDepth() {
+		if(getMetrics().isAvailable()) return metrics.getTotalValleyDepth();
+
 		int depth = 0;
 
 		for(int j = 0; j < width; j++) {
@@ -1290,6 +2003,8 @@ public class Field implements Serializable {
 	 * @return I型が必要な谷のcount
 	 */
 	public int getTotalValleyNeedIPiece() {
+		if(getMetrics().isAvailable()) return metrics.getTotalValleyNeedIPiece();
+
 		int count = 0;
 
 		for(int j = 0; j < width; j++) {
@@ -1305,6 +2020,8 @@ public class Field implements Serializable {
 	 * @return 谷の深さ (無かったら0）
 	 */
 	public int getValleyDepth(int x) {
+		if(getMetrics().isAvailable()) return metrics.getValleyDepth(x);
+
 		int depth = 0;
 
 		int highest = getHighestBlockY(x - 1);
@@ -1326,23 +2043,16 @@ public class Field implements Serializable {
 	 * @param lines ずらす段count
 	 */
 	public void pushUp(int lines) {
+		int bottom = getHeightWithoutHurryupFloor() - 1;
+
 		for(int k = 0; k < lines; k++) {
-			for(int i = (hidden_height * -1); i < getHeightWithoutHurryupFloor() - 1; i++) {
-				// Blockを1段下からコピー
-				for(int j = 0; j < width; j++) {
-					Block blk = getBlock(j, i + 1);
-					if(blk == null) blk = new Block();
-					setBlock(j, i, blk);
-					setLineFlag(i, getLineFlag(i + 1));
-				}
-			}
+			// 一番上の行を空にして一番下に回す
+			rotateRowsUp((hidden_height * -1), bottom);
 
-			// 一番下を空白にする
-			for(int j = 0; j < width; j++) {
-				int y = getHeightWithoutHurryupFloor() - 1;
-				setBlock(j, y, new Block());
-				setLineFlag(y, false);
+			for(int i = (hidden_height * -1); i < bottom; i++) {
+				setLineFlag(i, getLineFlag(i + 1));
 			}
+			setLineFlag(bottom, false);
 		}
 	}
 
@@ -1358,22 +2068,16 @@ public class Field implements Serializable {
 	 * @param lines ずらす段count
 	 */
 	public void pushDown(int lines) {
+		int bottom = getHeightWithoutHurryupFloor() - 1;
+
 		for(int k = 0; k < lines; k++) {
-			for(int i = getHeightWithoutHurryupFloor() - 1; i > (hidden_height * -1); i--) {
-				// Blockを1段上からコピー
-				for(int j = 0; j < width; j++) {
-					Block blk = getBlock(j, i - 1);
-					if(blk == null) blk = new Block();
-					setBlock(j, i, blk);
-					setLineFlag(i, getLineFlag(i + 1));
-				}
-			}
+			// 一番下の行を空にして一番上に回す
+			rotateRowsDown((hidden_height * -1), bottom);
 
-			// 一番上を空白にする
-			for(int j = 0; j < width; j++) {
-				setBlock(j, (hidden_height * -1), new Block());
-				setLineFlag((hidden_height * -1), false);
+			for(int i = bottom; i > (hidden_height * -1); i--) {
+				setLineFlag(i, getLineFlag(i + 1));
 			}
+			setLineFlag((hidden_height * -1), false);
 		}
 	}
 
@@ -1390,20 +2094,16 @@ public class Field implements Serializable {
 	 * @param lines Number of lines to cut
 	 */
 	public void cutLine(int y, int lines) {
+		// 範囲外の行はずらせないので, 一番下の行から切る
+		int bottom = Math.max(Math.min(y, height - 1), (hidden_height * -1));
+
 		for(int k = 0; k < lines; k++) {
+			rotateRowsDown((hidden_height * -1), bottom);
+
 			for(int i = y; i > (hidden_height * -1); i--) {
-				for(int j = 0; j < width; j++) {
-					Block blk = getBlock(j, i - 1);
-					if(blk == null) blk = new Block();
-					setBlock(j, i, blk);
-				}
 				setLineFlag(i, getLineFlag(i + 1));
 			}
-
-			for(int j = 0; j < width; j++) {
-				setBlock(j, (hidden_height * -1), new Block());
-				setLineFlag((hidden_height * -1), false);
-			}
+			setLineFlag((hidden_height * -1), false);
 		}
 	}
 
@@ -1424,7 +2124,7 @@ public class Field implements Serializable {
 					row2[i] = new Block();
 				}
 				else{
-					row2[i] = row[i];
+					row2[i] = new Block(row[i]);
 				}
 			}
 			attack.add(0, row2);
@@ -1567,6 +2267,8 @@ public class Field implements Serializable {
 				}
 			}
 		}
+
+		if((attr & Block.BLOCK_ATTRIBUTE_WALL) != 0) refreshAllRows();
 	}
 
 	/**
@@ -1649,14 +2351,186 @@ public class Field implements Serializable {
 	}
 
 	/**
-	 * Checks for 4x4 square formations and converts blocks to square blocks if needed.
-	 * @return Number of square formations (index 0 is gold, index 1 is silver)
+	 * Checks for 4x4 square formations and converts blocks to square blocks if needed.
+	 * @return Number of square formations (index 0 is gold, index 1 is silver)
+	 */
+	public int[] checkForSquares() {
+		return checkForSquares(hidden_height * -1, getHeightWithoutHurryupFloor() - 1);
+	}
+
+	/**
+	 * Checks for 4x4 square formations that contain at least one of the specified rows
+	 * and converts blocks to square blocks if needed.
+	 * When only the rows top..bottom have changed since the last check (e.g. right after a piece locks),
+	 * this finds the same squares as checkForSquares().
+	 * @param top Topmost changed row
+	 * @param bottom Bottommost changed row
+	 * @return Number of square formations (index 0 is gold, index 1 is silver)
+	 */
+	public int[] checkForSquares(int top, int bottom) {
+		int[] squares = {0,0};
+
+		// Upper-left corners of the areas which contain a row between top and bottom
+		int from = Math.max(top - 3, hidden_height * -1);
+		int to = Math.min(bottom, getHeightWithoutHurryupFloor() - 4);
+		if((from > to) || (width < 4)) return squares;
+
+		if(!useRowMask) {
+			checkForSquaresSlow(from, to, squares);
+			return squares;
+		}
+
+		updateSquareMasks(from, to + 3);
+		long[] eligible = squareMasks[SQUARE_MASK_ELIGIBLE];
+
+		// Check for gold squares first, then silver squares.
+		// Squares are taken from top-left to bottom-right, and blocks which became part of a square
+		// can't be used by the following ones.
+		for (int pass = 0; pass < 2; pass++) {
+			for (int i = from; i <= to; i++) {
+				long candidates = getSquareCandidates(i, pass == 0);
+
+				while (candidates != 0) {
+					int j = Long.numberOfTrailingZeros(candidates);
+					long area = 15L << j;
+
+					setSquareBlocks(j, i, (pass == 0) ? Block.BLOCK_COLOR_SQUARE_GOLD_1 : Block.BLOCK_COLOR_SQUARE_SILVER_1);
+					squares[pass]++;
+
+					for (int k = 0; k < 4; k++) {
+						eligible[i + k + hidden_height] &= ~area;
+					}
+					// Areas overlapping this square are no longer squares
+					candidates &= ~area;
+				}
+			}
+		}
+
+		return squares;
+	}
+
+	/**
+	 * Builds the bitmasks used by the square check for the specified rows.
+	 * Eligible blocks are the ones which exist and are not part of a square, broken or garbage.
+	 * @param top Topmost row
+	 * @param bottom Bottommost row
+	 */
+	protected void updateSquareMasks(int top, int bottom) {
+		if((squareMasks == null) || (squareMasks[0].length != hidden_height + height)) {
+			squareMasks = new long[SQUARE_MASK_MAX][hidden_height + height];
+		}
+
+		for (int i = top; i <= bottom; i++) {
+			Block[] row = getRowE(i);
+			Block[] below = (i + 1 < height) ? getRowE(i + 1) : null;
+			long eligible = 0, left = 0, right = 0, up = 0, down = 0, sameRight = 0, sameDown = 0;
+
+			for (int j = 0; j < width; j++) {
+				Block blk = row[j];
+				long bit = 1L << j;
+
+				if (!(blk.isEmpty() || blk.isGoldSquareBlock() || blk.isSilverSquareBlock() ||
+						blk.getAttribute(Block.BLOCK_ATTRIBUTE_BROKEN) || blk.getAttribute(Block.BLOCK_ATTRIBUTE_GARBAGE))) {
+					eligible |= bit;
+				}
+				if (blk.getAttribute(Block.BLOCK_ATTRIBUTE_CONNECT_LEFT)) left |= bit;
+				if (blk.getAttribute(Block.BLOCK_ATTRIBUTE_CONNECT_RIGHT)) right |= bit;
+				if (blk.getAttribute(Block.BLOCK_ATTRIBUTE_CONNECT_UP)) up |= bit;
+				if (blk.getAttribute(Block.BLOCK_ATTRIBUTE_CONNECT_DOWN)) down |= bit;
+				if ((j < width - 1) && (blk.color == row[j + 1].color)) sameRight |= bit;
+				if ((below != null) && (blk.color == below[j].color)) sameDown |= bit;
+			}
+
+			int r = i + hidden_height;
+			squareMasks[SQUARE_MASK_ELIGIBLE][r] = eligible;
+			squareMasks[SQUARE_MASK_CONNECT_LEFT][r] = left;
+			squareMasks[SQUARE_MASK_CONNECT_RIGHT][r] = right;
+			squareMasks[SQUARE_MASK_CONNECT_UP][r] = up;
+			squareMasks[SQUARE_MASK_CONNECT_DOWN][r] = down;
+			squareMasks[SQUARE_MASK_SAME_RIGHT][r] = sameRight;
+			squareMasks[SQUARE_MASK_SAME_DOWN][r] = sameDown;
+		}
+	}
+
+	/**
+	 * Finds every 4x4 area whose upper-left block is in the specified row and which can become a square
+	 * (updateSquareMasks must be called first).
+	 * @param y Y-coordinate of the upper-left blocks
+	 * @param gold true to check for monosquares (gold), false to check for multisquares (silver)
+	 * @return Bit x is set when the area starting at (x, y) is a square
+	 */
+	protected long getSquareCandidates(int y, boolean gold) {
+		int r = y + hidden_height;
+		long inside = -1L;
+		long left = 0, right = 0;
+
+		for (int k = 0; k < 4; k++) {
+			long e = squareMasks[SQUARE_MASK_ELIGIBLE][r + k];
+			inside &= e & (e >>> 1) & (e >>> 2) & (e >>> 3);
+			left |= squareMasks[SQUARE_MASK_CONNECT_LEFT][r + k];
+			right |= squareMasks[SQUARE_MASK_CONNECT_RIGHT][r + k];
+		}
+
+		// No connections outside the area
+		long up = squareMasks[SQUARE_MASK_CONNECT_UP][r];
+		long down = squareMasks[SQUARE_MASK_CONNECT_DOWN][r + 3];
+		long result = inside & ~left & ~(right >>> 3) &
+					  ~(up | (up >>> 1) | (up >>> 2) | (up >>> 3)) &
+					  ~(down | (down >>> 1) | (down >>> 2) | (down >>> 3)) &
+					  (rowFullMask >>> 3);
+
+		if (gold && (result != 0)) {
+			// Every row has one color, and the left column has one color
+			for (int k = 0; k < 4; k++) {
+				long same = squareMasks[SQUARE_MASK_SAME_RIGHT][r + k];
+				result &= same & (same >>> 1) & (same >>> 2);
+				if (k < 3) result &= squareMasks[SQUARE_MASK_SAME_DOWN][r + k];
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * Converts a 4x4 area to square blocks
+	 * @param x X-coordinate of the upper-left block
+	 * @param y Y-coordinate of the upper-left block
+	 * @param baseColor BLOCK_COLOR_SQUARE_GOLD_1 or BLOCK_COLOR_SQUARE_SILVER_1
+	 */
+	protected void setSquareBlocks(int x, int y, int baseColor) {
+		int[] squareX = new int[] {0, 1, 1, 2};
+		int[] squareY = new int[] {0, 3, 3, 6};
+		for (int k = 0; k < 4; k++) {
+			for (int l = 0; l < 4; l++) {
+				Block blk = getBlock(x+l, y+k);
+				blk.color = baseColor + squareX[l] + squareY[k];
+				updateRowMask(x+l, y+k, blk);
+				// For stylistic concerns, we attach all blocks in the square together.
+				if (k > 0) {
+					blk.setAttribute(Block.BLOCK_ATTRIBUTE_CONNECT_UP, true);
+				}
+				if (k < 3) {
+					blk.setAttribute(Block.BLOCK_ATTRIBUTE_CONNECT_DOWN, true);
+				}
+				if (l > 0) {
+					blk.setAttribute(Block.BLOCK_ATTRIBUTE_CONNECT_LEFT, true);
+				}
+				if (l < 3) {
+					blk.setAttribute(Block.BLOCK_ATTRIBUTE_CONNECT_RIGHT, true);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Square check which looks at every block (used when the row bitmasks are unavailable)
+	 * @param from First row of upper-left blocks
+	 * @param to Last row of upper-left blocks
+	 * @param squares Number of square formations found (index 0 is gold, index 1 is silver)
 	 */
-	public int[] checkForSquares() {
-		int[] squares = {0,0};
-
+	private void checkForSquaresSlow(int from, int to, int[] squares) {
 		// Check for gold squares
-		for (int i = (hidden_height * -1); i < (getHeightWithoutHurryupFloor() - 3); i++) {
+		for (int i = from; i <= to; i++) {
 			for (int j = 0; j < (width - 3); j++) {
 				// rootBlk is the upper-left square
 				Block rootBlk = getBlock(j, i);
@@ -1703,32 +2577,12 @@ public class Field implements Serializable {
 				// We found a square! Set all the blocks equal to gold blocks.
 				if (squareCheck) {
 					squares[0]++;
-					int[] squareX = new int[] {0, 1, 1, 2};
-					int[] squareY = new int[] {0, 3, 3, 6};
-					for (int k = 0; k < 4; k++) {
-						for (int l = 0; l < 4; l++) {
-							Block blk = getBlock(j+l, i+k);
-							blk.color = Block.BLOCK_COLOR_SQUARE_GOLD_1 + squareX[l] + squareY[k];
-							// For stylistic concerns, we attach all blocks in the square together.
-							if (k > 0) {
-								blk.setAttribute(Block.BLOCK_ATTRIBUTE_CONNECT_UP, true);
-							}
-							if (k < 3) {
-								blk.setAttribute(Block.BLOCK_ATTRIBUTE_CONNECT_DOWN, true);
-							}
-							if (l > 0) {
-								blk.setAttribute(Block.BLOCK_ATTRIBUTE_CONNECT_LEFT, true);
-							}
-							if (l < 3) {
-								blk.setAttribute(Block.BLOCK_ATTRIBUTE_CONNECT_RIGHT, true);
-							}
-						}
-					}
+					setSquareBlocks(j, i, Block.BLOCK_COLOR_SQUARE_GOLD_1);
 				}
 			}
 		}
 		// Check for silver squares
-		for (int i = (hidden_height * -1); i < (getHeightWithoutHurryupFloor() - 3); i++) {
+		for (int i = from; i <= to; i++) {
 			for (int j = 0; j < (width - 3); j++) {
 				Block rootBlk = getBlock(j, i);
 				boolean squareCheck = false;
@@ -1759,31 +2613,10 @@ public class Field implements Serializable {
 				// We found a square! Set all the blocks equal to silver blocks.
 				if (squareCheck) {
 					squares[1]++;
-					int[] squareX = new int[] {0, 1, 1, 2};
-					int[] squareY = new int[] {0, 3, 3, 6};
-					for (int k = 0; k < 4; k++) {
-						for (int l = 0; l < 4; l++) {
-							Block blk = getBlock(j+l, i+k);
-							blk.color = Block.BLOCK_COLOR_SQUARE_SILVER_1 + squareX[l] + squareY[k];
-							if (k > 0) {
-								blk.setAttribute(Block.BLOCK_ATTRIBUTE_CONNECT_UP, true);
-							}
-							if (k < 3) {
-								blk.setAttribute(Block.BLOCK_ATTRIBUTE_CONNECT_DOWN, true);
-							}
-							if (l > 0) {
-								blk.setAttribute(Block.BLOCK_ATTRIBUTE_CONNECT_LEFT, true);
-							}
-							if (l < 3) {
-								blk.setAttribute(Block.BLOCK_ATTRIBUTE_CONNECT_RIGHT, true);
-							}
-						}
-					}
+					setSquareBlocks(j, i, Block.BLOCK_COLOR_SQUARE_SILVER_1);
 				}
 			}
 		}
-
-		return squares;
 	}
 
 	/**
@@ -1792,6 +2625,8 @@ public class Field implements Serializable {
 	 */
 	public int[] getHowManySquareClears() {
 		int[] squares = {0,0};
+		if(!hasLineFlag()) return squares;
+
 		for(int i = (hidden_height * -1); i < getHeightWithoutHurryupFloor(); i++) {
 			// Check the lines we are clearing.
 			if (getLineFlag(i)) {
@@ -1957,24 +2792,14 @@ public class Field implements Serializable {
 	 */
 	public int gemClearColor (int size, boolean garbageClear, boolean ignoreHidden)
 	{
-		Field temp = new Field(this);
+		labelColorGroups(true, ignoreHidden);
+		int groups = collectColorGroupStarts(size, true);
 		int total = 0;
-		Block b;
 
-		for(int i = (hidden_height * -1); i < getHeightWithoutHurryupFloor(); i++) {
-			for(int j = 0; j < width; j++) {
-				b = getBlock(j, i);
-				if (b == null)
-					continue;
-				if (!b.isGemBlock())
-					continue;
-				int clear = temp.clearColor(j, i, false, garbageClear, true, ignoreHidden);
-				if (clear >= size)
-				{
-					total += clear;
-					clearColor(j, i, false, garbageClear, true, ignoreHidden);
-				}
-			}
+		for(int k = 0; k < groups; k++) {
+			int c = colorGroupOrder[k];
+			total += colorGroupSize[colorGroupLabel[c]];
+			clearColor(c % width, (c / width) - hidden_height, false, garbageClear, true, ignoreHidden);
 		}
 		return total;
 	}
@@ -1991,17 +2816,14 @@ public class Field implements Serializable {
 	 */
 	public int clearColor (int size, boolean garbageClear, boolean gemSame, boolean ignoreHidden)
 	{
-		Field temp = new Field(this);
+		labelColorGroups(gemSame, ignoreHidden);
+		int groups = collectColorGroupStarts(size, false);
 		int total = 0;
-		for(int i = ignoreHidden ? 0 : (hidden_height * -1); i < getHeightWithoutHurryupFloor(); i++) {
-			for(int j = 0; j < width; j++) {
-				int clear = temp.clearColor(j, i, false, garbageClear, gemSame, ignoreHidden);
-				if (clear >= size)
-				{
-					total += clear;
-					clearColor(j, i, false, garbageClear, gemSame, ignoreHidden);
-				}
-			}
+
+		for(int k = 0; k < groups; k++) {
+			int c = colorGroupOrder[k];
+			total += colorGroupSize[colorGroupLabel[c]];
+			clearColor(c % width, (c / width) - hidden_height, false, garbageClear, gemSame, ignoreHidden);
 		}
 		return total;
 	}
@@ -2035,46 +2857,212 @@ public class Field implements Serializable {
 	}
 	/**
 	 * Note: This method is private because calling it with a targetColor parameter
-	 *       of BLOCK_COLOR_NONE or BLOCK_COLOR_INVALID may cause an infinite loop
-	 *       and crash the game. This check is handled by the above public method
+	 *       of BLOCK_COLOR_NONE or BLOCK_COLOR_INVALID would flood every empty cell.
+	 *       This check is handled by the above public method
 	 *       so as to avoid redundant checks.
+	 *       Each cell is visited only once, so a hard block loses one hardness per clear.
 	 */
 	private int clearColor (int x, int y, int targetColor, boolean flag, boolean garbageClear,
 			boolean gemSame, boolean ignoreHidden)
 	{
-		if (ignoreHidden && y < 0)
-			return 0;
-		int blockColor = getBlockColor(x, y, gemSame);
-		if (blockColor == Block.BLOCK_COLOR_INVALID)
-			return 0;
-		Block b = getBlock(x, y);
-		if (flag && b.getAttribute(Block.BLOCK_ATTRIBUTE_ERASE))
-			return 0;
-		if (garbageClear && b.getAttribute(Block.BLOCK_ATTRIBUTE_GARBAGE)
-				 && !b.getAttribute(Block.BLOCK_ATTRIBUTE_WALL))
-		{
-			if (flag)
+		ensureColorGroupWork();
+		Arrays.fill(floodVisited, 0L);
+
+		int top = ignoreHidden ? 0 : (hidden_height * -1);
+		int count = 0;
+		int sp = pushFloodCell(x, y, top, 0);
+
+		while(sp > 0) {
+			int c = floodStack[--sp];
+			int cx = c % width;
+			int cy = (c / width) - hidden_height;
+
+			int blockColor = getBlockColor(cx, cy, gemSame);
+			Block b = getBlock(cx, cy);
+			if (flag && b.getAttribute(Block.BLOCK_ATTRIBUTE_ERASE))
+				continue;
+
+			boolean garbage = false;
+			if (garbageClear && b.getAttribute(Block.BLOCK_ATTRIBUTE_GARBAGE)
+					 && !b.getAttribute(Block.BLOCK_ATTRIBUTE_WALL))
+			{
+				garbage = true;
+				if (flag)
+				{
+					b.setAttribute(Block.BLOCK_ATTRIBUTE_ERASE, true);
+					garbageCleared++;
+				}
+				else if (b.hard > 0)
+					b.hard--;
+				else
+					setBlockColor(cx, cy, Block.BLOCK_COLOR_NONE);
+			}
+			if (blockColor != targetColor)
+				continue;
+			if (!garbage)
 			{
-				b.setAttribute(Block.BLOCK_ATTRIBUTE_ERASE, true);
-				garbageCleared++;
+				if (flag)
+					b.setAttribute(Block.BLOCK_ATTRIBUTE_ERASE, true);
+				else if (b.hard > 0)
+					b.hard--;
+				else
+					setBlockColor(cx, cy, Block.BLOCK_COLOR_NONE);
+			}
+
+			count++;
+			sp = pushFloodCell(cx + 1, cy, top, sp);
+			sp = pushFloodCell(cx - 1, cy, top, sp);
+			sp = pushFloodCell(cx, cy + 1, top, sp);
+			sp = pushFloodCell(cx, cy - 1, top, sp);
+		}
+
+		return count;
+	}
+
+	/**
+	 * 塗りつぶし用のスタックに未訪問のセルを積む
+	 * @param x X-coordinate
+	 * @param y Y-coordinate
+	 * @param top 塗りつぶしの対象になる一番上の行
+	 * @param sp 現在のスタックの深さ
+	 * @return 新しいスタックの深さ
+	 */
+	private int pushFloodCell(int x, int y, int top, int sp) {
+		if((x < 0) || (x >= width) || (y < top) || (y >= height)) return sp;
+
+		int c = ((y + hidden_height) * width) + x;
+		if((floodVisited[c >>> 6] & (1L << c)) != 0) return sp;
+
+		floodVisited[c >>> 6] |= (1L << c);
+		floodStack[sp] = c;
+		return sp + 1;
+	}
+
+	/**
+	 * 色グループ判定用の作業領域を確保
+	 */
+	private void ensureColorGroupWork() {
+		int cells = width * (hidden_height + height);
+		if((colorGroupLabel != null) && (colorGroupLabel.length == cells)) return;
+
+		colorGroupLabel = new int[cells];
+		colorGroupSize = new int[cells];
+		colorGroupStart = new int[cells];
+		colorGroupGemStart = new int[cells];
+		colorGroupOrder = new int[cells];
+		floodStack = new int[cells];
+		floodVisited = new long[(cells + 63) >>> 6];
+		colorGroupCount = 0;
+	}
+
+	/**
+	 * 同じ色でつながっているBlockのグループを1回の走査ですべてラベル付けする.
+	 * garbage blockも同じ色ならグループに含まれる.
+	 * 結果はgetColorGroupSizeで取得できる (fieldを変更したら再度呼ぶこと).
+	 * @param gemSame <code>true</code> to check gem blocks
+	 * @param ignoreHidden <code>true</code> to ignore blocks above the visible field
+	 * @return グループのcount
+	 */
+	public int labelColorGroups(boolean gemSame, boolean ignoreHidden) {
+		ensureColorGroupWork();
+		Arrays.fill(colorGroupLabel, -1);
+		colorGroupCount = 0;
+
+		int top = ignoreHidden ? 0 : (hidden_height * -1);
+		int bottom = getHeightWithoutHurryupFloor();
+
+		for(int i = top; i < height; i++) {
+			for(int j = 0; j < width; j++) {
+				int idx = ((i + hidden_height) * width) + j;
+				if(colorGroupLabel[idx] != -1) continue;
+
+				int color = getBlockColor(j, i, gemSame);
+				if((color == Block.BLOCK_COLOR_NONE) || (color == Block.BLOCK_COLOR_INVALID)) continue;
+
+				int label = colorGroupCount++;
+				int size = 0;
+				int start = -1;
+				int gemStart = -1;
+
+				colorGroupLabel[idx] = label;
+				floodStack[0] = idx;
+				int sp = 1;
+
+				while(sp > 0) {
+					int c = floodStack[--sp];
+					int cx = c % width;
+					int cy = (c / width) - hidden_height;
+					Block b = getBlock(cx, cy);
+
+					size++;
+					if((cy < bottom) && !b.getAttribute(Block.BLOCK_ATTRIBUTE_GARBAGE)) {
+						if((start == -1) || (c < start)) start = c;
+						if(b.isGemBlock() && ((gemStart == -1) || (c < gemStart))) gemStart = c;
+					}
+
+					sp = pushColorGroupCell(cx + 1, cy, top, color, label, gemSame, sp);
+					sp = pushColorGroupCell(cx - 1, cy, top, color, label, gemSame, sp);
+					sp = pushColorGroupCell(cx, cy + 1, top, color, label, gemSame, sp);
+					sp = pushColorGroupCell(cx, cy - 1, top, color, label, gemSame, sp);
+				}
+
+				colorGroupSize[label] = size;
+				colorGroupStart[label] = start;
+				colorGroupGemStart[label] = gemStart;
 			}
-			else if (b.hard > 0)
-				b.hard--;
-			else
-				setBlockColor(x, y, Block.BLOCK_COLOR_NONE);
 		}
-		if (blockColor != targetColor)
+
+		return colorGroupCount;
+	}
+
+	/**
+	 * ラベル付け用のスタックに同じ色の未ラベルのセルを積む
+	 * @return 新しいスタックの深さ
+	 */
+	private int pushColorGroupCell(int x, int y, int top, int color, int label, boolean gemSame, int sp) {
+		if((x < 0) || (x >= width) || (y < top) || (y >= height)) return sp;
+
+		int c = ((y + hidden_height) * width) + x;
+		if(colorGroupLabel[c] != -1) return sp;
+		if(getBlockColor(x, y, gemSame) != color) return sp;
+
+		colorGroupLabel[c] = label;
+		floodStack[sp] = c;
+		return sp + 1;
+	}
+
+	/**
+	 * 最後のlabelColorGroupsの結果から, 指定した座標のBlockが属するグループの大きさを取得
+	 * @param x X-coordinate
+	 * @param y Y-coordinate
+	 * @return グループのBlockcount (グループがない場合は0)
+	 */
+	public int getColorGroupSize(int x, int y) {
+		if((colorGroupLabel == null) || (x < 0) || (x >= width) || (y < -hidden_height) || (y >= height))
 			return 0;
-		if (flag)
-			b.setAttribute(Block.BLOCK_ATTRIBUTE_ERASE, true);
-		else if (b.hard > 0)
-			b.hard--;
-		else
-			setBlockColor(x, y, Block.BLOCK_COLOR_NONE);
-		return 1 + clearColor(x+1, y, targetColor, flag, garbageClear, gemSame, ignoreHidden)
-				 + clearColor(x-1, y, targetColor, flag, garbageClear, gemSame, ignoreHidden)
-				 + clearColor(x, y+1, targetColor, flag, garbageClear, gemSame, ignoreHidden)
-				 + clearColor(x, y-1, targetColor, flag, garbageClear, gemSame, ignoreHidden);
+
+		int label = colorGroupLabel[((y + hidden_height) * width) + x];
+		return (label == -1) ? 0 : colorGroupSize[label];
+	}
+
+	/**
+	 * size以上のグループの起点セルを走査順にcolorGroupOrderへ並べる
+	 * @param size Minimum size of cluster for a clear
+	 * @param gem <code>true</code> to only collect groups containing a gem block
+	 * @return 並べたグループのcount
+	 */
+	private int collectColorGroupStarts(int size, boolean gem) {
+		int count = 0;
+
+		for(int label = 0; label < colorGroupCount; label++) {
+			int start = gem ? colorGroupGemStart[label] : colorGroupStart[label];
+			if((start != -1) && (colorGroupSize[label] >= size)) {
+				colorGroupOrder[count++] = start;
+			}
+		}
+		Arrays.sort(colorGroupOrder, 0, count);
+
+		return count;
 	}
 
 	/**
@@ -2108,6 +3096,8 @@ public class Field implements Serializable {
 		setAllAttribute(Block.BLOCK_ATTRIBUTE_LAST_COMMIT, false);
 		if (type == GameEngine.LINE_GRAVITY_CASCADE_SLOW)
 			return doCascadeSlow();
+		else if (type == GameEngine.LINE_GRAVITY_CASCADE_INSTANT)
+			return resolveCascadeGravity();
 		else
 			return doCascadeGravity();
 	}
@@ -2117,55 +3107,61 @@ public class Field implements Serializable {
 	 * @return <code>true</code> if something falls. <code>false</code> if nothing falls.
 	 */
 	public boolean doCascadeGravity() {
-		boolean result = false;
+		return doCascadeStep(false);
+	}
 
-		setAllAttribute(Block.BLOCK_ATTRIBUTE_CASCADE_FALL, false);
+	/**
+	 * Routine for cascade gravity which checks from the top down for a slower fall animation.
+	 * @return <code>true</code> if something falls. <code>false</code> if nothing falls.
+	 */
+	public boolean doCascadeSlow() {
+		return doCascadeStep(true);
+	}
 
-		for(int i = (getHeightWithoutHurryupFloor() - 1); i >= (hidden_height * -1); i--) {
-			for(int j = 0; j < width; j++) {
-				Block blk = getBlock(j, i);
+	/**
+	 * Drops every group of linked blocks as far as it can fall, instead of one row per call.
+	 * Groups are the same as doCascadeGravity (blocks reached by following the links from a block),
+	 * and the drop distance of each group is taken from the column bitmasks of FieldMetrics.
+	 * Groups are dropped from the bottom row up, so normally the whole cascade is done in one scan;
+	 * the field is scanned again only while something still falls.
+	 * The result is the same as calling doCascadeGravity() until it returns false.
+	 * When some links are one-way (or point to an empty cell), which blocks fall together can change
+	 * while they fall, so doCascadeGravity() is used in that case.
+	 * @return <code>true</code> if something falls. <code>false</code> if nothing falls.
+	 */
+	public boolean resolveCascadeGravity() {
+		int top = hidden_height * -1;
+		int bottom = getHeightWithoutHurryupFloor() - 1;
+		FieldMetrics m = getMetrics();
+
+		if(!m.isColumnMaskEnabled() || !isBlockLinkRigid(top, bottom)) {
+			// Every step lowers at least one block, so this many steps are enough unless the blocks fall forever
+			int maxSteps = width * (hidden_height + height) * (hidden_height + height);
+			boolean result = false;
+			for(int i = 0; (i < maxSteps) && doCascadeGravity(); i++) result = true;
+			return result;
+		}
 
-				if((blk != null) && !blk.isEmpty() && !blk.getAttribute(Block.BLOCK_ATTRIBUTE_ANTIGRAVITY)) {
-					boolean fall = true;
-					checkBlockLink(j, i);
+		boolean result = false;
+		boolean moved = true;
 
-					for(int k = (getHeightWithoutHurryupFloor() - 1); k >= (hidden_height * -1); k--) {
-						for(int l = 0; l < width; l++) {
-							Block bTemp = getBlock(l, k);
+		ensureLinkWork();
 
-							if( (bTemp != null) && !bTemp.isEmpty() &&
-								bTemp.getAttribute(Block.BLOCK_ATTRIBUTE_TEMP_MARK) && !bTemp.getAttribute(Block.BLOCK_ATTRIBUTE_CASCADE_FALL) )
-							{
-								Block bBelow = getBlock(l, k + 1);
-
-								if( (getCoordAttribute(l, k + 1) == COORD_WALL) ||
-									((bBelow != null) && !bBelow.isEmpty() && !bBelow.getAttribute(Block.BLOCK_ATTRIBUTE_TEMP_MARK))
-								  )
-								{
-									fall = false;
-								}
-							}
-						}
-					}
+		while(moved) {
+			moved = false;
 
-					if(fall) {
-						result = true;
-						for(int k = (getHeightWithoutHurryupFloor() - 1); k >= (hidden_height * -1); k--) {
-							for(int l = 0; l < width; l++) {
-								Block bTemp = getBlock(l, k);
-								Block bBelow = getBlock(l, k + 1);
-
-								if( (getCoordAttribute(l, k + 1) != COORD_WALL) &&
-								    (bTemp != null) && !bTemp.isEmpty() && (bBelow != null) && bBelow.isEmpty() &&
-								    bTemp.getAttribute(Block.BLOCK_ATTRIBUTE_TEMP_MARK) && !bTemp.getAttribute(Block.BLOCK_ATTRIBUTE_CASCADE_FALL) )
-								{
-									bTemp.setAttribute(Block.BLOCK_ATTRIBUTE_TEMP_MARK, false);
-									bTemp.setAttribute(Block.BLOCK_ATTRIBUTE_CASCADE_FALL, true);
-									bTemp.setAttribute(Block.BLOCK_ATTRIBUTE_LAST_COMMIT, true);
-									setBlock(l, k + 1, bTemp);
-									setBlock(l, k, new Block());
-								}
-							}
+			for(int i = bottom; i >= top; i--) {
+				for(int j = 0; j < width; j++) {
+					Block blk = getBlock(j, i);
+
+					if((blk != null) && !blk.isEmpty() && !blk.getAttribute(Block.BLOCK_ATTRIBUTE_ANTIGRAVITY)) {
+						int count = markBlockLink(j, i);
+						int drop = getBlockLinkDrop(m, count, bottom);
+
+						if(drop > 0) {
+							dropBlockLink(count, drop, bottom);
+							moved = true;
+							result = true;
 						}
 					}
 				}
@@ -2175,69 +3171,135 @@ public class Field implements Serializable {
 		setAllAttribute(Block.BLOCK_ATTRIBUTE_TEMP_MARK, false);
 		setAllAttribute(Block.BLOCK_ATTRIBUTE_CASCADE_FALL, false);
 
-		/*
-		for(int i = (hidden_height * -1); i < getHeightWithoutHurryupFloor(); i++) {
-			setLineFlag(i, false);
+		return result;
+	}
+
+	/**
+	 * 全てのつながりが両方向で, つながった先にBlockがあるか調べる (それならつながったBlockはいつも一緒に落ちる)
+	 * @param top 一番上の行
+	 * @param bottom 一番下の行
+	 * @return 全てのつながりが両方向ならtrue
+	 */
+	private boolean isBlockLinkRigid(int top, int bottom) {
+		for(int i = top; i <= bottom; i++) {
+			for(int j = 0; j < width; j++) {
+				Block blk = getBlock(j, i);
+				if((blk == null) || blk.isEmpty() || blk.getAttribute(Block.BLOCK_ATTRIBUTE_IGNORE_BLOCKLINK)) continue;
+
+				if(blk.getAttribute(Block.BLOCK_ATTRIBUTE_CONNECT_UP) &&
+				   !isBlockLinkBack(j, i - 1, Block.BLOCK_ATTRIBUTE_CONNECT_DOWN, top, bottom)) return false;
+				if(blk.getAttribute(Block.BLOCK_ATTRIBUTE_CONNECT_DOWN) &&
+				   !isBlockLinkBack(j, i + 1, Block.BLOCK_ATTRIBUTE_CONNECT_UP, top, bottom)) return false;
+				if(blk.getAttribute(Block.BLOCK_ATTRIBUTE_CONNECT_LEFT) &&
+				   !isBlockLinkBack(j - 1, i, Block.BLOCK_ATTRIBUTE_CONNECT_RIGHT, top, bottom)) return false;
+				if(blk.getAttribute(Block.BLOCK_ATTRIBUTE_CONNECT_RIGHT) &&
+				   !isBlockLinkBack(j + 1, i, Block.BLOCK_ATTRIBUTE_CONNECT_LEFT, top, bottom)) return false;
+			}
 		}
-		*/
+		return true;
+	}
 
-		return result;
+	/**
+	 * Subroutine for isBlockLinkRigid.
+	 * @param x X coord of the linked cell
+	 * @param y Y coord of the linked cell
+	 * @param back つながりを返す向きのattribute
+	 * @param top 一番上の行
+	 * @param bottom 一番下の行
+	 * @return つながった先がfieldの外か, つながりを返しているBlockならtrue
+	 */
+	private boolean isBlockLinkBack(int x, int y, int back, int top, int bottom) {
+		// markBlockLinkはfieldの外をたどらない
+		if((x < 0) || (x >= width) || (y < top) || (y >= height)) return true;
+		if(y > bottom) return false;
+
+		Block blk = getBlock(x, y);
+		return !blk.isEmpty() && !blk.getAttribute(Block.BLOCK_ATTRIBUTE_IGNORE_BLOCKLINK) && blk.getAttribute(back);
 	}
 
 	/**
-	 * Routine for cascade gravity which checks from the top down for a slower fall animation.
+	 * 印を付けたBlockが一緒に何段落ちられるかを列ビットマスクから調べる (bottomより下の行のBlockは動かさない)
+	 * @param m FieldMetrics
+	 * @param count 印を付けたBlockのcount
+	 * @param bottom 一番下の行
+	 * @return 落ちられる段count
+	 */
+	private int getBlockLinkDrop(FieldMetrics m, int count, int bottom) {
+		Arrays.fill(linkColumn, 0);
+		int lowest = Integer.MIN_VALUE;
+
+		for(int k = 0; k < count; k++) {
+			int c = linkCells[k];
+			int y = (c / width) - hidden_height;
+			if(y > bottom) continue;
+			// 天井がある時, 見えない部分のBlockの下は壁
+			if(ceiling && (y < -1)) return 0;
+
+			linkColumn[c % width] |= 1L << (y + hidden_height);
+			if(y > lowest) lowest = y;
+		}
+		if(lowest == Integer.MIN_VALUE) return 0;
+
+		int drop = bottom - lowest;
+		for(int x = 0; (x < width) && (drop > 0); x++) {
+			if(linkColumn[x] != 0) drop = m.getDropDistance(x, linkColumn[x], drop);
+		}
+		return drop;
+	}
+
+	/**
+	 * 印を付けたBlockを下の行から順にdrop段落とす (bottomより下の行のBlockは動かさない)
+	 * @param count 印を付けたBlockのcount
+	 * @param drop 落とす段count
+	 * @param bottom 一番下の行
+	 */
+	private void dropBlockLink(int count, int drop, int bottom) {
+		// セルの番号が大きい方が下の行
+		Arrays.sort(linkCells, 0, count);
+
+		for(int k = count - 1; k >= 0; k--) {
+			int c = linkCells[k];
+			int x = c % width;
+			int y = (c / width) - hidden_height;
+			if(y > bottom) continue;
+
+			Block src = getBlock(x, y);
+			Block dst = getBlock(x, y + drop);
+			src.setAttribute(Block.BLOCK_ATTRIBUTE_LAST_COMMIT, true);
+			dst.copy(src);
+			updateRowMask(x, y + drop, dst);
+			src.reset();
+			updateRowMask(x, y, src);
+		}
+	}
+
+	/**
+	 * Subroutine for doCascadeGravity and doCascadeSlow.
+	 * Same as calling checkBlockLink for every block and checking the marked blocks,
+	 * but only the marked blocks are checked instead of the whole field.
+	 * @param topDown <code>true</code> to scan from the top (doCascadeSlow)
 	 * @return <code>true</code> if something falls. <code>false</code> if nothing falls.
 	 */
-	public boolean doCascadeSlow() {
+	private boolean doCascadeStep(boolean topDown) {
 		boolean result = false;
+		int top = hidden_height * -1;
+		int bottom = getHeightWithoutHurryupFloor() - 1;
 
-		setAllAttribute(Block.BLOCK_ATTRIBUTE_CASCADE_FALL, false);
+		ensureLinkWork();
+		Arrays.fill(linkFell, false);
+
+		for(int n = 0; n <= bottom - top; n++) {
+			int i = topDown ? (top + n) : (bottom - n);
 
-		for(int i = (hidden_height * -1); i < getHeightWithoutHurryupFloor(); i++) {
 			for(int j = 0; j < width; j++) {
 				Block blk = getBlock(j, i);
 
 				if((blk != null) && !blk.isEmpty() && !blk.getAttribute(Block.BLOCK_ATTRIBUTE_ANTIGRAVITY)) {
-					boolean fall = true;
-					checkBlockLink(j, i);
-
-					for(int k = (getHeightWithoutHurryupFloor() - 1); k >= (hidden_height * -1); k--) {
-						for(int l = 0; l < width; l++) {
-							Block bTemp = getBlock(l, k);
-
-							if( (bTemp != null) && !bTemp.isEmpty() &&
-								bTemp.getAttribute(Block.BLOCK_ATTRIBUTE_TEMP_MARK) && !bTemp.getAttribute(Block.BLOCK_ATTRIBUTE_CASCADE_FALL) )
-							{
-								Block bBelow = getBlock(l, k + 1);
-
-								if( (getCoordAttribute(l, k + 1) == COORD_WALL) ||
-									((bBelow != null) && !bBelow.isEmpty() && !bBelow.getAttribute(Block.BLOCK_ATTRIBUTE_TEMP_MARK)) )
-								{
-									fall = false;
-								}
-							}
-						}
-					}
+					int count = markBlockLink(j, i);
 
-					if(fall) {
+					if(canBlockLinkFall(count, top, bottom)) {
 						result = true;
-						for(int k = (getHeightWithoutHurryupFloor() - 1); k >= (hidden_height * -1); k--) {
-							for(int l = 0; l < width; l++) {
-								Block bTemp = getBlock(l, k);
-								Block bBelow = getBlock(l, k + 1);
-
-								if( (getCoordAttribute(l, k + 1) != COORD_WALL) &&
-								    (bTemp != null) && !bTemp.isEmpty() && (bBelow != null) && bBelow.isEmpty() &&
-								    bTemp.getAttribute(Block.BLOCK_ATTRIBUTE_TEMP_MARK) && !bTemp.getAttribute(Block.BLOCK_ATTRIBUTE_CASCADE_FALL) )
-								{
-									bTemp.setAttribute(Block.BLOCK_ATTRIBUTE_TEMP_MARK, false);
-									bTemp.setAttribute(Block.BLOCK_ATTRIBUTE_CASCADE_FALL, true);
-									bTemp.setAttribute(Block.BLOCK_ATTRIBUTE_LAST_COMMIT, true);
-									setBlock(l, k + 1, bTemp);
-									setBlock(l, k, new Block());
-								}
-							}
-						}
+						moveBlockLink(count, top, bottom);
 					}
 				}
 			}
@@ -2249,6 +3311,126 @@ public class Field implements Serializable {
 		return result;
 	}
 
+	/**
+	 * Cascade用の作業領域を確保
+	 */
+	private void ensureLinkWork() {
+		int cells = width * (hidden_height + height);
+		if((linkMark != null) && (linkMark.length == cells)) return;
+
+		linkMark = new int[cells];
+		linkStamp = 0;
+		linkCells = new int[cells];
+		linkFell = new boolean[cells];
+		linkColumn = new long[width];
+	}
+
+	/**
+	 * checkBlockLinkと同じく, 指定したBlockからつながりの向きに沿ってたどれるBlockに印を付ける
+	 * (IGNORE_BLOCKLINKのBlockからは先へ進まない).
+	 * @param x X coord
+	 * @param y Y coord
+	 * @return 印を付けたBlockのcount (linkCellsに入る)
+	 */
+	private int markBlockLink(int x, int y) {
+		if(++linkStamp == 0) {
+			Arrays.fill(linkMark, 0);
+			linkStamp = 1;
+		}
+
+		int c = ((y + hidden_height) * width) + x;
+		linkMark[c] = linkStamp;
+		linkCells[0] = c;
+		int count = 1;
+
+		for(int k = 0; k < count; k++) {
+			c = linkCells[k];
+			int bx = c % width;
+			int by = (c / width) - hidden_height;
+			Block blk = getBlock(bx, by);
+			if(blk.getAttribute(Block.BLOCK_ATTRIBUTE_IGNORE_BLOCKLINK)) continue;
+
+			if(blk.getAttribute(Block.BLOCK_ATTRIBUTE_CONNECT_UP)) count = addBlockLink(bx, by - 1, count);
+			if(blk.getAttribute(Block.BLOCK_ATTRIBUTE_CONNECT_DOWN)) count = addBlockLink(bx, by + 1, count);
+			if(blk.getAttribute(Block.BLOCK_ATTRIBUTE_CONNECT_LEFT)) count = addBlockLink(bx - 1, by, count);
+			if(blk.getAttribute(Block.BLOCK_ATTRIBUTE_CONNECT_RIGHT)) count = addBlockLink(bx + 1, by, count);
+		}
+
+		return count;
+	}
+
+	/**
+	 * Subroutine for markBlockLink.
+	 * @param x X coord
+	 * @param y Y coord
+	 * @param count 印を付けたBlockのcount
+	 * @return 新しい印を付けたBlockのcount
+	 */
+	private int addBlockLink(int x, int y, int count) {
+		if((x < 0) || (x >= width) || (y < hidden_height * -1) || (y >= height)) return count;
+
+		int c = ((y + hidden_height) * width) + x;
+		if((linkMark[c] == linkStamp) || getBlock(x, y).isEmpty()) return count;
+
+		linkMark[c] = linkStamp;
+		linkCells[count] = c;
+		return count + 1;
+	}
+
+	/**
+	 * 印を付けたBlockが全部落ちられるか調べる (今回落ちたBlockと範囲外の行は調べない)
+	 * @param count 印を付けたBlockのcount
+	 * @param top 一番上の行
+	 * @param bottom 一番下の行
+	 * @return 落ちられるならtrue
+	 */
+	private boolean canBlockLinkFall(int count, int top, int bottom) {
+		for(int k = 0; k < count; k++) {
+			int c = linkCells[k];
+			int x = c % width;
+			int y = (c / width) - hidden_height;
+			if((y < top) || (y > bottom) || linkFell[c]) continue;
+
+			if(getCoordAttribute(x, y + 1) == COORD_WALL) return false;
+
+			Block bBelow = getBlock(x, y + 1);
+			if((bBelow != null) && !bBelow.isEmpty() && (linkMark[c + width] != linkStamp)) return false;
+		}
+
+		return true;
+	}
+
+	/**
+	 * 印を付けたBlockを下の行から順に1段落とす (下が空いていないものは動かさない)
+	 * @param count 印を付けたBlockのcount
+	 * @param top 一番上の行
+	 * @param bottom 一番下の行
+	 */
+	private void moveBlockLink(int count, int top, int bottom) {
+		// セルの番号が大きい方が下の行
+		Arrays.sort(linkCells, 0, count);
+
+		for(int k = count - 1; k >= 0; k--) {
+			int c = linkCells[k];
+			int x = c % width;
+			int y = (c / width) - hidden_height;
+			if((y < top) || (y > bottom) || linkFell[c] || (getCoordAttribute(x, y + 1) == COORD_WALL)) continue;
+
+			Block dst = getBlock(x, y + 1);
+			if((dst == null) || !dst.isEmpty()) continue;
+
+			Block src = getBlock(x, y);
+			src.setAttribute(Block.BLOCK_ATTRIBUTE_LAST_COMMIT, true);
+			dst.copy(src);
+			updateRowMask(x, y + 1, dst);
+			src.reset();
+			updateRowMask(x, y, src);
+
+			linkMark[c] = 0;
+			linkFell[c + width] = true;
+		}
+	}
+
 	/**
 	 * Checks the connection of blocks and set "mark" to each block.
 	 * @param x X coord
@@ -2641,7 +3823,6 @@ public class Field implements Serializable {
 	}
 
 	public int checkColor(int size, boolean flag, boolean garbageClear, boolean gemSame, boolean ignoreHidden) {
-		Field temp = new Field(this);
 		int total = 0;
 		boolean[] colorsClearedArray = new boolean[7];
 		if (flag)
@@ -2654,23 +3835,23 @@ public class Field implements Serializable {
 				colorsClearedArray[i] = false;
 		}
 
-		for(int i = (hidden_height * -1); i < getHeightWithoutHurryupFloor(); i++)
+		labelColorGroups(gemSame, ignoreHidden);
+		int groups = collectColorGroupStarts(size, false);
+
+		for(int k = 0; k < groups; k++)
 		{
-			for(int j = 0; j < width; j++)
+			int c = colorGroupOrder[k];
+			int clear = colorGroupSize[colorGroupLabel[c]];
+			total += clear;
+			if (flag)
 			{
-				int clear = temp.clearColor(j, i, false, garbageClear, gemSame, ignoreHidden);
-				if (clear >= size)
-				{
-					total += clear;
-					if (flag)
-					{
-						int blockColor = getBlockColor(j, i, gemSame);
-						clearColor(j, i, true, garbageClear, gemSame, ignoreHidden);
-						colorClearExtraCount += clear - size;
-						if (blockColor >= 2 && blockColor <= 8)
-							colorsClearedArray[blockColor-2] = true;
-					}
-				}
+				int j = c % width;
+				int i = (c / width) - hidden_height;
+				int blockColor = getBlockColor(j, i, gemSame);
+				clearColor(j, i, true, garbageClear, gemSame, ignoreHidden);
+				colorClearExtraCount += clear - size;
+				if (blockColor >= 2 && blockColor <= 8)
+					colorsClearedArray[blockColor-2] = true;
 			}
 		}
 		if (flag)
@@ -2784,33 +3965,18 @@ public class Field implements Serializable {
 	}
 
 	public boolean canCascade() {
-		for(int i = (getHeightWithoutHurryupFloor() - 1); i >= (hidden_height * -1); i--) {
+		int top = hidden_height * -1;
+		int bottom = getHeightWithoutHurryupFloor() - 1;
+
+		ensureLinkWork();
+		Arrays.fill(linkFell, false);
+
+		for(int i = bottom; i >= top; i--) {
 			for(int j = 0; j < width; j++) {
 				Block blk = getBlock(j, i);
 
 				if((blk != null) && !blk.isEmpty() && !blk.getAttribute(Block.BLOCK_ATTRIBUTE_ANTIGRAVITY)) {
-					boolean fall = true;
-					checkBlockLink(j, i);
-
-					for(int k = (getHeightWithoutHurryupFloor() - 1); k >= (hidden_height * -1); k--) {
-						for(int l = 0; l < width; l++) {
-							Block bTemp = getBlock(l, k);
-
-							if( (bTemp != null) && !bTemp.isEmpty() &&
-								bTemp.getAttribute(Block.BLOCK_ATTRIBUTE_TEMP_MARK) && !bTemp.getAttribute(Block.BLOCK_ATTRIBUTE_CASCADE_FALL) )
-							{
-								Block bBelow = getBlock(l, k + 1);
-
-								if( (getCoordAttribute(l, k + 1) == COORD_WALL) ||
-									((bBelow != null) && !bBelow.isEmpty() && !bBelow.getAttribute(Block.BLOCK_ATTRIBUTE_TEMP_MARK)) )
-								{
-									fall = false;
-								}
-							}
-						}
-					}
-
-					if(fall)
+					if(canBlockLinkFall(markBlockLink(j, i), top, bottom))
 						return true;
 				}
 			}
@@ -3107,6 +4273,7 @@ public class Field implements Serializable {
 		b.setAttribute(Block.BLOCK_ATTRIBUTE_CONNECT_LEFT, false);
 		b.setAttribute(Block.BLOCK_ATTRIBUTE_CONNECT_RIGHT, false);
 		b.setAttribute(Block.BLOCK_ATTRIBUTE_ERASE, false);
+		updateRowMask(x, y, b);
 		return true;
 	}
 
@@ -3141,25 +4308,15 @@ public class Field implements Serializable {
 		if (flag)
 			setAllAttribute(Block.BLOCK_ATTRIBUTE_ERASE, false);
 
-		Field temp = new Field(this);
+		labelColorGroups(true, ignoreHidden);
+		int groups = collectColorGroupStarts(size, true);
 		int total = 0;
-		Block b;
 
-		for(int i = (hidden_height * -1); i < getHeightWithoutHurryupFloor(); i++) {
-			for(int j = 0; j < width; j++) {
-				b = getBlock(j, i);
-				if (b == null)
-					continue;
-				if (!b.isGemBlock())
-					continue;
-				int clear = temp.clearColor(j, i, false, garbageClear, true, ignoreHidden);
-				if (clear >= size)
-				{
-					total += clear;
-					if (flag)
-						clearColor(j, i, true, garbageClear, true, ignoreHidden);
-				}
-			}
+		for(int k = 0; k < groups; k++) {
+			int c = colorGroupOrder[k];
+			total += colorGroupSize[colorGroupLabel[c]];
+			if (flag)
+				clearColor(c % width, (c / width) - hidden_height, true, garbageClear, true, ignoreHidden);
 		}
 		return total;
 	}
@@ -3289,6 +4446,8 @@ public class Field implements Serializable {
 				block_field[yMin] = block_field[yMax];
 				block_field[yMax] = temp;
 			}
+			refreshRow(yMin);
+			refreshRow(yMax);
 		}
 	}
 
@@ -0,0 +1,349 @@
+/*
+    Copyright (c) 2010, NullNoname
+    All rights reserved.
+
+    Redistribution and use in source and binary forms, with or without
+    modification, are permitted provided that the following conditions are met:
+
+        * Redistributions of source code must retain the above copyright
+          notice, this list of conditions and the following disclaimer.
+        * Redistributions in binary form must reproduce the above copyright
+          notice, this list of conditions and the following disclaimer in the
+          documentation and/or other materials provided with the distribution.
+        * Neither the name of NullNoname nor the names of its
+          contributors may be used to endorse or promote products derived from
+          this software without specific prior written permission.
+
+    THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+    AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+    IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+    ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+    LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+    CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+    SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+    INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+    CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+    ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+    POSSIBILITY OF SUCH DAMAGE.
+*/
+package mu.nu.nullpo.game.component;
+
+/**
+ * Fieldの地形情報 (列ごとの高さ, 穴, 谷) を高速に取得するためのクラス.
+ * 列ごとのビットマスクを持ち, Fieldが変更されるたびに差分だけ更新される.
+ * 使える条件 (isAvailable) はhidden_height + heightが64以下, 行ビットマスクが有効, Line flagなし.
+ */
+public class FieldMetrics {
+	/** 対象のfield */
+	protected Field field;
+
+	/** 列ごとのビットマスク (bit (y + hidden_height) がBlockあり) */
+	protected long[] columnMask;
+
+	/** ビットマスクで扱えるサイズかどうか */
+	protected boolean enabled;
+
+	/**
+	 * Constructor
+	 * @param field 対象のfield
+	 */
+	public FieldMetrics(Field field) {
+		this.field = field;
+		rebuild();
+	}
+
+	/**
+	 * 全ての列ビットマスクをfieldから作り直す
+	 */
+	public void rebuild() {
+		int rows = field.getHiddenHeight() + field.getHeight();
+		enabled = field.isRowMaskEnabled() && (rows <= Long.SIZE);
+
+		if((columnMask == null) || (columnMask.length != field.getWidth())) {
+			columnMask = new long[field.getWidth()];
+		}
+		for(int x = 0; x < columnMask.length; x++) {
+			columnMask[x] = 0;
+		}
+		if(!enabled) return;
+
+		for(int y = field.getHiddenHeight() * -1; y < field.getHeight(); y++) {
+			refreshRow(y);
+		}
+	}
+
+	/**
+	 * 1つのセルの状態を反映
+	 * @param x X-coordinate
+	 * @param y Y-coordinate
+	 * @param occupied Blockがあるならtrue
+	 */
+	public void setCell(int x, int y, boolean occupied) {
+		if(!enabled) return;
+
+		long bit = 1L << (y + field.getHiddenHeight());
+		if(occupied) columnMask[x] |= bit;
+		else columnMask[x] &= ~bit;
+	}
+
+	/**
+	 * 1行分の状態をfieldの行ビットマスクから反映
+	 * @param y Y-coordinate
+	 */
+	public void refreshRow(int y) {
+		if(!enabled) return;
+
+		long row = field.getRowMask(y);
+		long bit = 1L << (y + field.getHiddenHeight());
+
+		for(int x = 0; x < columnMask.length; x++) {
+			if((row & (1L << x)) != 0) columnMask[x] |= bit;
+			else columnMask[x] &= ~bit;
+		}
+	}
+
+	/**
+	 * top～bottomの行が1段下にずれ, bottomの行がtopに回ったことを反映
+	 * @param top 一番上の行
+	 * @param bottom 一番下の行
+	 */
+	public void rotateRowsDown(int top, int bottom) {
+		if(!enabled || (bottom < top)) return;
+
+		int t = top + field.getHiddenHeight();
+		int b = bottom + field.getHiddenHeight();
+		long range = bitRange(t, b);
+		long moved = bitRange(t, b - 1);
+		long last = 1L << b;
+
+		for(int x = 0; x < columnMask.length; x++) {
+			long c = columnMask[x];
+			long wrap = ((c & last) != 0) ? (1L << t) : 0;
+			columnMask[x] = (c & ~range) | ((c & moved) << 1) | wrap;
+		}
+	}
+
+	/**
+	 * top～bottomの行が1段上にずれ, topの行がbottomに回ったことを反映
+	 * @param top 一番上の行
+	 * @param bottom 一番下の行
+	 */
+	public void rotateRowsUp(int top, int bottom) {
+		if(!enabled || (bottom < top)) return;
+
+		int t = top + field.getHiddenHeight();
+		int b = bottom + field.getHiddenHeight();
+		long range = bitRange(t, b);
+		long moved = bitRange(t + 1, b);
+		long first = 1L << t;
+
+		for(int x = 0; x < columnMask.length; x++) {
+			long c = columnMask[x];
+			long wrap = ((c & first) != 0) ? (1L << b) : 0;
+			columnMask[x] = (c & ~range) | ((c & moved) >>> 1) | wrap;
+		}
+	}
+
+	/**
+	 * 高速な計算が使えるかどうか
+	 * @return 使えるならtrue
+	 */
+	public boolean isAvailable() {
+		return enabled && !field.hasLineFlag();
+	}
+
+	/**
+	 * 列ビットマスクを取得 (HURRY UPの地面を除く)
+	 * @param x X-coordinate
+	 * @return bit (y + hidden_height) がBlockありの列ビットマスク (範囲外なら0）
+	 */
+	public long getColumnMask(int x) {
+		if((x < 0) || (x >= columnMask.length)) return 0;
+		return columnMask[x] & getRangeMask();
+	}
+
+	/**
+	 * 列ビットマスクが使えるかどうか (Line flagがあっても使える)
+	 * @return 使えるならtrue
+	 */
+	public boolean isColumnMaskEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * 指定した列で, y以下 (yを含む) にある一番上のBlockのY-coordinateを取得 (HURRY UPの地面を含む)
+	 * @param x X-coordinate (範囲内であること)
+	 * @param y Y-coordinate
+	 * @return Y-coordinate (Blockがなければheight）
+	 */
+	public int getFirstBlockY(int x, int y) {
+		int from = Math.max(y + field.getHiddenHeight(), 0);
+		if(from >= Long.SIZE) return field.getHeight();
+
+		long c = columnMask[x] & (-1L << from);
+		if(c == 0) return field.getHeight();
+		return Long.numberOfTrailingZeros(c) - field.getHiddenHeight();
+	}
+
+	/**
+	 * 列の中の一部のBlockが一緒に何段落ちられるかを取得 (HURRY UPの地面を含む他のBlockに当たるまで)
+	 * @param x X-coordinate (範囲内であること)
+	 * @param group 落とすBlockの列ビットマスク (bit (y + hidden_height))
+	 * @param limit これ以上は調べない段count (Long.SIZE未満)
+	 * @return 落ちられる段count
+	 */
+	public int getDropDistance(int x, long group, int limit) {
+		long blocked = columnMask[x] & ~group;
+		for(int d = 1; d <= limit; d++) {
+			if(((group << d) & blocked) != 0) return d - 1;
+		}
+		return limit;
+	}
+
+	/**
+	 * 一番上にあるBlockのY-coordinateを取得
+	 * @return 一番上にあるBlockのY-coordinate
+	 */
+	public int getHighestBlockY() {
+		long all = 0;
+		for(int x = 0; x < columnMask.length; x++) {
+			all |= columnMask[x];
+		}
+		return getTopY(all & getRangeMask());
+	}
+
+	/**
+	 * 一番上にあるBlockのY-coordinateを取得 (X-coordinateを指定できるVersion）
+	 * @param x X-coordinate
+	 * @return 一番上にあるBlockのY-coordinate
+	 */
+	public int getHighestBlockY(int x) {
+		return getTopY(getColumnMask(x));
+	}
+
+	/**
+	 * 1列の隙間のcount (一番上のBlockより下にある空白）
+	 * @param x X-coordinate
+	 * @return 隙間のcount
+	 */
+	public int getHoles(int x) {
+		long c = getColumnMask(x);
+		if(c == 0) return 0;
+
+		long below = getRangeMask() & ~bitRange(0, Long.numberOfTrailingZeros(c));
+		return Long.bitCount(~c & below);
+	}
+
+	/**
+	 * field内の隙間のcountを調べる
+	 * @return field内の隙間のcount
+	 */
+	public int getHowManyHoles() {
+		int hole = 0;
+		for(int x = 0; x < columnMask.length; x++) {
+			hole += getHoles(x);
+		}
+		return hole;
+	}
+
+	/**
+	 * 1列で隙間の上に何個Blockが積み重なっているか (一番下の隙間の蓋より上にあるBlock）
+	 * @param x X-coordinate
+	 * @return 積み重なっているBlockのcount
+	 */
+	public int getLidAboveHoles(int x) {
+		int rows = field.getHiddenHeight() + field.getHeightWithoutHurryupFloor();
+		if(rows < 2) return 0;
+
+		long c = getColumnMask(x);
+		long lid = c & ~(c >>> 1) & bitRange(0, rows - 2);
+		if(lid == 0) return 0;
+
+		int lowest = (Long.SIZE - 1) - Long.numberOfLeadingZeros(lid);
+		return Long.bitCount(c & bitRange(0, lowest));
+	}
+
+	/**
+	 * 隙間の上に何個Blockが積み重なっているか調べる
+	 * @return 積み重なっているBlockのcount
+	 */
+	public int getHowManyLidAboveHoles() {
+		int blocks = 0;
+		for(int x = 0; x < columnMask.length; x++) {
+			blocks += getLidAboveHoles(x);
+		}
+		return blocks;
+	}
+
+	/**
+	 * 谷 (■　■になっている地形）の深さを調べる
+	 * @param x 調べるX-coordinate
+	 * @return 谷の深さ (無かったら0）
+	 */
+	public int getValleyDepth(int x) {
+		int highest = Math.min(getHighestBlockY(x - 1), Math.min(getHighestBlockY(x), getHighestBlockY(x + 1)));
+		if(highest >= field.getHeightWithoutHurryupFloor()) return 0;
+
+		long left = (x <= 0) ? -1L : getColumnMask(x - 1);
+		long right = (x >= columnMask.length - 1) ? -1L : getColumnMask(x + 1);
+		long from = getRangeMask() & ~bitRange(0, highest + field.getHiddenHeight() - 1);
+
+		return Long.bitCount(left & ~getColumnMask(x) & right & from);
+	}
+
+	/**
+	 * 全ての谷 (■　■になっている地形）の深さを合計したものを返す
+	 * @return 全ての谷の深さを合計したもの
+	 */
+	public int getTotalValleyDepth() {
+		int depth = 0;
+		for(int x = 0; x < columnMask.length; x++) {
+			int d = getValleyDepth(x);
+			if(d >= 2) depth += d;
+		}
+		return depth;
+	}
+
+	/**
+	 * I型が必要な谷 (深さ3以上）のcountを返す
+	 * @return I型が必要な谷のcount
+	 */
+	public int getTotalValleyNeedIPiece() {
+		int count = 0;
+		for(int x = 0; x < columnMask.length; x++) {
+			if(getValleyDepth(x) >= 3) count++;
+		}
+		return count;
+	}
+
+	/**
+	 * HURRY UPの地面を除いた行のビットマスク
+	 * @return ビットマスク
+	 */
+	protected long getRangeMask() {
+		int rows = field.getHiddenHeight() + field.getHeightWithoutHurryupFloor();
+		return (rows <= 0) ? 0 : bitRange(0, rows - 1);
+	}
+
+	/**
+	 * ビットマスクの一番上のBlockのY-coordinate
+	 * @param mask 列ビットマスク
+	 * @return Y-coordinate (Blockがなければheight）
+	 */
+	protected int getTopY(long mask) {
+		if(mask == 0) return field.getHeight();
+		return Long.numberOfTrailingZeros(mask) - field.getHiddenHeight();
+	}
+
+	/**
+	 * from～toのビットが立ったマスクを作る
+	 * @param from 最初のビット
+	 * @param to 最後のビット (fromより小さければ0）
+	 * @return ビットマスク
+	 */
+	protected static long bitRange(int from, int to) {
+		if(to < from) return 0;
+		long upper = (to >= Long.SIZE - 1) ? -1L : ((1L << (to + 1)) - 1);
+		return upper & (-1L << from);
+	}
+}
@@ -0,0 +1,487 @@
+/*
+    Copyright (c) 2010, NullNoname
+    All rights reserved.
+
+    Redistribution and use in source and binary forms, with or without
+    modification, are permitted provided that the following conditions are met:
+
+        * Redistributions of source code must retain the above copyright
+          notice, this list of conditions and the following disclaimer.
+        * Redistributions in binary form must reproduce the above copyright
+          notice, this list of conditions and the following disclaimer in the
+          documentation and/or other materials provided with the distribution.
+        * Neither the name of NullNoname nor the names of its
+          contributors may be used to endorse or promote products derived from
+          this software without specific prior written permission.
+
+    THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+    AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+    IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+    ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+    LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+    CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+    SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+    INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+    CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+    ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+    POSSIBILITY OF SUCH DAMAGE.
+*/
+package mu.nu.nullpo.game.component;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Blockの状態をセルごとの配列にまとめて持つfield (struct-of-arrays).
+ * コピーや比較が配列のコピー/比較だけで済むので, AIの探索やfieldの保存に使う.
+ * skin, item, hardはshortで保存する.
+ * <p>
+ * getBlock(x, y)は毎回同じBlockオブジェクト (flyweight) に中身を読み込んで返すので,
+ * 次の呼び出しまでしか有効ではない. 書き換えはsetBlockで行うこと.
+ */
+public class PackedField implements Serializable {
+	/** Serial version ID */
+	private static final long serialVersionUID = 3380717523658104207L;
+
+	/** fieldの幅 */
+	protected int width;
+
+	/** Field height */
+	protected int height;
+
+	/** fieldより上の見えない部分の高さ */
+	protected int hidden_height;
+
+	/** 天井の有無 */
+	protected boolean ceiling;
+
+	/** HURRY UP地面のcount */
+	protected int hurryupFloorLines;
+
+	/** Block color */
+	protected int[] color;
+
+	/** Blockの絵柄 */
+	protected short[] skin;
+
+	/** Blockの属性 */
+	protected int[] attribute;
+
+	/** 固定してから経過した frame count */
+	protected int[] elapsedFrames;
+
+	/** Blockの暗さ, または明るさ */
+	protected float[] darkness;
+
+	/** 透明度 (1.0fで不透明, 0.0fで完全に透明) */
+	protected float[] alpha;
+
+	/** ゲームが始まってから何番目に置いたBlockか */
+	protected int[] pieceNum;
+
+	/** アイテム number */
+	protected short[] item;
+
+	/** Number of extra clears required before block is erased */
+	protected short[] hard;
+
+	/** Counter for blocks that count down before some effect occurs */
+	protected int[] countdown;
+
+	/** Color to turn into when garbage block turns into a regular block */
+	protected int[] secondaryColor;
+
+	/** Bonus value awarded when cleared */
+	protected int[] bonusValue;
+
+	/** Line clear flag (行ごと, 一番上の見えない行から順) */
+	protected boolean[] lineflag;
+
+	/** getBlockで返すBlock */
+	protected transient Block view;
+
+	/**
+	 * パラメータ付きConstructor
+	 * @param w fieldの幅
+	 * @param h Field height
+	 * @param hh fieldより上の見えない部分の高さ
+	 */
+	public PackedField(int w, int h, int hh) {
+		width = w;
+		height = h;
+		hidden_height = hh;
+		reset();
+	}
+
+	/**
+	 * Fieldの内容から作成
+	 * @param f Copy source
+	 */
+	public PackedField(Field f) {
+		this(f.getWidth(), f.getHeight(), f.getHiddenHeight());
+		fromField(f);
+	}
+
+	/**
+	 * Copy constructor
+	 * @param p Copy source
+	 */
+	public PackedField(PackedField p) {
+		copy(p);
+	}
+
+	/**
+	 * Called at initialization
+	 */
+	public void reset() {
+		int cells = width * (hidden_height + height);
+
+		color = new int[cells];
+		skin = new short[cells];
+		attribute = new int[cells];
+		elapsedFrames = new int[cells];
+		darkness = new float[cells];
+		alpha = new float[cells];
+		pieceNum = new int[cells];
+		item = new short[cells];
+		hard = new short[cells];
+		countdown = new int[cells];
+		secondaryColor = new int[cells];
+		bonusValue = new int[cells];
+		lineflag = new boolean[hidden_height + height];
+
+		// new Block()と同じ初期値
+		Arrays.fill(alpha, 1f);
+		Arrays.fill(pieceNum, -1);
+
+		ceiling = false;
+		hurryupFloorLines = 0;
+	}
+
+	/**
+	 * 別のPackedFieldからコピー (配列のコピーだけで済む)
+	 * @param p Copy source
+	 */
+	public void copy(PackedField p) {
+		width = p.width;
+		height = p.height;
+		hidden_height = p.hidden_height;
+		ceiling = p.ceiling;
+		hurryupFloorLines = p.hurryupFloorLines;
+
+		color = p.color.clone();
+		skin = p.skin.clone();
+		attribute = p.attribute.clone();
+		elapsedFrames = p.elapsedFrames.clone();
+		darkness = p.darkness.clone();
+		alpha = p.alpha.clone();
+		pieceNum = p.pieceNum.clone();
+		item = p.item.clone();
+		hard = p.hard.clone();
+		countdown = p.countdown.clone();
+		secondaryColor = p.secondaryColor.clone();
+		bonusValue = p.bonusValue.clone();
+		lineflag = p.lineflag.clone();
+	}
+
+	/**
+	 * Fieldの内容を読み込む (サイズもFieldに合わせる)
+	 * @param f 読み込むField
+	 */
+	public void fromField(Field f) {
+		if((width != f.getWidth()) || (height != f.getHeight()) || (hidden_height != f.getHiddenHeight())) {
+			width = f.getWidth();
+			height = f.getHeight();
+			hidden_height = f.getHiddenHeight();
+			reset();
+		}
+		ceiling = f.ceiling;
+		hurryupFloorLines = f.getHurryupFloorLines();
+
+		for(int y = hidden_height * -1; y < height; y++) {
+			storeRow(f, y);
+		}
+	}
+
+	/**
+	 * Fieldに内容を書き出す (サイズもこちらに合わせる)
+	 * @param f 書き出し先のField
+	 */
+	public void toField(Field f) {
+		if((width != f.getWidth()) || (height != f.getHeight()) || (hidden_height != f.getHiddenHeight())) {
+			f.width = width;
+			f.height = height;
+			f.hidden_height = hidden_height;
+			f.reset();
+		}
+		f.ceiling = ceiling;
+		f.hurryupFloorLines = hurryupFloorLines;
+
+		for(int y = hidden_height * -1; y < height; y++) {
+			loadRow(f, y);
+		}
+	}
+
+	/**
+	 * Fieldの1行を保存する
+	 * @param f Field
+	 * @param y Y-coordinate
+	 */
+	public void storeRow(Field f, int y) {
+		Block[] row = f.getRow(y);
+		int c = getIndex(0, y);
+
+		for(int x = 0; x < width; x++) {
+			store(c + x, row[x]);
+		}
+		lineflag[y + hidden_height] = f.getLineFlag(y);
+	}
+
+	/**
+	 * 保存した1行をFieldに書き戻す
+	 * @param f Field
+	 * @param y Y-coordinate
+	 */
+	public void loadRow(Field f, int y) {
+		Block[] row = f.getRow(y);
+		int c = getIndex(0, y);
+
+		for(int x = 0; x < width; x++) {
+			load(c + x, row[x]);
+		}
+		f.refreshRow(y);
+		f.setLineFlag(y, lineflag[y + hidden_height]);
+	}
+
+	/**
+	 * 保存した1行とFieldの1行が同じか調べる
+	 * @param f Field
+	 * @param y Y-coordinate
+	 * @return 全てのBlockとLine clear flagが同じならtrue
+	 */
+	public boolean rowEquals(Field f, int y) {
+		Block[] row = f.getRow(y);
+		int c = getIndex(0, y);
+
+		if(lineflag[y + hidden_height] != f.getLineFlag(y)) return false;
+		for(int x = 0; x < width; x++) {
+			if(!cellEquals(c + x, row[x])) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * セルの番号を取得
+	 * @param x X-coordinate
+	 * @param y Y-coordinate
+	 * @return セルの番号 (範囲外なら-1）
+	 */
+	public int getIndex(int x, int y) {
+		if((x < 0) || (x >= width) || (y < hidden_height * -1) || (y >= height)) return -1;
+		return ((y + hidden_height) * width) + x;
+	}
+
+	/**
+	 * fieldの幅を取得
+	 * @return fieldの幅
+	 */
+	public int getWidth() {
+		return width;
+	}
+
+	/**
+	 * Field heightを取得
+	 * @return Field height
+	 */
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * fieldより上の見えない部分の高さを取得
+	 * @return fieldより上の見えない部分の高さ
+	 */
+	public int getHiddenHeight() {
+		return hidden_height;
+	}
+
+	/**
+	 * 指定した座標にあるBlockを取得.
+	 * 返すBlockは使い回されるので, 次にgetBlockを呼ぶまでしか有効ではない.
+	 * @param x X-coordinate
+	 * @param y Y-coordinate
+	 * @return 成功したら指定した座標にあるBlockオブジェクト, 失敗したらnull
+	 */
+	public Block getBlock(int x, int y) {
+		if(view == null) view = new Block();
+		return getBlock(x, y, view);
+	}
+
+	/**
+	 * 指定した座標にあるBlockを読み込む
+	 * @param x X-coordinate
+	 * @param y Y-coordinate
+	 * @param blk 読み込み先のBlock
+	 * @return 成功したらblk, 失敗したらnull
+	 */
+	public Block getBlock(int x, int y, Block blk) {
+		int c = getIndex(x, y);
+		if(c == -1) return null;
+
+		load(c, blk);
+		return blk;
+	}
+
+	/**
+	 * Set block to specific location
+	 * @param x X-coordinate
+	 * @param y Y-coordinate
+	 * @param blk Block
+	 * @return true if successful, false if failed
+	 */
+	public boolean setBlock(int x, int y, Block blk) {
+		int c = getIndex(x, y);
+		if(c == -1) return false;
+
+		store(c, blk);
+		return true;
+	}
+
+	/**
+	 * 指定した座標にあるBlock colorを取得
+	 * @param x X-coordinate
+	 * @param y Y-coordinate
+	 * @return 指定した座標にあるBlock color (失敗したらBLOCK_COLOR_INVALID）
+	 */
+	public int getBlockColor(int x, int y) {
+		int c = getIndex(x, y);
+		return (c == -1) ? Block.BLOCK_COLOR_INVALID : color[c];
+	}
+
+	/**
+	 * 指定した座標にあるBlock colorを変更
+	 * @param x X-coordinate
+	 * @param y Y-coordinate
+	 * @param c 色
+	 * @return true if successful, false if failed
+	 */
+	public boolean setBlockColor(int x, int y, int c) {
+		int i = getIndex(x, y);
+		if(i == -1) return false;
+
+		color[i] = c;
+		return true;
+	}
+
+	/**
+	 * 指定した座標にあるBlockが空白かどうか判定
+	 * @param x X-coordinate
+	 * @param y Y-coordinate
+	 * @return 指定した座標にあるBlockが空白ならtrue (指定した座標が範囲外の場合もtrue）
+	 */
+	public boolean getBlockEmpty(int x, int y) {
+		int c = getIndex(x, y);
+		return (c == -1) || (color[c] < Block.BLOCK_COLOR_GRAY);
+	}
+
+	/**
+	 * 指定した座標にあるBlockの属性を調べる
+	 * @param x X-coordinate
+	 * @param y Y-coordinate
+	 * @param attr 調べたい属性
+	 * @return 指定した属性がすべてセットされている場合はtrue
+	 */
+	public boolean getBlockAttribute(int x, int y, int attr) {
+		int c = getIndex(x, y);
+		return (c != -1) && ((attribute[c] & attr) == attr);
+	}
+
+	/**
+	 * Line clear flagを取得
+	 * @param y Y-coordinate
+	 * @return 消える列ならtrue
+	 */
+	public boolean getLineFlag(int y) {
+		if((y < hidden_height * -1) || (y >= height)) return false;
+		return lineflag[y + hidden_height];
+	}
+
+	/**
+	 * 別のPackedFieldと内容が同じか調べる
+	 * @param p 比較対象
+	 * @return 全て同じならtrue
+	 */
+	public boolean contentEquals(PackedField p) {
+		return (width == p.width) && (height == p.height) && (hidden_height == p.hidden_height) &&
+			(ceiling == p.ceiling) && (hurryupFloorLines == p.hurryupFloorLines) &&
+			Arrays.equals(color, p.color) && Arrays.equals(skin, p.skin) &&
+			Arrays.equals(attribute, p.attribute) && Arrays.equals(elapsedFrames, p.elapsedFrames) &&
+			Arrays.equals(darkness, p.darkness) && Arrays.equals(alpha, p.alpha) &&
+			Arrays.equals(pieceNum, p.pieceNum) && Arrays.equals(item, p.item) &&
+			Arrays.equals(hard, p.hard) && Arrays.equals(countdown, p.countdown) &&
+			Arrays.equals(secondaryColor, p.secondaryColor) && Arrays.equals(bonusValue, p.bonusValue) &&
+			Arrays.equals(lineflag, p.lineflag);
+	}
+
+	/**
+	 * 盤面の形と色だけのハッシュ値を計算
+	 * @return ハッシュ値
+	 */
+	public int contentHash() {
+		return (31 * Arrays.hashCode(color)) + Arrays.hashCode(attribute);
+	}
+
+	/**
+	 * Blockの内容をセルに保存
+	 * @param c セルの番号
+	 * @param blk Block
+	 */
+	protected void store(int c, Block blk) {
+		color[c] = blk.color;
+		skin[c] = (short)blk.skin;
+		attribute[c] = blk.attribute;
+		elapsedFrames[c] = blk.elapsedFrames;
+		darkness[c] = blk.darkness;
+		alpha[c] = blk.alpha;
+		pieceNum[c] = blk.pieceNum;
+		item[c] = (short)blk.item;
+		hard[c] = (short)blk.hard;
+		countdown[c] = blk.countdown;
+		secondaryColor[c] = blk.secondaryColor;
+		bonusValue[c] = blk.bonusValue;
+	}
+
+	/**
+	 * セルの内容をBlockに読み込む
+	 * @param c セルの番号
+	 * @param blk Block
+	 */
+	protected void load(int c, Block blk) {
+		blk.color = color[c];
+		blk.skin = skin[c];
+		blk.attribute = attribute[c];
+		blk.elapsedFrames = elapsedFrames[c];
+		blk.darkness = darkness[c];
+		blk.alpha = alpha[c];
+		blk.pieceNum = pieceNum[c];
+		blk.item = item[c];
+		blk.hard = hard[c];
+		blk.countdown = countdown[c];
+		blk.secondaryColor = secondaryColor[c];
+		blk.bonusValue = bonusValue[c];
+	}
+
+	/**
+	 * セルの内容とBlockが同じか調べる
+	 * @param c セルの番号
+	 * @param blk Block
+	 * @return 同じならtrue
+	 */
+	protected boolean cellEquals(int c, Block blk) {
+		return (color[c] == blk.color) && (skin[c] == blk.skin) && (attribute[c] == blk.attribute) &&
+			(elapsedFrames[c] == blk.elapsedFrames) && (darkness[c] == blk.darkness) && (alpha[c] == blk.alpha) &&
+			(pieceNum[c] == blk.pieceNum) && (item[c] == blk.item) && (hard[c] == blk.hard) &&
+			(countdown[c] == blk.countdown) && (secondaryColor[c] == blk.secondaryColor) &&
+			(bonusValue[c] == blk.bonusValue);
+	}
+}
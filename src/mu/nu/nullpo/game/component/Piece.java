@@ -156,10 +156,20 @@ public class Piece implements Serializable {
 	/** DirectionのMaximumcount */
 	public static final int DIRECTION_COUNT = 4;
 
-	/** 相対X位置 (4Direction×nBlock) */
+	/**
+	 * 相対X位置 (4Direction×nBlock). このピースだけの配列なので書き換えても他のピースには影響しないが,
+	 * 当たり判定のたびに内容をPieceShapeと比べることになるのでgetDataX/setDataを使うこと
+	 * @deprecated Use {@link #getDataX(int, int)} and {@link #setData(int[][], int[][])}
+	 */
+	@Deprecated
 	public int[][] dataX;
 
-	/** 相対Y位置 (4Direction×nBlock) */
+	/**
+	 * 相対Y位置 (4Direction×nBlock). このピースだけの配列なので書き換えても他のピースには影響しないが,
+	 * 当たり判定のたびに内容をPieceShapeと比べることになるのでgetDataY/setDataを使うこと
+	 * @deprecated Use {@link #getDataY(int, int)} and {@link #setData(int[][], int[][])}
+	 */
+	@Deprecated
 	public int[][] dataY;
 
 	/** ピースを構成するBlock (nBlock) */
@@ -186,6 +196,9 @@ public class Piece implements Serializable {
 	/** Connect blocks in this piece? */
 	public boolean connectBlocks;
 
+	/** Shape (same contents as dataX/dataY when it is used, looked up again when they have been changed) */
+	protected transient PieceShape shape;
+
 	/**
 	 * ピース名を取得
 	 * @param id ピースID
@@ -233,13 +246,16 @@ public class Piece implements Serializable {
 		this.offsetApplied = false;
 		this.connectBlocks = true;
 
+		// Blockは同じ数なら使い回す
 		int maxBlock = getMaxBlock();
-		dataX = new int[DIRECTION_COUNT][maxBlock];
-		dataY = new int[DIRECTION_COUNT][maxBlock];
-		block = new Block[maxBlock];
-		for(int i = 0; i < block.length; i++) block[i] = new Block();
-		dataOffsetX = new int[DIRECTION_COUNT];
-		dataOffsetY = new int[DIRECTION_COUNT];
+		if((block == null) || (block.length != maxBlock)) {
+			block = new Block[maxBlock];
+			for(int i = 0; i < block.length; i++) block[i] = new Block();
+		} else {
+			for(int i = 0; i < block.length; i++) block[i].reset();
+		}
+		if(dataOffsetX == null) dataOffsetX = new int[DIRECTION_COUNT];
+		if(dataOffsetY == null) dataOffsetY = new int[DIRECTION_COUNT];
 
 		resetOffsetArray();
 	}
@@ -255,24 +271,117 @@ public class Piece implements Serializable {
 		offsetApplied = p.offsetApplied;
 		connectBlocks = p.connectBlocks;
 
+		// 相対位置の配列とBlockは同じ数なら使い回す
+		copyDataFrom(p.dataX, p.dataY);
+		shape = p.shape;
+
 		int maxBlock = p.getMaxBlock();
-		dataX = new int[DIRECTION_COUNT][maxBlock];
-		dataY = new int[DIRECTION_COUNT][maxBlock];
-		block = new Block[maxBlock];
-		for(int i = 0; i < maxBlock; i++) block[i] = new Block(p.block[i]);
-		dataOffsetX = new int[DIRECTION_COUNT];
-		dataOffsetY = new int[DIRECTION_COUNT];
+		if((block == null) || (block.length != maxBlock)) {
+			block = new Block[maxBlock];
+			for(int i = 0; i < maxBlock; i++) block[i] = new Block(p.block[i]);
+		} else {
+			for(int i = 0; i < maxBlock; i++) block[i].copy(p.block[i]);
+		}
+		if(dataOffsetX == null) dataOffsetX = new int[DIRECTION_COUNT];
+		if(dataOffsetY == null) dataOffsetY = new int[DIRECTION_COUNT];
 
 		for(int i = 0; i < DIRECTION_COUNT; i++) {
-			for(int j = 0; j < maxBlock; j++) {
-				dataX[i][j] = p.dataX[i][j];
-				dataY[i][j] = p.dataY[i][j];
-			}
 			dataOffsetX[i] = p.dataOffsetX[i];
 			dataOffsetY[i] = p.dataOffsetY[i];
 		}
 	}
 
+	/**
+	 * Get the shape of this piece
+	 * @return Shape (shared by the pieces of the same kind with the same offsets)
+	 */
+	public PieceShape getShape() {
+		if((shape == null) || !shape.matches(dataX, dataY)) {
+			shape = PieceShape.get(id, dataX, dataY);
+		}
+		return shape;
+	}
+
+	/**
+	 * 相対X位置を取得
+	 * @param rt Direction
+	 * @param i Block number
+	 * @return 相対X位置
+	 */
+	public int getDataX(int rt, int i) {
+		return dataX[rt][i];
+	}
+
+	/**
+	 * 相対Y位置を取得
+	 * @param rt Direction
+	 * @param i Block number
+	 * @return 相対Y位置
+	 */
+	public int getDataY(int rt, int i) {
+		return dataY[rt][i];
+	}
+
+	/**
+	 * 相対X位置のコピーを取得
+	 * @return 相対X位置 (4Direction×nBlock, 変更してもこのピースには影響しない)
+	 */
+	public int[][] getDataX() {
+		return PieceShape.copyData(dataX);
+	}
+
+	/**
+	 * 相対Y位置のコピーを取得
+	 * @return 相対Y位置 (4Direction×nBlock, 変更してもこのピースには影響しない)
+	 */
+	public int[][] getDataY() {
+		return PieceShape.copyData(dataY);
+	}
+
+	/**
+	 * 相対X位置と相対Y位置を設定 (配列はコピーされる)
+	 * @param newDataX 相対X位置 (4Direction×nBlock)
+	 * @param newDataY 相対Y位置 (4Direction×nBlock)
+	 */
+	public void setData(int[][] newDataX, int[][] newDataY) {
+		copyDataFrom(newDataX, newDataY);
+		shape = null;
+	}
+
+	/**
+	 * 相対位置をこのピースの配列にコピー (大きさが同じなら配列を使い回す)
+	 * @param srcX 相対X位置
+	 * @param srcY 相対Y位置
+	 */
+	private void copyDataFrom(int[][] srcX, int[][] srcY) {
+		dataX = copyArray(srcX, dataX);
+		dataY = copyArray(srcY, dataY);
+	}
+
+	/**
+	 * 相対位置の配列をコピー
+	 * @param src Copy source
+	 * @param dest Array to reuse (null: none)
+	 * @return Copy (dest if it has the same size as src)
+	 */
+	private static int[][] copyArray(int[][] src, int[][] dest) {
+		if((dest == null) || (dest.length != src.length)) dest = new int[src.length][];
+		for(int i = 0; i < src.length; i++) {
+			if((dest[i] == null) || (dest[i].length != src[i].length)) dest[i] = new int[src[i].length];
+			System.arraycopy(src[i], 0, dest[i], 0, src[i].length);
+		}
+		return dest;
+	}
+
+	/**
+	 * Set the shape of this piece
+	 * @param s Shape
+	 */
+	protected void setShape(PieceShape s) {
+		copyDataFrom(s.dataX, s.dataY);
+		shape = s;
+	}
+
 	/**
 	 * 1つのピースに含まれるBlockのcountを取得
 	 * @return 1つのピースに含まれるBlockのcount
@@ -459,11 +568,8 @@ public class Piece implements Serializable {
 	 * 相対X位置と相対Y位置を初期状態に戻す
 	 */
 	public void resetOffsetArray() {
+		setShape(PieceShape.get(id));
 		for(int i = 0; i < DIRECTION_COUNT; i++) {
-			for(int j = 0; j < getMaxBlock(); j++) {
-				dataX[i][j] = DEFAULT_PIECE_DATA_X[id][i][j];
-				dataY[i][j] = DEFAULT_PIECE_DATA_Y[id][i][j];
-			}
 			dataOffsetX[i] = 0;
 			dataOffsetY[i] = 0;
 		}
@@ -795,6 +901,9 @@ public class Piece implements Serializable {
 	 * @return Blockに重なっていたらtrue, 重なっていないならfalse
 	 */
 	public boolean checkCollision(int x, int y, int rt, Field fld) {
+		// Row bitmaskで判定
+		if(fld.isRowMaskEnabled()) return checkCollisionMask(x, y, rt, fld);
+
 		// Bigでは専用処理
 		if(big == true) return checkCollisionBig(x, y, rt, fld);
 
@@ -802,16 +911,7 @@ public class Piece implements Serializable {
 			int x2 = x + dataX[rt][i];
 			int y2 = y + dataY[rt][i];
 
-			if(x2 >= fld.getWidth()) {
-				return true;
-			}
-			if(y2 >= fld.getHeight()) {
-				return true;
-			}
-			if(fld.getCoordAttribute(x2, y2) == Field.COORD_WALL) {
-				return true;
-			}
-			if((fld.getCoordAttribute(x2, y2) != Field.COORD_VANISH) && (fld.getBlockColor(x2, y2) != Block.BLOCK_COLOR_NONE)) {
+			if(fld.checkCollision(x2, y2)) {
 				return true;
 			}
 		}
@@ -819,6 +919,18 @@ public class Piece implements Serializable {
 		return false;
 	}
 
+	/**
+	 * ピースの当たり判定 (Row bitmask用, Bigにも対応)
+	 * @param x X-coordinate
+	 * @param y Y-coordinate
+	 * @param rt Direction
+	 * @param fld field (isRowMaskEnabledがtrueであること)
+	 * @return Blockに重なっていたらtrue, 重なっていないならfalse
+	 */
+	protected boolean checkCollisionMask(int x, int y, int rt, Field fld) {
+		return getShape().getCollisionData(big).checkCollision(x, y, rt, fld);
+	}
+
 	/**
 	 * ピースの当たり判定 (Big用）
 	 * @param x X-coordinate
@@ -837,16 +949,7 @@ public class Piece implements Serializable {
 				int x3 = x2 + k;
 				int y3 = y2 + l;
 
-				if(x3 >= fld.getWidth()) {
-					return true;
-				}
-				if(y3 >= fld.getHeight()) {
-					return true;
-				}
-				if(fld.getCoordAttribute(x3, y3) == Field.COORD_WALL) {
-					return true;
-				}
-				if((fld.getCoordAttribute(x3, y3) != Field.COORD_VANISH) && (fld.getBlockColor(x3, y3) != Block.BLOCK_COLOR_NONE)) {
+				if(fld.checkCollision(x3, y3)) {
 					return true;
 				}
 			}
@@ -864,6 +967,12 @@ public class Piece implements Serializable {
 	 * @return ピースをそのまま落とした場合のY-coordinate
 	 */
 	public int getBottom(int x, int y, int rt, Field fld) {
+		if(fld.isRowMaskEnabled()) {
+			// 列ごとの下端とfieldの地形から落下距離を求める (列の途中に隙間があるピースは1段ずつ調べる)
+			int bottom = getShape().getCollisionData(big).getBottom(x, y, rt, fld);
+			if(bottom != Integer.MIN_VALUE) return bottom;
+		}
+
 		int y2 = y;
 
 		while(checkCollision(x, y2, rt, fld) == false) {
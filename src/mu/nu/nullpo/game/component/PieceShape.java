@@ -0,0 +1,432 @@
+/*
+    Copyright (c) 2010, NullNoname
+    All rights reserved.
+
+    Redistribution and use in source and binary forms, with or without
+    modification, are permitted provided that the following conditions are met:
+
+        * Redistributions of source code must retain the above copyright
+          notice, this list of conditions and the following disclaimer.
+        * Redistributions in binary form must reproduce the above copyright
+          notice, this list of conditions and the following disclaimer in the
+          documentation and/or other materials provided with the distribution.
+        * Neither the name of NullNoname nor the names of its
+          contributors may be used to endorse or promote products derived from
+          this software without specific prior written permission.
+
+    THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+    AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+    IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+    ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+    LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+    CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+    SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+    INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+    CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+    ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+    POSSIBILITY OF SUCH DAMAGE.
+*/
+package mu.nu.nullpo.game.component;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Shape of a piece (shared and immutable).
+ * <p>
+ * Pieces of the same kind with the same offsets share one PieceShape, so the collision bitmasks are made only once
+ * for each shape. The default shapes are made beforehand, and shapes with offsets are kept in a concurrent map
+ * keyed on the piece ID and the offsets of each Direction, so getting a shape never takes a lock.
+ * Don't change the arrays of a PieceShape.
+ */
+public final class PieceShape {
+	/** Maximum number of shapes with offsets kept in the map (more shapes are made each time they are needed) */
+	public static final int MAX_SHAPES = 4096;
+
+	/** Offsets that can be a part of a map key (-OFFSET_KEY_RANGE ～ OFFSET_KEY_RANGE - 1) */
+	private static final int OFFSET_KEY_RANGE = 64;
+
+	/** Default shapes ([piece ID]) */
+	private static final PieceShape[] defaultShapes = new PieceShape[Piece.PIECE_COUNT];
+
+	/** Shapes with offsets made so far (key: see getKey) */
+	private static final ConcurrentHashMap<Long, PieceShape> shapes = new ConcurrentHashMap<Long, PieceShape>();
+
+	/** Offsets of zero */
+	private static final int[] NO_OFFSET = new int[Piece.DIRECTION_COUNT];
+
+	static {
+		for(int i = 0; i < defaultShapes.length; i++) {
+			defaultShapes[i] = new PieceShape(i, NO_OFFSET, NO_OFFSET);
+		}
+	}
+
+	/** ID */
+	public final int id;
+
+	/** 相対X位置 (4Direction×nBlock) */
+	final int[][] dataX;
+
+	/** 相対Y位置 (4Direction×nBlock) */
+	final int[][] dataY;
+
+	/** 当たり判定用 data (normal) */
+	private CollisionData collision;
+
+	/** 当たり判定用 data (Big) */
+	private CollisionData collisionBig;
+
+	/**
+	 * Get the default shape of a piece
+	 * @param id Piece ID
+	 * @return Shape
+	 */
+	public static PieceShape get(int id) {
+		return defaultShapes[id];
+	}
+
+	/**
+	 * Get the default shape of a piece moved by offsets
+	 * @param id Piece ID
+	 * @param offsetX X offsets (Directionごと)
+	 * @param offsetY Y offsets (Directionごと)
+	 * @return Shape
+	 */
+	public static PieceShape get(int id, int[] offsetX, int[] offsetY) {
+		boolean zero = true;
+		for(int i = 0; i < Piece.DIRECTION_COUNT; i++) {
+			if((offsetX[i] != 0) || (offsetY[i] != 0)) zero = false;
+		}
+		if(zero) return defaultShapes[id];
+
+		long key = getKey(id, offsetX, offsetY);
+		PieceShape s = (key == -1) ? null : shapes.get(key);
+		if(s == null) {
+			s = new PieceShape(id, offsetX, offsetY);
+			if((key != -1) && (shapes.size() < MAX_SHAPES)) {
+				PieceShape old = shapes.putIfAbsent(key, s);
+				if(old != null) s = old;
+			}
+		}
+		return s;
+	}
+
+	/**
+	 * Get the shape from block positions
+	 * @param id Piece ID
+	 * @param dataX 相対X位置
+	 * @param dataY 相対Y位置
+	 * @return Shape (a new shape which is not shared if the block positions are not the default shape moved by offsets)
+	 */
+	public static PieceShape get(int id, int[][] dataX, int[][] dataY) {
+		int[] offsetX = new int[Piece.DIRECTION_COUNT];
+		int[] offsetY = new int[Piece.DIRECTION_COUNT];
+
+		if(getOffset(id, dataX, dataY, offsetX, offsetY)) return get(id, offsetX, offsetY);
+		return new PieceShape(id, dataX, dataY);
+	}
+
+	/**
+	 * Get the offsets of block positions from the default shape
+	 * @param id Piece ID
+	 * @param dataX 相対X位置
+	 * @param dataY 相対Y位置
+	 * @param offsetX X offsets (output)
+	 * @param offsetY Y offsets (output)
+	 * @return false if the block positions are not the default shape moved by offsets
+	 */
+	private static boolean getOffset(int id, int[][] dataX, int[][] dataY, int[] offsetX, int[] offsetY) {
+		int maxBlock = Piece.DEFAULT_PIECE_DATA_X[id][0].length;
+		if((dataX.length != Piece.DIRECTION_COUNT) || (dataY.length != Piece.DIRECTION_COUNT)) return false;
+
+		for(int i = 0; i < Piece.DIRECTION_COUNT; i++) {
+			if((dataX[i].length != maxBlock) || (dataY[i].length != maxBlock)) return false;
+			if(maxBlock == 0) continue;
+			offsetX[i] = dataX[i][0] - Piece.DEFAULT_PIECE_DATA_X[id][i][0];
+			offsetY[i] = dataY[i][0] - Piece.DEFAULT_PIECE_DATA_Y[id][i][0];
+			for(int j = 1; j < maxBlock; j++) {
+				if(dataX[i][j] - Piece.DEFAULT_PIECE_DATA_X[id][i][j] != offsetX[i]) return false;
+				if(dataY[i][j] - Piece.DEFAULT_PIECE_DATA_Y[id][i][j] != offsetY[i]) return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Make the map key of a shape (8 bits for the ID and 7 bits for each offset)
+	 * @param id Piece ID
+	 * @param offsetX X offsets
+	 * @param offsetY Y offsets
+	 * @return Key (-1 if an offset is too large to be a part of a key)
+	 */
+	private static long getKey(int id, int[] offsetX, int[] offsetY) {
+		long key = 0;
+
+		for(int i = 0; i < Piece.DIRECTION_COUNT; i++) {
+			if((offsetX[i] < -OFFSET_KEY_RANGE) || (offsetX[i] >= OFFSET_KEY_RANGE) ||
+			   (offsetY[i] < -OFFSET_KEY_RANGE) || (offsetY[i] >= OFFSET_KEY_RANGE))
+				return -1;
+			key = (key << 14) | ((offsetX[i] + OFFSET_KEY_RANGE) << 7) | (offsetY[i] + OFFSET_KEY_RANGE);
+		}
+		return (key << 8) | id;
+	}
+
+	/**
+	 * Constructor (default shape moved by offsets)
+	 * @param id Piece ID
+	 * @param offsetX X offsets
+	 * @param offsetY Y offsets
+	 */
+	private PieceShape(int id, int[] offsetX, int[] offsetY) {
+		this.id = id;
+
+		int maxBlock = Piece.DEFAULT_PIECE_DATA_X[id][0].length;
+		dataX = new int[Piece.DIRECTION_COUNT][maxBlock];
+		dataY = new int[Piece.DIRECTION_COUNT][maxBlock];
+		for(int i = 0; i < Piece.DIRECTION_COUNT; i++) {
+			for(int j = 0; j < maxBlock; j++) {
+				dataX[i][j] = Piece.DEFAULT_PIECE_DATA_X[id][i][j] + offsetX[i];
+				dataY[i][j] = Piece.DEFAULT_PIECE_DATA_Y[id][i][j] + offsetY[i];
+			}
+		}
+	}
+
+	/**
+	 * Constructor (any block positions, which are copied)
+	 * @param id Piece ID
+	 * @param dataX 相対X位置
+	 * @param dataY 相対Y位置
+	 */
+	private PieceShape(int id, int[][] dataX, int[][] dataY) {
+		this.id = id;
+		this.dataX = copyData(dataX);
+		this.dataY = copyData(dataY);
+	}
+
+	/**
+	 * 相対位置の配列をコピー
+	 * @param data 相対位置
+	 * @return Copy
+	 */
+	static int[][] copyData(int[][] data) {
+		int[][] result = new int[data.length][];
+		for(int i = 0; i < data.length; i++) result[i] = data[i].clone();
+		return result;
+	}
+
+	/**
+	 * Check whether some block positions are the ones of this shape
+	 * @param x 相対X位置
+	 * @param y 相対Y位置
+	 * @return true if they have the same contents as the arrays of this shape
+	 */
+	public boolean matches(int[][] x, int[][] y) {
+		if((x == dataX) && (y == dataY)) return true;
+		if((x.length != dataX.length) || (y.length != dataY.length)) return false;
+
+		for(int i = 0; i < dataX.length; i++) {
+			int[] ax = x[i], ay = y[i], bx = dataX[i], by = dataY[i];
+			if((ax.length != bx.length) || (ay.length != by.length)) return false;
+			for(int j = 0; j < bx.length; j++) {
+				if(ax[j] != bx[j]) return false;
+			}
+			for(int j = 0; j < by.length; j++) {
+				if(ay[j] != by[j]) return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Get a block position of this shape
+	 * @param rt Direction
+	 * @param i Block number
+	 * @return 相対X位置
+	 */
+	public int getDataX(int rt, int i) {
+		return dataX[rt][i];
+	}
+
+	/**
+	 * Get a block position of this shape
+	 * @param rt Direction
+	 * @param i Block number
+	 * @return 相対Y位置
+	 */
+	public int getDataY(int rt, int i) {
+		return dataY[rt][i];
+	}
+
+	/**
+	 * Get the number of blocks of this shape
+	 * @return Number of blocks
+	 */
+	public int getMaxBlock() {
+		return dataX[0].length;
+	}
+
+	/**
+	 * Get the collision data (made when it is needed for the first time)
+	 * @param big true for Big pieces
+	 * @return Collision data
+	 */
+	CollisionData getCollisionData(boolean big) {
+		CollisionData c = big ? collisionBig : collision;
+		if(c == null) {
+			// Made twice when two threads come here at the same time, which is harmless
+			c = new CollisionData(dataX, dataY, big);
+			if(big) collisionBig = c;
+			else collision = c;
+		}
+		return c;
+	}
+
+	/**
+	 * 当たり判定用の行ごとのbitmaskなど
+	 */
+	static final class CollisionData {
+		/** 行ごとのbitmask (Direction×行, bit 0が一番左の列) */
+		final long[][] mask;
+
+		/** maskの一番左の列の相対X位置 (Directionごと) */
+		final int[] minX;
+
+		/** maskの一番上の行の相対Y位置 (Directionごと) */
+		final int[] minY;
+
+		/** maskの幅 (Directionごと) */
+		final int[] width;
+
+		/** 列ごとの一番上のBlockの行 (Direction×列, maskの行番号) */
+		final int[][] top;
+
+		/** 列ごとの一番下のBlockの行 (Direction×列, maskの行番号) */
+		final int[][] bottom;
+
+		/** 全ての列でBlockが縦に隙間なく並んでいるならtrue (Directionごと) */
+		final boolean[] solidColumns;
+
+		/** Big用かどうか */
+		final boolean big;
+
+		/**
+		 * Constructor
+		 * @param dataX 相対X位置
+		 * @param dataY 相対Y位置
+		 * @param big true for Big pieces
+		 */
+		CollisionData(int[][] dataX, int[][] dataY, boolean big) {
+			int size = big ? 2 : 1;
+
+			this.big = big;
+			mask = new long[Piece.DIRECTION_COUNT][];
+			minX = new int[Piece.DIRECTION_COUNT];
+			minY = new int[Piece.DIRECTION_COUNT];
+			width = new int[Piece.DIRECTION_COUNT];
+			top = new int[Piece.DIRECTION_COUNT][];
+			bottom = new int[Piece.DIRECTION_COUNT][];
+			solidColumns = new boolean[Piece.DIRECTION_COUNT];
+
+			for(int rt = 0; rt < Piece.DIRECTION_COUNT; rt++) {
+				int maxBlock = dataX[rt].length;
+				if(maxBlock == 0) {
+					mask[rt] = new long[0];
+					top[rt] = new int[0];
+					bottom[rt] = new int[0];
+					continue;
+				}
+
+				int x0 = dataX[rt][0], x1 = dataX[rt][0];
+				int y0 = dataY[rt][0], y1 = dataY[rt][0];
+				for(int i = 1; i < maxBlock; i++) {
+					x0 = Math.min(x0, dataX[rt][i]);
+					x1 = Math.max(x1, dataX[rt][i]);
+					y0 = Math.min(y0, dataY[rt][i]);
+					y1 = Math.max(y1, dataY[rt][i]);
+				}
+
+				long[] rows = new long[(y1 - y0 + 1) * size];
+				for(int i = 0; i < maxBlock; i++) {
+					int bx = (dataX[rt][i] - x0) * size;
+					int by = (dataY[rt][i] - y0) * size;
+					for(int k = 0; k < size; k++) for(int l = 0; l < size; l++) {
+						rows[by + l] |= 1L << (bx + k);
+					}
+				}
+
+				mask[rt] = rows;
+				minX[rt] = x0 * size;
+				minY[rt] = y0 * size;
+				width[rt] = (x1 - x0 + 1) * size;
+
+				// 列ごとの上端と下端
+				int w = width[rt];
+				top[rt] = new int[w];
+				bottom[rt] = new int[w];
+				solidColumns[rt] = true;
+				for(int c = 0; c < w; c++) {
+					int t = -1, b = -1, count = 0;
+					for(int i = 0; i < rows.length; i++) {
+						if((rows[i] & (1L << c)) != 0) {
+							if(t == -1) t = i;
+							b = i;
+							count++;
+						}
+					}
+					top[rt][c] = t;
+					bottom[rt][c] = b;
+					if(count != b - t + 1) solidColumns[rt] = false;
+				}
+			}
+		}
+
+		/**
+		 * ピースの当たり判定
+		 * @param x X-coordinate
+		 * @param y Y-coordinate
+		 * @param rt Direction
+		 * @param fld field (isRowMaskEnabledがtrueであること)
+		 * @return Blockに重なっていたらtrue, 重なっていないならfalse
+		 */
+		boolean checkCollision(int x, int y, int rt, Field fld) {
+			long[] rows = mask[rt];
+			if(rows.length == 0) return false;
+
+			// 左右の壁 (一番左と一番右の列には必ずBlockがある)
+			int x2 = x + minX[rt];
+			if((x2 < 0) || (x2 + width[rt] > fld.getWidth())) return true;
+
+			int y2 = y + minY[rt];
+			for(int i = 0; i < rows.length; i++) {
+				if((fld.getRowCollisionMask(y2 + i) & (rows[i] << x2)) != 0) return true;
+			}
+
+			return false;
+		}
+
+		/**
+		 * ピースをそのまま落とした場合のY-coordinateを列ごとの下端から求める
+		 * @param x X-coordinate
+		 * @param y Y-coordinate
+		 * @param rt Direction
+		 * @param fld field (isRowMaskEnabledがtrueであること)
+		 * @return ピースをそのまま落とした場合のY-coordinate (Integer.MIN_VALUE: 列の途中に隙間があるので1段ずつ調べる必要がある)
+		 */
+		int getBottom(int x, int y, int rt, Field fld) {
+			if(!solidColumns[rt] || (mask[rt].length == 0)) return Integer.MIN_VALUE;
+
+			int x2 = x + minX[rt];
+			if((x2 < 0) || (x2 + width[rt] > fld.getWidth())) return y - 1;
+
+			int y2 = y + minY[rt];
+			int drop = Integer.MAX_VALUE;
+			for(int c = 0; c < width[rt]; c++) {
+				int t = y2 + top[rt][c];
+				int b = y2 + bottom[rt][c];
+				int hit = fld.getFirstCollisionY(x2 + c, t);
+				drop = Math.min(drop, (hit <= b) ? 0 : (hit - b));
+			}
+
+			return y + drop - 1;
+		}
+	}
+}
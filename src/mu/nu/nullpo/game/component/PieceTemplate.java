@@ -0,0 +1,137 @@
+/*
+    Copyright (c) 2010, NullNoname
+    All rights reserved.
+
+    Redistribution and use in source and binary forms, with or without
+    modification, are permitted provided that the following conditions are met:
+
+        * Redistributions of source code must retain the above copyright
+          notice, this list of conditions and the following disclaimer.
+        * Redistributions in binary form must reproduce the above copyright
+          notice, this list of conditions and the following disclaimer in the
+          documentation and/or other materials provided with the distribution.
+        * Neither the name of NullNoname nor the names of its
+          contributors may be used to endorse or promote products derived from
+          this software without specific prior written permission.
+
+    THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+    AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+    IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+    ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+    LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+    CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+    SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+    INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+    CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+    ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+    POSSIBILITY OF SUCH DAMAGE.
+*/
+package mu.nu.nullpo.game.component;
+
+/**
+ * Template of a next piece (shared and immutable).
+ * <p>
+ * Holds the shape, Direction, colors, skin, attributes and connect data of one kind of piece of a rule. Making a
+ * next piece copies a template into a reused Piece instead of coloring the blocks and running updateConnectData
+ * each time. The piece in play can be handled with an {@link ActivePiece}, which only carries the position.
+ */
+public final class PieceTemplate {
+	/** ID */
+	public final int id;
+
+	/** Direction */
+	public final int direction;
+
+	/** Connect blocks in this piece? */
+	public final boolean connectBlocks;
+
+	/** 色 */
+	public final int color;
+
+	/** 模様 */
+	public final int skin;
+
+	/** 全てのBlockに付ける属性 */
+	public final int attribute;
+
+	/** ピースの中身 (外には出さない) */
+	private final Piece piece;
+
+	/**
+	 * Constructor
+	 * @param id Piece ID
+	 * @param direction Direction
+	 * @param connectBlocks Connect blocks in this piece?
+	 * @param color 色
+	 * @param skin 模様
+	 * @param attribute 全てのBlockに付ける属性
+	 */
+	public PieceTemplate(int id, int direction, boolean connectBlocks, int color, int skin, int attribute) {
+		this.id = id;
+		this.direction = direction;
+		this.connectBlocks = connectBlocks;
+		this.color = color;
+		this.skin = skin;
+		this.attribute = attribute;
+
+		piece = new Piece(id);
+		piece.direction = direction;
+		piece.connectBlocks = connectBlocks;
+		piece.setColor(color);
+		piece.setSkin(skin);
+		piece.updateConnectData();
+		piece.setAttribute(attribute, true);
+		piece.getShape();
+	}
+
+	/**
+	 * Check whether this template has been made with some settings
+	 * @param id Piece ID
+	 * @param direction Direction
+	 * @param connectBlocks Connect blocks in this piece?
+	 * @param color 色
+	 * @param skin 模様
+	 * @param attribute 全てのBlockに付ける属性
+	 * @return true if the settings are the same
+	 */
+	public boolean isMadeFrom(int id, int direction, boolean connectBlocks, int color, int skin, int attribute) {
+		return (this.id == id) && (this.direction == direction) && (this.connectBlocks == connectBlocks) &&
+			   (this.color == color) && (this.skin == skin) && (this.attribute == attribute);
+	}
+
+	/**
+	 * Get the shape
+	 * @return Shape
+	 */
+	public PieceShape getShape() {
+		return piece.getShape();
+	}
+
+	/**
+	 * 1つのピースに含まれるBlockのcountを取得
+	 * @return 1つのピースに含まれるBlockのcount
+	 */
+	public int getMaxBlock() {
+		return piece.getMaxBlock();
+	}
+
+	/**
+	 * Copy a block of this template
+	 * @param i Block number
+	 * @param dest Block to write to
+	 */
+	public void copyBlock(int i, Block dest) {
+		dest.copy(piece.block[i]);
+	}
+
+	/**
+	 * Copy this template into a piece
+	 * @param dest Piece to write to (null: make a new one)
+	 * @return dest, or the new piece
+	 */
+	public Piece copyTo(Piece dest) {
+		if(dest == null) return new Piece(piece);
+		dest.copy(piece);
+		return dest;
+	}
+}
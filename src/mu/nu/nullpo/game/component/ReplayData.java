@@ -28,8 +28,17 @@
 */
 package mu.nu.nullpo.game.component;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.ListIterator;
 
 import mu.nu.nullpo.util.CustomProperties;
 
@@ -40,12 +49,39 @@ public class ReplayData implements Serializable {
 	/** Serial version ID */
 	private static final long serialVersionUID = 737226985994393117L;
 
+	/** Serialized fields (same as the old ArrayList version, so old data can still be read) */
+	private static final ObjectStreamField[] serialPersistentFields = {
+		new ObjectStreamField("inputDataArray", ArrayList.class)
+	};
+
 	/** Button input dataの default の長さ */
-	public static final int DEFAULT_ARRAYLIST_SIZE = 60 * 60 * 10;
+	public static final int DEFAULT_ARRAY_SIZE = 60 * 60 * 10;
+
+	/**
+	 * Button input dataの default の長さ
+	 * @deprecated Use DEFAULT_ARRAY_SIZE
+	 */
+	@Deprecated
+	public static final int DEFAULT_ARRAYLIST_SIZE = DEFAULT_ARRAY_SIZE;
 
-	/** Button input data */
+	/**
+	 * Button input data.
+	 * This is a view of inputDataBuffer, so reading and adding frames through it still works
+	 * (iterator and toArray return a copy, removing frames is not supported).
+	 * @deprecated Use getInputData, setInputData and getLength
+	 */
+	@Deprecated
 	public ArrayList<Integer> inputDataArray;
 
+	/** Button input data (only the first inputDataSize elements are used, and the first one is frame inputDataStart) */
+	protected int[] inputDataBuffer;
+
+	/** Number of frames in inputDataBuffer */
+	protected int inputDataSize;
+
+	/** Number of frames dropped from the start by discardBefore (inputDataBuffer[0] is this frame) */
+	protected int inputDataStart;
+
 	/**
 	 * Default constructor
 	 */
@@ -65,10 +101,12 @@ public class ReplayData implements Serializable {
 	 * Reset to defaults
 	 */
 	public void reset() {
+		if(inputDataBuffer == null)
+			inputDataBuffer = new int[DEFAULT_ARRAY_SIZE];
 		if(inputDataArray == null)
-			inputDataArray = new ArrayList<Integer>(DEFAULT_ARRAYLIST_SIZE);
-		else
-			inputDataArray.clear();
+			inputDataArray = new InputDataView();
+		inputDataSize = 0;
+		inputDataStart = 0;
 	}
 
 	/**
@@ -77,9 +115,19 @@ public class ReplayData implements Serializable {
 	 */
 	public void copy(ReplayData r) {
 		reset();
+		ensureCapacity(r.inputDataSize);
+		System.arraycopy(r.inputDataBuffer, 0, inputDataBuffer, 0, r.inputDataSize);
+		inputDataSize = r.inputDataSize;
+		inputDataStart = r.inputDataStart;
+	}
 
-		for(int i = 0; i < r.inputDataArray.size(); i++) {
-			inputDataArray.add(i, r.inputDataArray.get(i));
+	/**
+	 * Make room for the given number of frames
+	 * @param size Number of frames
+	 */
+	protected void ensureCapacity(int size) {
+		if(size > inputDataBuffer.length) {
+			inputDataBuffer = Arrays.copyOf(inputDataBuffer, Math.max(size, inputDataBuffer.length * 2));
 		}
 	}
 
@@ -89,23 +137,85 @@ public class ReplayData implements Serializable {
 	 * @param frame  frame  (経過 time）
 	 */
 	public void setInputData(int input, int frame) {
-		if((frame < 0) || (frame >= inputDataArray.size())) {
-			inputDataArray.add(input);
-		} else {
-			inputDataArray.set(frame, input);
+		if((frame < 0) || (frame >= getLength())) {
+			ensureCapacity(inputDataSize + 1);
+			inputDataBuffer[inputDataSize++] = input;
+		} else if(frame >= inputDataStart) {
+			inputDataBuffer[frame - inputDataStart] = input;
 		}
 	}
 
+	/**
+	 * Add the same button input to the end for several frames
+	 * @param input  button input状況のビット flag
+	 * @param count Number of frames
+	 */
+	public void addInputData(int input, int count) {
+		if(count <= 0) return;
+		ensureCapacity(inputDataSize + count);
+		Arrays.fill(inputDataBuffer, inputDataSize, inputDataSize + count, input);
+		inputDataSize += count;
+	}
+
 	/**
 	 *  button input状況を取得
 	 * @param frame  frame  (経過 time）
-	 * @return  button input状況のビット flag
+	 * @return  button input状況のビット flag (0 if the frame has been dropped by discardBefore)
 	 */
 	public int getInputData(int frame) {
-		if((frame < 0) || (frame >= inputDataArray.size())) {
+		if((frame < inputDataStart) || (frame >= getLength())) {
 			return 0;
 		}
-		return inputDataArray.get(frame);
+		return inputDataBuffer[frame - inputDataStart];
+	}
+
+	/**
+	 * Get the number of frames
+	 * @return Number of frames (including the ones dropped by discardBefore)
+	 */
+	public int getLength() {
+		return inputDataStart + inputDataSize;
+	}
+
+	/**
+	 * Get the number of frames dropped from the start by discardBefore
+	 * @return Number of frames that are not kept in memory
+	 */
+	public int getDiscardedLength() {
+		return inputDataStart;
+	}
+
+	/**
+	 * Drop the frames before a frame from memory (used when they are kept somewhere else, e.g. in a replay journal).
+	 * Dropped frames read as 0, and the frame numbers of the others don't change.
+	 * @param frame First frame to keep
+	 */
+	public void discardBefore(int frame) {
+		int count = Math.min(frame, getLength()) - inputDataStart;
+		if(count <= 0) return;
+
+		System.arraycopy(inputDataBuffer, count, inputDataBuffer, 0, inputDataSize - count);
+		inputDataSize -= count;
+		inputDataStart += count;
+	}
+
+	/**
+	 * Get how long the button input stays the same (used to go through the data run by run)
+	 * @param frame Start frame
+	 * @param maxFrame Frames after this one are not counted
+	 * @return Number of frames from frame that have the same input as frame (0 if frame is out of range)
+	 */
+	public int getRunLength(int frame, int maxFrame) {
+		int end = Math.min(maxFrame, getLength());
+		if((frame < 0) || (frame >= end)) return 0;
+
+		// Dropped frames are one run of 0
+		if(frame < inputDataStart) return Math.min(inputDataStart, end) - frame;
+
+		int input = inputDataBuffer[frame - inputDataStart];
+		int i = frame + 1;
+		while((i < end) && (inputDataBuffer[i - inputDataStart] == input)) i++;
+		return i - frame;
 	}
 
 	/**
@@ -116,12 +226,14 @@ public class ReplayData implements Serializable {
 	 */
 	public void writeProperty(CustomProperties p, int id, int maxFrame) {
 		int max = maxFrame;
-		if((maxFrame < 0) || (maxFrame > inputDataArray.size())) max = inputDataArray.size();
+		if((maxFrame < 0) || (maxFrame > getLength())) max = getLength();
 
-		for(int i = 0; i < max; i++) {
-			int input = getInputData(i);
-			int previous = getInputData(i - 1);
-			if(input != previous) p.setProperty(id + ".r." + i, input);
+		// Frames dropped by discardBefore are not written
+		int previous = 0;
+		for(int i = inputDataStart; i < max; i += getRunLength(i, max)) {
+			int input = inputDataBuffer[i - inputDataStart];
+			if((input != previous) || ((i > 0) && (i == inputDataStart))) p.setProperty(id + ".r." + i, input);
+			previous = input;
 		}
 		p.setProperty(id + ".r.max", max);
 	}
@@ -134,12 +246,261 @@ public class ReplayData implements Serializable {
 	public void readProperty(CustomProperties p, int id) {
 		reset();
 		int max = p.getProperty(id + ".r.max", 0);
+
+		// Only the frames where the input changes are in the properties, so look at those keys instead of every frame
+		String prefix = id + ".r.";
+		int[] frames = new int[16];
+		int count = 0;
+		for(Object k: p.keySet()) {
+			String key = (String)k;
+			if(!key.startsWith(prefix)) continue;
+
+			int frame = parseFrame(key, prefix.length());
+			if((frame < 0) || (frame >= max)) continue;
+
+			if(count >= frames.length) frames = Arrays.copyOf(frames, frames.length * 2);
+			frames[count++] = frame;
+		}
+		Arrays.sort(frames, 0, count);
+
+		ensureCapacity(max);
 		int input = 0;
+		int start = 0;
+		for(int i = 0; i < count; i++) {
+			int data = p.getProperty(prefix + frames[i], -1);
+			if(data == -1) continue;
+
+			addInputData(input, frames[i] - start);
+			input = data;
+			start = frames[i];
+		}
+		addInputData(input, max - start);
+	}
+
+	/**
+	 * Parse the frame number of a "&lt;id&gt;.r.&lt;frame&gt;" property
+	 * @param key Property name
+	 * @param start Position of the frame number
+	 * @return Frame number (-1 if it is not a number)
+	 */
+	public static int parseFrame(String key, int start) {
+		if(start >= key.length()) return -1;
+
+		int n = 0;
+		for(int i = start; i < key.length(); i++) {
+			char c = key.charAt(i);
+			if((c < '0') || (c > '9') || (n > (Integer.MAX_VALUE - 9) / 10)) return -1;
+			n = n * 10 + (c - '0');
+		}
+		return n;
+	}
+
+	/**
+	 * Write in the same form as the old ArrayList version
+	 * @param out Output stream
+	 * @throws IOException When writing fails
+	 */
+	private void writeObject(ObjectOutputStream out) throws IOException {
+		ArrayList<Integer> list = new ArrayList<Integer>(getLength());
+		for(int i = 0; i < getLength(); i++) {
+			list.add(getInputData(i));
+		}
+
+		ObjectOutputStream.PutField fields = out.putFields();
+		fields.put("inputDataArray", list);
+		out.writeFields();
+	}
+
+	/**
+	 * Read the form of the old ArrayList version
+	 * @param in Input stream
+	 * @throws IOException When reading fails
+	 * @throws ClassNotFoundException When a class of the data is missing
+	 */
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		ObjectInputStream.GetField fields = in.readFields();
+		List<?> list = (List<?>)fields.get("inputDataArray", null);
+
+		reset();
+		if(list != null) {
+			ensureCapacity(list.size());
+			for(Object input: list) {
+				inputDataBuffer[inputDataSize++] = (Integer)input;
+			}
+		}
+	}
+
+	/**
+	 * ArrayList view of inputDataBuffer for code written for the old inputDataArray
+	 */
+	protected class InputDataView extends ArrayList<Integer> {
+		/** Serial version ID */
+		private static final long serialVersionUID = 1L;
+
+		/**
+		 * Copy of the frames as a normal ArrayList
+		 * @return Copy
+		 */
+		protected ArrayList<Integer> copyFrames() {
+			ArrayList<Integer> list = new ArrayList<Integer>(getLength());
+			for(int i = 0; i < getLength(); i++) {
+				list.add(getInputData(i));
+			}
+			return list;
+		}
+
+		@Override
+		public int size() {
+			return getLength();
+		}
+
+		@Override
+		public boolean isEmpty() {
+			return getLength() == 0;
+		}
+
+		@Override
+		public Integer get(int index) {
+			if((index < 0) || (index >= getLength())) throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + getLength());
+			return getInputData(index);
+		}
+
+		@Override
+		public Integer set(int index, Integer element) {
+			int old = get(index);
+			if(index < inputDataStart) throw new UnsupportedOperationException("Frame " + index + " has been dropped");
+			inputDataBuffer[index - inputDataStart] = element;
+			return old;
+		}
+
+		@Override
+		public boolean add(Integer element) {
+			addInputData(element, 1);
+			return true;
+		}
+
+		@Override
+		public void add(int index, Integer element) {
+			if((index < 0) || (index > getLength())) throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + getLength());
+			if(index < inputDataStart) throw new UnsupportedOperationException("Frame " + index + " has been dropped");
+			int i = index - inputDataStart;
+			ensureCapacity(inputDataSize + 1);
+			System.arraycopy(inputDataBuffer, i, inputDataBuffer, i + 1, inputDataSize - i);
+			inputDataBuffer[i] = element;
+			inputDataSize++;
+		}
+
+		@Override
+		public boolean addAll(Collection<? extends Integer> c) {
+			for(Integer element: c) add(element);
+			return !c.isEmpty();
+		}
+
+		@Override
+		public void clear() {
+			inputDataSize = 0;
+			inputDataStart = 0;
+		}
+
+		@Override
+		public int indexOf(Object o) {
+			if(!(o instanceof Integer)) return -1;
+			for(int i = 0; i < getLength(); i++) {
+				if(getInputData(i) == (Integer)o) return i;
+			}
+			return -1;
+		}
+
+		@Override
+		public int lastIndexOf(Object o) {
+			if(!(o instanceof Integer)) return -1;
+			for(int i = getLength() - 1; i >= 0; i--) {
+				if(getInputData(i) == (Integer)o) return i;
+			}
+			return -1;
+		}
+
+		@Override
+		public boolean contains(Object o) {
+			return indexOf(o) >= 0;
+		}
+
+		@Override
+		public Iterator<Integer> iterator() {
+			return copyFrames().iterator();
+		}
+
+		@Override
+		public ListIterator<Integer> listIterator() {
+			return copyFrames().listIterator();
+		}
+
+		@Override
+		public ListIterator<Integer> listIterator(int index) {
+			return copyFrames().listIterator(index);
+		}
+
+		@Override
+		public Object[] toArray() {
+			return copyFrames().toArray();
+		}
+
+		@Override
+		public <T> T[] toArray(T[] a) {
+			return copyFrames().toArray(a);
+		}
+
+		@Override
+		public List<Integer> subList(int fromIndex, int toIndex) {
+			return copyFrames().subList(fromIndex, toIndex);
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			return copyFrames().equals(o);
+		}
+
+		@Override
+		public int hashCode() {
+			return copyFrames().hashCode();
+		}
+
+		@Override
+		public Integer remove(int index) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public boolean remove(Object o) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public boolean removeAll(Collection<?> c) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public boolean retainAll(Collection<?> c) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public boolean addAll(int index, Collection<? extends Integer> c) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		protected void removeRange(int fromIndex, int toIndex) {
+			throw new UnsupportedOperationException();
+		}
 
-		for(int i = 0; i < max; i++) {
-			int data = p.getProperty(id + ".r." + i, -1);
-			if(data != -1) input = data;
-			setInputData(input, i);
+		/**
+		 * Not serialized by itself; ReplayData writes its frames
+		 * @return Copy of the frames as a normal ArrayList
+		 */
+		private Object writeReplace() {
+			return copyFrames();
 		}
 	}
 }
@@ -38,8 +38,10 @@ import org.apache.log4j.Logger;
 import mu.nu.nullpo.game.component.Block;
 import mu.nu.nullpo.game.play.GameEngine;
 import mu.nu.nullpo.game.play.GameManager;
+import mu.nu.nullpo.util.BinaryReplay;
 import mu.nu.nullpo.util.CustomProperties;
 import mu.nu.nullpo.util.GeneralUtil;
+import mu.nu.nullpo.util.ReplayStreamWriter;
 
 /**
  * Drawing and event handling EventReceiver
@@ -1217,6 +1219,36 @@ public class EventReceiver {
 	 */
 	public void saveReplay(GameManager owner, CustomProperties prop) {}
 
+	/**
+	 * Called when a game starts, to make the writer that writes the replay to a journal file while playing
+	 * @param owner GameManager
+	 * @return Replay journal writer (null if not used)
+	 */
+	public ReplayStreamWriter createReplayWriter(GameManager owner) {
+		return null;
+	}
+
+	/**
+	 * Called when a game starts, to make the writer that writes the replay to a journal file while playing (This is main body)
+	 * @param owner GameManager
+	 * @param foldername Replay folder name
+	 * @return Replay journal writer (null if it couldn't be made)
+	 */
+	public ReplayStreamWriter createReplayWriter(GameManager owner, String foldername) {
+		if(owner.mode.isNetplayMode()) return null;
+
+		String filename = foldername + "/" + GeneralUtil.getReplayFilename() + ReplayStreamWriter.FILE_EXTENSION;
+		try {
+			File repfolder = new File(foldername);
+			if (!repfolder.exists()) repfolder.mkdir();
+
+			return new ReplayStreamWriter(new File(filename));
+		} catch(IOException e) {
+			log.error("Couldn't create replay journal " + filename, e);
+		}
+		return null;
+	}
+
 	/**
 	 * Called when saving replay (This is main body)
 	 * @param owner GameManager
@@ -1224,6 +1256,17 @@ public class EventReceiver {
 	 * @param foldername Replay folder name
 	 */
 	public void saveReplay(GameManager owner, CustomProperties prop, String foldername) {
+		saveReplay(owner, prop, foldername, false);
+	}
+
+	/**
+	 * Called when saving replay (This is main body)
+	 * @param owner GameManager
+	 * @param prop CustomProperties where the replay is going to stored
+	 * @param foldername Replay folder name
+	 * @param binary true to save in the binary replay format
+	 */
+	public void saveReplay(GameManager owner, CustomProperties prop, String foldername, boolean binary) {
 		if(owner.mode.isNetplayMode()) return;
 
 		String filename = foldername + "/" + GeneralUtil.getReplayFilename();
@@ -1237,9 +1280,7 @@ public class EventReceiver {
 				}
 			}
 
-			FileOutputStream out = new FileOutputStream(filename);
-			prop.store(new FileOutputStream(filename), "NullpoMino Replay");
-			out.close();
+			BinaryReplay.save(prop, filename, binary);
 			log.info("Saved replay file: " + filename);
 		} catch(IOException e) {
 			log.error("Couldn't save replay file to " + filename, e);
@@ -28,6 +28,7 @@
 */
 package mu.nu.nullpo.game.play;
 
+import java.io.IOException;
 import java.util.Calendar;
 import java.util.Random;
 import org.apache.log4j.Logger;
@@ -37,14 +38,19 @@ import mu.nu.nullpo.game.component.Block;
 import mu.nu.nullpo.game.component.Controller;
 import mu.nu.nullpo.game.component.Field;
 import mu.nu.nullpo.game.component.Piece;
+import mu.nu.nullpo.game.component.PieceTemplate;
 import mu.nu.nullpo.game.component.ReplayData;
 import mu.nu.nullpo.game.component.RuleOptions;
 import mu.nu.nullpo.game.component.SpeedParam;
 import mu.nu.nullpo.game.component.Statistics;
 import mu.nu.nullpo.game.component.WallkickResult;
 import mu.nu.nullpo.game.subsystem.ai.DummyAI;
+import mu.nu.nullpo.game.subsystem.mode.ReplaySettingMode;
+import mu.nu.nullpo.game.subsystem.randomizer.SeekableRandomizer;
 import mu.nu.nullpo.game.subsystem.wallkick.Wallkick;
+import mu.nu.nullpo.util.CustomProperties;
 import mu.nu.nullpo.util.GeneralUtil;
+import mu.nu.nullpo.util.ReplayStreamWriter;
 import net.omegaboshi.nullpomino.game.subsystem.randomizer.MemorylessRandomizer;
 import net.omegaboshi.nullpomino.game.subsystem.randomizer.Randomizer;
 
@@ -86,6 +92,9 @@ public class GameEngine {
 	/** Number of free status counters (used by statc array) */
 	public static final int MAX_STATC = 10;
 
+	/** Number of next pieces generated beyond the displayed ones (streaming next queue) */
+	public static final int NEXT_PIECE_LOOKAHEAD = 8;
+
 	/** Constants of last successful movements */
 	public static final int LASTMOVE_NONE = 0,
 							LASTMOVE_FALL_AUTO = 1,
@@ -123,7 +132,7 @@ public class GameEngine {
 							INTERRUPTITEM_MIRROR = 1;
 
 	/** Line gravity types */
-	public static final int LINE_GRAVITY_NATIVE = 0, LINE_GRAVITY_CASCADE = 1, LINE_GRAVITY_CASCADE_SLOW = 2;
+	public static final int LINE_GRAVITY_NATIVE = 0, LINE_GRAVITY_CASCADE = 1, LINE_GRAVITY_CASCADE_SLOW = 2, LINE_GRAVITY_CASCADE_INSTANT = 3;
 
 	/** Clear mode settings */
 	public static final int CLEAR_LINE = 0, CLEAR_COLOR = 1, CLEAR_LINE_COLOR = 2, CLEAR_GEM_COLOR = 3;
@@ -274,7 +283,7 @@ public class GameEngine {
 	/** Allow/Disallow certain piece */
 	public boolean[] nextPieceEnable;
 
-	/** Preferred size of next piece array. Might be ignored by certain Randomizer. (Default:1400) */
+	/** Preferred size of next piece array, used when nextPieceStreaming is false. Might be ignored by certain Randomizer. (Default:1400) */
 	public int nextPieceArraySize;
 
 	/** Array of next piece IDs */
@@ -283,6 +292,27 @@ public class GameEngine {
 	/** Array of next piece Objects */
 	public Piece[] nextPieceArrayObject;
 
+	/** true if next pieces are generated on demand and never repeat (false: nextPieceArraySize pieces are made at READY and repeated) */
+	public boolean nextPieceStreaming;
+
+	/** Ring buffer of next piece IDs (streaming next queue, length is a power of 2) */
+	public int[] nextPieceQueueID;
+
+	/** Ring buffer of next piece Objects (streaming next queue) */
+	public Piece[] nextPieceQueueObject;
+
+	/** Number of next pieces generated so far (streaming next queue) */
+	public int nextPieceQueueCount;
+
+	/** Random number generator for the direction and colors of next pieces (streaming next queue) */
+	public Random nextPieceRandom;
+
+	/** Piece objects used for the current piece and the hold piece (reused, so that spawning a piece doesn't allocate) */
+	protected Piece[] piecePool = new Piece[3];
+
+	/** Templates of next pieces ([piece ID][Direction], made again when the colors or settings change) */
+	protected PieceTemplate[][] pieceTemplate = new PieceTemplate[Piece.PIECE_COUNT][Piece.DIRECTION_COUNT];
+
 	/** Number of pieces put (Used by next piece sequence) */
 	public int nextPieceCount;
 
@@ -697,6 +727,8 @@ public class GameEngine {
 			Random tempRand = new Random();
 			randSeed = tempRand.nextLong();
 			random = new Random(randSeed);
+
+			nextPieceStreaming = true;
 		} else {
 			versionMajor = owner.replayProp.getProperty("version.core.major", 0f);
 			versionMinor = owner.replayProp.getProperty("version.core.minor", 0);
@@ -708,6 +740,9 @@ public class GameEngine {
 			randSeed = Long.parseLong(tempRand, 16);
 			random = new Random(randSeed);
 
+			// Replays made before the streaming next queue repeat the first 1400 pieces
+			nextPieceStreaming = owner.replayProp.getProperty(playerID + ".replay.nextPieceStreaming", false);
+
 			owRotateButtonDefaultRight = owner.replayProp.getProperty(playerID + ".tuning.owRotateButtonDefaultRight", -1);
 			owSkin = owner.replayProp.getProperty(playerID + ".tuning.owSkin", -1);
 			owMinDAS = owner.replayProp.getProperty(playerID + ".tuning.owMinDAS", -1);
@@ -748,6 +783,10 @@ public class GameEngine {
 		for(int i = 0; i < Piece.PIECE_STANDARD_COUNT; i++) nextPieceEnable[i] = true;
 		nextPieceArrayID = null;
 		nextPieceArrayObject = null;
+		nextPieceQueueID = null;
+		nextPieceQueueObject = null;
+		nextPieceQueueCount = 0;
+		nextPieceRandom = null;
 		nextPieceCount = 0;
 
 		holdPieceObject = null;
@@ -950,6 +989,14 @@ public class GameEngine {
 	 * @return NEXTピースのID
 	 */
 	public int getNextID(int c) {
+		if(nextPieceQueueID != null) {
+			if(!fillNextPieceQueue(c)) {
+				// Pieces dropped from the queue can still be got from a seekable randomizer
+				if((c >= 0) && (randomizer instanceof SeekableRandomizer)) return ((SeekableRandomizer)randomizer).getPiece(c);
+				return Piece.PIECE_NONE;
+			}
+			return nextPieceQueueID[c & (nextPieceQueueID.length - 1)];
+		}
 		if(nextPieceArrayID == null) return Piece.PIECE_NONE;
 		int c2 = c;
 		while(c2 >= nextPieceArrayID.length) c2 = c2 - nextPieceArrayID.length;
@@ -962,12 +1009,131 @@ public class GameEngine {
 	 * @return NEXTピースのオブジェクト
 	 */
 	public Piece getNextObject(int c) {
+		if(nextPieceQueueObject != null) {
+			if(!fillNextPieceQueue(c)) return null;
+			return nextPieceQueueObject[c & (nextPieceQueueObject.length - 1)];
+		}
 		if(nextPieceArrayObject == null) return null;
 		int c2 = c;
 		while(c2 >= nextPieceArrayObject.length) c2 = c2 - nextPieceArrayObject.length;
 		return nextPieceArrayObject[c2];
 	}
 
+	/**
+	 * Generate next pieces in the streaming next queue until the c-th one
+	 * @param c 取得したいNEXTの位置
+	 * @return false if the c-th piece has already been dropped from the queue
+	 */
+	protected boolean fillNextPieceQueue(int c) {
+		if((c < 0) || (c < nextPieceQueueCount - nextPieceQueueID.length)) return false;
+
+		// Keep the current piece and everything after it
+		int need = c + 1 - Math.min(nextPieceCount, c);
+		if(need > nextPieceQueueID.length) {
+			int size = nextPieceQueueID.length;
+			while(size < need) size <<= 1;
+			resizeNextPieceQueue(size);
+		}
+
+		// A seekable randomizer can jump over the pieces that would be dropped from the queue right away
+		// (only when making the piece objects doesn't use random numbers, which would have to be used in order)
+		int first = c + 1 - nextPieceQueueID.length;
+		if((first > nextPieceQueueCount) && (randomizer instanceof SeekableRandomizer) && !isNextPieceRandomUsed()) {
+			((SeekableRandomizer)randomizer).skipTo(first);
+			nextPieceQueueCount = first;
+		}
+
+		while(nextPieceQueueCount <= c) {
+			int i = nextPieceQueueCount & (nextPieceQueueID.length - 1);
+			nextPieceQueueID[i] = randomizer.next();
+			nextPieceQueueObject[i] = createNextPieceObject(nextPieceQueueID[i], nextPieceRandom, nextPieceQueueObject[i]);
+			if(randomBlockColor) setNextPieceRandomColor(nextPieceQueueObject[i], nextPieceRandom);
+			nextPieceQueueCount++;
+		}
+		return true;
+	}
+
+	/**
+	 * Check whether making next piece objects uses nextPieceRandom (random colors or random directions)
+	 * @return true if nextPieceRandom is used
+	 */
+	protected boolean isNextPieceRandomUsed() {
+		if(randomBlockColor) return true;
+		for(int i = 0; i < ruleopt.pieceDefaultDirection.length; i++) {
+			if(ruleopt.pieceDefaultDirection[i] >= Piece.DIRECTION_COUNT) return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Change the length of the streaming next queue
+	 * @param size New length (a power of 2)
+	 */
+	protected void resizeNextPieceQueue(int size) {
+		int[] newID = new int[size];
+		Piece[] newObject = new Piece[size];
+
+		if(nextPieceQueueID != null) {
+			int start = Math.max(0, nextPieceQueueCount - Math.min(size, nextPieceQueueID.length));
+			for(int c = start; c < nextPieceQueueCount; c++) {
+				newID[c & (size - 1)] = nextPieceQueueID[c & (nextPieceQueueID.length - 1)];
+				newObject[c & (size - 1)] = nextPieceQueueObject[c & (nextPieceQueueObject.length - 1)];
+			}
+		}
+
+		nextPieceQueueID = newID;
+		nextPieceQueueObject = newObject;
+	}
+
+	/**
+	 * Create a next piece object
+	 * @param id Piece ID
+	 * @param rand Random number generator (used when the rule uses random initial direction)
+	 * @param reuse Piece object to reuse (null: create a new one)
+	 * @return Next piece object
+	 */
+	protected Piece createNextPieceObject(int id, Random rand, Piece reuse) {
+		int direction = ruleopt.pieceDefaultDirection[id];
+		if(direction >= Piece.DIRECTION_COUNT) {
+			direction = rand.nextInt(Piece.DIRECTION_COUNT);
+		}
+		return getPieceTemplate(id, direction).copyTo(reuse);
+	}
+
+	/**
+	 * Get the template of a next piece (made again when the colors, skin or settings have been changed)
+	 * @param id Piece ID
+	 * @param direction Direction
+	 * @return Template
+	 */
+	protected PieceTemplate getPieceTemplate(int id, int direction) {
+		int color = ruleopt.pieceColor[id];
+		int skin = getSkin();
+		int attribute = Block.BLOCK_ATTRIBUTE_VISIBLE;
+		if(bone) attribute |= Block.BLOCK_ATTRIBUTE_BONE;
+
+		PieceTemplate t = pieceTemplate[id][direction];
+		if((t == null) || !t.isMadeFrom(id, direction, connectBlocks, color, skin, attribute)) {
+			t = new PieceTemplate(id, direction, connectBlocks, color, skin, attribute);
+			pieceTemplate[id][direction] = t;
+		}
+		return t;
+	}
+
+	/**
+	 * Give random colors to each block of a next piece (randomBlockColor)
+	 * @param p Next piece object
+	 * @param rand Random number generator
+	 */
+	protected void setNextPieceRandomColor(Piece p, Random rand) {
+		int size = p.getMaxBlock();
+		int[] colors = new int[size];
+		for (int j = 0; j < size; j++)
+			colors[j] = blockColors[rand.nextInt(numColors)];
+		p.setColor(colors);
+		p.updateConnectData();
+	}
+
 	/**
 	 * NEXTピースのオブジェクトのコピーを取得
 	 * @param c 取得したいNEXTの位置
@@ -980,6 +1146,29 @@ public class GameEngine {
 		return r;
 	}
 
+	/**
+	 * NEXTピースのオブジェクトをpiecePoolのオブジェクトにコピーして取得 (現在のピースとホールドのピース以外を使い回す)
+	 * @param c 取得したいNEXTの位置
+	 * @return NEXTピースのオブジェクトのコピー
+	 */
+	protected Piece getNextObjectPooled(int c) {
+		Piece p = getNextObject(c);
+		if(p == null) return null;
+
+		for(int i = 0; i < piecePool.length; i++) {
+			if(piecePool[i] == null) {
+				piecePool[i] = new Piece(p);
+				return piecePool[i];
+			}
+			if((piecePool[i] != nowPieceObject) && (piecePool[i] != holdPieceObject)) {
+				piecePool[i].copy(p);
+				return piecePool[i];
+			}
+		}
+
+		return new Piece(p);
+	}
+
 	/**
 	 * Current AREの値を取得 (ルール設定も考慮）
 	 * @return Current ARE
@@ -1237,47 +1426,15 @@ public class GameEngine {
 				tspinmini = kickused;
 			}
 
-			int[] tx = new int[4];
-			int[] ty = new int[4];
-
-			// Setup 4-point coordinates
-			if(piece.big == true) {
-				tx[0] = 1;
-				ty[0] = 1;
-				tx[1] = 4;
-				ty[1] = 1;
-				tx[2] = 1;
-				ty[2] = 4;
-				tx[3] = 4;
-				ty[3] = 4;
-			} else {
-				tx[0] = 0;
-				ty[0] = 0;
-				tx[1] = 2;
-				ty[1] = 0;
-				tx[2] = 0;
-				ty[2] = 2;
-				tx[3] = 2;
-				ty[3] = 2;
-			}
-			for(int i = 0; i < tx.length; i++) {
-				if(piece.big) {
-					tx[i] += ruleopt.pieceOffsetX[piece.id][piece.direction] * 2;
-					ty[i] += ruleopt.pieceOffsetY[piece.id][piece.direction] * 2;
-				} else {
-					tx[i] += ruleopt.pieceOffsetX[piece.id][piece.direction];
-					ty[i] += ruleopt.pieceOffsetY[piece.id][piece.direction];
-				}
-			}
-
-			// Check the corner of the T piece
-			int count = 0;
-
-			for(int i = 0; i < tx.length; i++) {
-				if(fld.getBlockColor(x + tx[i], y + ty[i]) != Block.BLOCK_COLOR_NONE) count++;
+			// Check the corner of the T piece (4-point)
+			int offsetX = ruleopt.pieceOffsetX[piece.id][piece.direction];
+			int offsetY = ruleopt.pieceOffsetY[piece.id][piece.direction];
+			if(piece.big) {
+				offsetX *= 2;
+				offsetY *= 2;
 			}
 
-			if(count >= 3) tspin = true;
+			if(fld.isTSpinSpot(x + offsetX, y + offsetY, piece.big)) tspin = true;
 		} else if(spinCheckType == SPINTYPE_IMMOBILE) {
 			if( piece.checkCollision(x, y - 1, fld) &&
 					piece.checkCollision(x + 1, y, fld) &&
@@ -1581,19 +1738,41 @@ public class GameEngine {
 	public void saveReplay() {
 		if((owner.replayMode == true) && (owner.replayRerecord == false)) return;
 
-		owner.replayProp.setProperty("version.core", versionMajor + "." + versionMinor);
-		owner.replayProp.setProperty("version.core.major", versionMajor);
-		owner.replayProp.setProperty("version.core.minor", versionMinor);
+		writeReplayHeader(owner.replayProp);
 
-		owner.replayProp.setProperty(playerID + ".replay.randSeed", Long.toString(randSeed, 16));
+		// Inputs dropped from memory while the replay journal was written are read back from it
+		if((replayData.getDiscardedLength() > 0) && (owner.replayWriter != null)) {
+			try {
+				replayData = owner.replayWriter.readReplayData(playerID, replayData);
+			} catch (IOException e) {
+				log.error("Failed to read the inputs back from the replay journal", e);
+			}
+		}
 
 		replayData.writeProperty(owner.replayProp, playerID, replayTimer);
 		statistics.writeProperty(owner.replayProp, playerID);
-		ruleopt.writeProperty(owner.replayProp, playerID);
+
+		if(owner.mode != null) owner.mode.saveReplay(this, playerID, owner.replayProp);
+	}
+
+	/**
+	 * Write the replay header: version, random seed, rule, tuning, mode name and timestamp
+	 * (everything saveReplay writes except the inputs, statistics and the mode's own data)
+	 * @param prop Replay properties to write to
+	 */
+	public void writeReplayHeader(CustomProperties prop) {
+		prop.setProperty("version.core", versionMajor + "." + versionMinor);
+		prop.setProperty("version.core.major", versionMajor);
+		prop.setProperty("version.core.minor", versionMinor);
+
+		prop.setProperty(playerID + ".replay.randSeed", Long.toString(randSeed, 16));
+		prop.setProperty(playerID + ".replay.nextPieceStreaming", nextPieceStreaming);
+
+		ruleopt.writeProperty(prop, playerID);
 
 		if(playerID == 0) {
-			if(owner.mode != null) owner.replayProp.setProperty("name.mode", owner.mode.getName());
-			if(ruleopt.strRuleName != null) owner.replayProp.setProperty("name.rule", ruleopt.strRuleName);
+			if(owner.mode != null) prop.setProperty("name.mode", owner.mode.getName());
+			if(ruleopt.strRuleName != null) prop.setProperty("name.rule", ruleopt.strRuleName);
 
 			// Local timestamp
 			Calendar currentTime = Calendar.getInstance();
@@ -1601,22 +1780,46 @@ public class GameEngine {
 			String strDate = String.format("%04d/%02d/%02d", currentTime.get(Calendar.YEAR), month, currentTime.get(Calendar.DATE));
 			String strTime = String.format("%02d:%02d:%02d",
 											currentTime.get(Calendar.HOUR_OF_DAY), currentTime.get(Calendar.MINUTE), currentTime.get(Calendar.SECOND));
-			owner.replayProp.setProperty("timestamp.date", strDate);
-			owner.replayProp.setProperty("timestamp.time", strTime);
+			prop.setProperty("timestamp.date", strDate);
+			prop.setProperty("timestamp.time", strTime);
 
 			// GMT timestamp
-			owner.replayProp.setProperty("timestamp.gmt", GeneralUtil.exportCalendarString());
+			prop.setProperty("timestamp.gmt", GeneralUtil.exportCalendarString());
 		}
 
-		owner.replayProp.setProperty(playerID + ".tuning.owRotateButtonDefaultRight", owRotateButtonDefaultRight);
-		owner.replayProp.setProperty(playerID + ".tuning.owSkin", owSkin);
-		owner.replayProp.setProperty(playerID + ".tuning.owMinDAS", owMinDAS);
-		owner.replayProp.setProperty(playerID + ".tuning.owMaxDAS", owMaxDAS);
-		owner.replayProp.setProperty(playerID + ".tuning.owDasDelay", owDasDelay);
-		owner.replayProp.setProperty(playerID + ".tuning.owReverseUpDown", owReverseUpDown);
-		owner.replayProp.setProperty(playerID + ".tuning.owMoveDiagonal", owMoveDiagonal);
+		prop.setProperty(playerID + ".tuning.owRotateButtonDefaultRight", owRotateButtonDefaultRight);
+		prop.setProperty(playerID + ".tuning.owSkin", owSkin);
+		prop.setProperty(playerID + ".tuning.owMinDAS", owMinDAS);
+		prop.setProperty(playerID + ".tuning.owMaxDAS", owMaxDAS);
+		prop.setProperty(playerID + ".tuning.owDasDelay", owDasDelay);
+		prop.setProperty(playerID + ".tuning.owReverseUpDown", owReverseUpDown);
+		prop.setProperty(playerID + ".tuning.owMoveDiagonal", owMoveDiagonal);
+	}
 
-		if(owner.mode != null) owner.mode.saveReplay(this, playerID, owner.replayProp);
+	/**
+	 * Write the mode settings needed to play back a replay (never writes results or updates rankings)
+	 * @param prop Replay properties to write to
+	 */
+	public void writeReplaySetting(CustomProperties prop) {
+		if(owner.mode instanceof ReplaySettingMode) {
+			((ReplaySettingMode)owner.mode).saveReplaySetting(this, playerID, prop);
+		} else if((playerID == 0) && (owner.modeConfig != null)) {
+			// Modes load their settings from the replay with the same keys as from the mode config
+			prop.putAll(owner.modeConfig);
+		}
+	}
+
+	/**
+	 * Start writing the replay journal (if the receiver makes a writer)
+	 */
+	protected void startReplayStream() {
+		if(owner.replayWriter == null) owner.replayWriter = owner.receiver.createReplayWriter(owner);
+		if(owner.replayWriter == null) return;
+
+		CustomProperties prop = new CustomProperties();
+		writeReplaySetting(prop);
+		writeReplayHeader(prop);
+		owner.replayWriter.writeProperties(prop);
 	}
 
 	/**
@@ -1682,6 +1885,17 @@ public class GameEngine {
 
 				//  input 状態をリプレイに記録
 				replayData.setInputData(ctrl.getButtonBit(), replayTimer);
+
+				// Replay journal (checkpoints hold the state after replayTimer frames)
+				if(owner.replayWriter != null) {
+					if((replayTimer > 0) && (replayTimer % ReplayStreamWriter.CHECKPOINT_INTERVAL == 0)) {
+						owner.replayWriter.checkpoint(playerID, replayTimer, statistics, field);
+
+						// Inputs that are surely in the journal don't have to stay in memory
+						replayData.discardBefore(owner.replayWriter.getSyncedFrame(playerID));
+					}
+					owner.replayWriter.addInput(playerID, ctrl.getButtonBit());
+				}
 			} else {
 				//  input 状態をリプレイから読み込み
 				ctrl.setButtonBit(replayData.getInputData(replayTimer));
@@ -1877,7 +2091,7 @@ public class GameEngine {
 			createFieldIfNeeded();
 
 			// NEXTピース作成
-			if(nextPieceArrayID == null) {
+			if((nextPieceArrayID == null) && (nextPieceQueueID == null)) {
 				// 出現可能なピースが1つもない場合は全て出現できるようにする
 				boolean allDisable = true;
 				for(int i = 0; i < nextPieceEnable.length; i++) {
@@ -1896,39 +2110,36 @@ public class GameEngine {
 				} else {
 					randomizer.setState(nextPieceEnable, randSeed);
 				}
-				nextPieceArrayID = new int[nextPieceArraySize];
-				for (int i = 0; i < nextPieceArraySize; i++) {
-					nextPieceArrayID[i] = randomizer.next();
+
+				if(nextPieceStreaming) {
+					// Only the displayed pieces and a few more are made here; the rest are made when needed
+					if (randomBlockColor && (blockColors.length < numColors || numColors < 1))
+						numColors = blockColors.length;
+					nextPieceRandom = new Random(randSeed + 1);
+					int size = 1;
+					while(size < ruleopt.nextDisplay + 1 + NEXT_PIECE_LOOKAHEAD) size <<= 1;
+					resizeNextPieceQueue(size);
+					fillNextPieceQueue(nextPieceCount + ruleopt.nextDisplay + NEXT_PIECE_LOOKAHEAD);
+				} else {
+					nextPieceArrayID = new int[nextPieceArraySize];
+					for (int i = 0; i < nextPieceArraySize; i++) {
+						nextPieceArrayID[i] = randomizer.next();
+					}
 				}
 			}
 			// NEXTピースのオブジェクトを作成
-			if(nextPieceArrayObject == null) {
+			if((nextPieceArrayObject == null) && (nextPieceArrayID != null)) {
 				nextPieceArrayObject = new Piece[nextPieceArrayID.length];
 
 				for(int i = 0; i < nextPieceArrayObject.length; i++) {
-					nextPieceArrayObject[i] = new Piece(nextPieceArrayID[i]);
-					nextPieceArrayObject[i].direction = ruleopt.pieceDefaultDirection[nextPieceArrayObject[i].id];
-					if(nextPieceArrayObject[i].direction >= Piece.DIRECTION_COUNT) {
-						nextPieceArrayObject[i].direction = random.nextInt(Piece.DIRECTION_COUNT);
-					}
-					nextPieceArrayObject[i].connectBlocks = this.connectBlocks;
-					nextPieceArrayObject[i].setColor(ruleopt.pieceColor[nextPieceArrayObject[i].id]);
-					nextPieceArrayObject[i].setSkin(getSkin());
-					nextPieceArrayObject[i].updateConnectData();
-					nextPieceArrayObject[i].setAttribute(Block.BLOCK_ATTRIBUTE_VISIBLE, true);
-					nextPieceArrayObject[i].setAttribute(Block.BLOCK_ATTRIBUTE_BONE, bone);
+					nextPieceArrayObject[i] = createNextPieceObject(nextPieceArrayID[i], random, null);
 				}
 				if (randomBlockColor)
 				{
 					if (blockColors.length < numColors || numColors < 1)
 						numColors = blockColors.length;
 					for(int i = 0; i < nextPieceArrayObject.length; i++) {
-						int size = nextPieceArrayObject[i].getMaxBlock();
-						int[] colors = new int[size];
-						for (int j = 0; j < size; j++)
-							colors[j] = blockColors[random.nextInt(numColors)];
-						nextPieceArrayObject[i].setColor(colors);
-						nextPieceArrayObject[i].updateConnectData();
+						setNextPieceRandomColor(nextPieceArrayObject[i], random);
 					}
 				}
 			}
@@ -1940,6 +2151,8 @@ public class GameEngine {
 				gameActive = true;
 				gameStarted = true;
 				isInGame = true;
+
+				if(!owner.replayMode) startReplayStream();
 			}
 		}
 
@@ -1952,7 +2165,7 @@ public class GameEngine {
 		// NEXTスキップ
 		if((statc[0] > 0) && (statc[0] < goEnd) && (holdButtonNextSkip) && (isHoldOK()) && (ctrl.isPush(Controller.BUTTON_D))) {
 			playSE("initialhold");
-			holdPieceObject = getNextObjectCopy(nextPieceCount);
+			holdPieceObject = getNextObjectPooled(nextPieceCount);
 			holdPieceObject.applyOffsetArray(ruleopt.pieceOffsetX[holdPieceObject.id], ruleopt.pieceOffsetY[holdPieceObject.id]);
 			nextPieceCount++;
 			if(nextPieceCount < 0) nextPieceCount = 0;
@@ -2005,7 +2218,7 @@ public class GameEngine {
 		if(statc[0] == 0) {
 			if((statc[1] == 0) && (initialHoldFlag == false)) {
 				// 通常出現
-				nowPieceObject = getNextObjectCopy(nextPieceCount);
+				nowPieceObject = getNextObjectPooled(nextPieceCount);
 				nextPieceCount++;
 				if(nextPieceCount < 0) nextPieceCount = 0;
 				holdDisable = false;
@@ -2015,20 +2228,20 @@ public class GameEngine {
 					// 先行ホールド
 					if(holdPieceObject == null) {
 						// 1回目
-						holdPieceObject = getNextObjectCopy(nextPieceCount);
+						holdPieceObject = getNextObjectPooled(nextPieceCount);
 						holdPieceObject.applyOffsetArray(ruleopt.pieceOffsetX[holdPieceObject.id], ruleopt.pieceOffsetY[holdPieceObject.id]);
 						nextPieceCount++;
 						if(nextPieceCount < 0) nextPieceCount = 0;
 
 						if(bone == true) getNextObject(nextPieceCount + ruleopt.nextDisplay - 1).setAttribute(Block.BLOCK_ATTRIBUTE_BONE, true);
 
-						nowPieceObject = getNextObjectCopy(nextPieceCount);
+						nowPieceObject = getNextObjectPooled(nextPieceCount);
 						nextPieceCount++;
 						if(nextPieceCount < 0) nextPieceCount = 0;
 					} else {
 						// 2回目以降
 						Piece pieceTemp = holdPieceObject;
-						holdPieceObject = getNextObjectCopy(nextPieceCount);
+						holdPieceObject = getNextObjectPooled(nextPieceCount);
 						holdPieceObject.applyOffsetArray(ruleopt.pieceOffsetX[holdPieceObject.id], ruleopt.pieceOffsetY[holdPieceObject.id]);
 						nowPieceObject = pieceTemp;
 						nextPieceCount++;
@@ -2040,7 +2253,7 @@ public class GameEngine {
 						// 1回目
 						nowPieceObject.big = false;
 						holdPieceObject = nowPieceObject;
-						nowPieceObject = getNextObjectCopy(nextPieceCount);
+						nowPieceObject = getNextObjectPooled(nextPieceCount);
 						nextPieceCount++;
 						if(nextPieceCount < 0) nextPieceCount = 0;
 					} else {
@@ -2632,8 +2845,8 @@ public class GameEngine {
 						// 画面外に置いて死亡
 						stat = STAT_GAMEOVER;
 						if((ending == 2) && (staffrollNoDeath)) stat = STAT_NOTHING;
-					} else if ((lineGravityType == LINE_GRAVITY_CASCADE || lineGravityType == LINE_GRAVITY_CASCADE_SLOW)
-							&& !connectBlocks) {
+					} else if ((lineGravityType == LINE_GRAVITY_CASCADE || lineGravityType == LINE_GRAVITY_CASCADE_SLOW ||
+							lineGravityType == LINE_GRAVITY_CASCADE_INSTANT) && !connectBlocks) {
 						stat = STAT_LINECLEAR;
 						statc[0] = getLineDelay();
 						statLineClear();
@@ -2890,7 +3103,8 @@ public class GameEngine {
 		// Next ステータス
 		if(statc[0] >= getLineDelay()) {
 			// Cascade
-			if((lineGravityType == LINE_GRAVITY_CASCADE || lineGravityType == LINE_GRAVITY_CASCADE_SLOW)) {
+			if((lineGravityType == LINE_GRAVITY_CASCADE || lineGravityType == LINE_GRAVITY_CASCADE_SLOW ||
+				lineGravityType == LINE_GRAVITY_CASCADE_INSTANT)) {
 				if (statc[6] < getCascadeDelay()) {
 					statc[6]++;
 					return;
@@ -3147,7 +3361,7 @@ public class GameEngine {
 
 						if(blk != null) {
 							if(!blk.getAttribute(Block.BLOCK_ATTRIBUTE_GARBAGE)) {
-								blk.color = Block.BLOCK_COLOR_GRAY;
+								field.setBlockColor(i, field.getHeight() - statc[0], Block.BLOCK_COLOR_GRAY);
 								blk.setAttribute(Block.BLOCK_ATTRIBUTE_GARBAGE, true);
 							}
 							blk.darkness = 0.3f;
@@ -33,6 +33,7 @@ import mu.nu.nullpo.game.component.BackgroundStatus;
 import mu.nu.nullpo.game.event.EventReceiver;
 import mu.nu.nullpo.game.subsystem.mode.GameMode;
 import mu.nu.nullpo.util.CustomProperties;
+import mu.nu.nullpo.util.ReplayStreamWriter;
 
 import org.apache.log4j.Logger;
 
@@ -64,6 +65,9 @@ public class GameManager {
 	/** true if replay rerecording */
 	public boolean replayRerecord;
 
+	/** Writes the replay to a journal file while playing (null if not used) */
+	public ReplayStreamWriter replayWriter;
+
 	/** true if display menus only (No game screens) */
 	public boolean menuOnly;
 
@@ -170,6 +174,7 @@ public class GameManager {
 		menuOnly = false;
 		bgmStatus.reset();
 		backgroundStatus.reset();
+		closeReplayWriter();
 		if(!replayMode) replayProp = new CustomProperties();
 		for(int i = 0; i < engine.length; i++) engine[i].init();
 	}
@@ -181,6 +186,7 @@ public class GameManager {
 		log.debug("GameManager shutdown()");
 
 		try {
+			closeReplayWriter();
 			for(int i = 0; i < engine.length; i++) {
 				engine[i].shutdown();
 				engine[i] = null;
@@ -280,5 +286,16 @@ public class GameManager {
 			engine[i].saveReplay();
 		}
 		receiver.saveReplay(this, replayProp);
+		closeReplayWriter();
+	}
+
+	/**
+	 * Close the replay journal and delete it (the game has been saved or abandoned normally)
+	 */
+	public void closeReplayWriter() {
+		if(replayWriter != null) {
+			replayWriter.close(true);
+			replayWriter = null;
+		}
 	}
 }
@@ -0,0 +1,641 @@
+/*
+    Copyright (c) 2010, NullNoname
+    All rights reserved.
+
+    Redistribution and use in source and binary forms, with or without
+    modification, are permitted provided that the following conditions are met:
+
+        * Redistributions of source code must retain the above copyright
+          notice, this list of conditions and the following disclaimer.
+        * Redistributions in binary form must reproduce the above copyright
+          notice, this list of conditions and the following disclaimer in the
+          documentation and/or other materials provided with the distribution.
+        * Neither the name of NullNoname nor the names of its
+          contributors may be used to endorse or promote products derived from
+          this software without specific prior written permission.
+
+    THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+    AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+    IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+    ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+    LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+    CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+    SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+    INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+    CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+    ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+    POSSIBILITY OF SUCH DAMAGE.
+*/
+package mu.nu.nullpo.game.subsystem.ai;
+
+import mu.nu.nullpo.game.component.ActivePiece;
+import mu.nu.nullpo.game.component.Field;
+import mu.nu.nullpo.game.component.Piece;
+import mu.nu.nullpo.game.component.RuleOptions;
+import mu.nu.nullpo.game.component.WallkickResult;
+import mu.nu.nullpo.game.play.GameEngine;
+import mu.nu.nullpo.game.subsystem.wallkick.Wallkick;
+
+/**
+ * ピースが到達できる全ての設置場所を調べるクラス.
+ * GameEngineと同じ横移動, rotation, Wallkick, RuleOptionsの移動・rotation回数制限を使い,
+ * (X-coordinate, Y-coordinate, Direction, 接地中の移動・rotationcount)を入力countの少ない順に探索する.
+ * 同じ位置ではcountがどちらも多い (支配される) ものだけを捨てるので, 制限に引っかかる設置場所も見落とさない.
+ * 同じ形・位置になる設置場所 (O型の全Direction, I・S・Zの上下など) は1つにまとめられる.
+ * <br>
+ * 時間経過は扱わないので, 落下速度が0Gより大きくても空中では好きなだけ動けるものとする.
+ * 落下による移動・rotationcountのリセットはGameEngineと同じく, 接地中の移動・rotationの直後の1段目では行わない.
+ * Soft drop・Hard drop (lockresetFall) によるリセットは扱わないので, 制限が厳しいとその分の設置場所は見つからない.
+ * 上方向Wallkickの回数は数えない (rotateMaxUpwardWallkickが0のときだけ禁止する).
+ */
+public class PlacementSearch {
+	/** 探索範囲でfieldの見えない部分より上に余分に取る行count */
+	protected static final int EXTRA_TOP_ROWS = 4;
+
+	/** Wallkick system (nullならWallkickなし) */
+	public Wallkick wallkick;
+
+	/** Rule settings (nullなら移動・rotation回数の制限なし, Wallkickあり) */
+	public RuleOptions ruleopt;
+
+	/** 1回の横移動で動くcount */
+	public int moveStep;
+
+	/** 左rotationできるならtrue */
+	public boolean rotateLeft;
+
+	/** 右rotationできるならtrue */
+	public boolean rotateRight;
+
+	/** 180度rotationできるならtrue */
+	public boolean rotateDouble;
+
+	/** 20G (常に一番下まで落ちる) ならtrue */
+	public boolean instantGravity;
+
+	/** 見つかった設置場所のcount */
+	protected int placementCount;
+
+	/** 設置場所のX-coordinate */
+	protected int[] placementX;
+
+	/** 設置場所のY-coordinate */
+	protected int[] placementY;
+
+	/** 設置場所のDirection */
+	protected int[] placementRt;
+
+	/** 設置場所までの最小入力count (横移動とrotationのcount, 不明なら-1) */
+	protected int[] placementInputs;
+
+	/** 探索用のピース (Wallkick用) */
+	protected Piece workPiece;
+
+	/** 探索用のピースのhandle (当たり判定用) */
+	protected ActivePiece workHandle = new ActivePiece();
+
+	/** 探索範囲の左端のX-coordinate */
+	protected int originX;
+
+	/** 探索範囲の上端のY-coordinate */
+	protected int originY;
+
+	/** 探索範囲の幅 */
+	protected int areaWidth;
+
+	/** 探索範囲の高さ */
+	protected int areaHeight;
+
+	/** 区別する接地中の横移動countの上限 (制限なしなら0) */
+	protected int capMove;
+
+	/** 区別する接地中のrotationcountの上限 (制限なしか移動と共有なら0) */
+	protected int capRotate;
+
+	/**
+	 * 状態, 直前が接地中の移動・rotationか, 接地中の横移動countごとの, 展開済みのrotationcountの最小値
+	 * ((state * 2 + ground) * (capMove + 1) + moveCount).
+	 * 横移動count以下 (groundが1なら0の分も) をまとめてあるので, 値がrotationcount以下なら支配されている.
+	 */
+	protected int[] frontier;
+
+	/** 記録済みの設置場所 (同じ形のDirectionにまとめた状態のビットマップ) */
+	protected long[] placed;
+
+	/** 探索キュー (両端キュー, 入力なしの落下は先頭に入れる). 中身は状態, ground, 接地中の移動・rotationcountをまとめた番号 */
+	protected int[] queue;
+
+	/** 探索キューの入力count (queueと同じ位置) */
+	protected int[] queueInputs;
+
+	/** キューの先頭 */
+	protected int queueHead;
+
+	/** キューに入っているcount */
+	protected int queueSize;
+
+	/** Directionごとの同じ形になる一番小さいDirection */
+	protected int[] sameShapeRt;
+
+	/** sameShapeRtのDirectionにしたときのX-coordinateのずれ */
+	protected int[] sameShapeX;
+
+	/** sameShapeRtのDirectionにしたときのY-coordinateのずれ */
+	protected int[] sameShapeY;
+
+	/**
+	 * Constructor
+	 */
+	public PlacementSearch() {
+		moveStep = 1;
+		rotateLeft = true;
+		rotateRight = true;
+		rotateDouble = true;
+		instantGravity = false;
+		placementX = new int[64];
+		placementY = new int[64];
+		placementRt = new int[64];
+		placementInputs = new int[64];
+		sameShapeRt = new int[Piece.DIRECTION_COUNT];
+		sameShapeX = new int[Piece.DIRECTION_COUNT];
+		sameShapeY = new int[Piece.DIRECTION_COUNT];
+	}
+
+	/**
+	 * GameEngineの設定 (Wallkick, Rule, Big, 20G, rotation button) を読み込む
+	 * @param engine GameEngine
+	 */
+	public void setup(GameEngine engine) {
+		wallkick = engine.wallkick;
+		ruleopt = engine.ruleopt;
+		moveStep = (engine.big && engine.bigmove) ? 2 : 1;
+		instantGravity = (engine.speed != null) && (engine.speed.gravity < 0);
+
+		// GameEngine.statMoveと同じ読み替え
+		boolean reverse = (ruleopt == null) || ruleopt.rotateButtonAllowReverse;
+		boolean defaultRight = engine.isRotateButtonDefaultRight();
+		rotateLeft = reverse || !defaultRight;
+		rotateRight = reverse || defaultRight;
+		rotateDouble = (ruleopt == null) || ruleopt.rotateButtonAllowDouble;
+	}
+
+	/**
+	 * GameEngineの現在のピースが到達できる設置場所を調べる
+	 * @param engine GameEngine
+	 * @return 見つかった設置場所のcount
+	 */
+	public int search(GameEngine engine) {
+		setup(engine);
+		if(engine.nowPieceObject == null) {
+			placementCount = 0;
+			return 0;
+		}
+		return search(engine.field, engine.nowPieceObject, engine.nowPieceX, engine.nowPieceY);
+	}
+
+	/**
+	 * 指定した位置から到達できる設置場所を全て調べる
+	 * @param fld field
+	 * @param piece ピース (directionが今のDirection, 中身は変更されない)
+	 * @param x X-coordinate
+	 * @param y Y-coordinate
+	 * @return 見つかった設置場所のcount
+	 */
+	public int search(Field fld, Piece piece, int x, int y) {
+		prepare(fld, piece, y);
+		Piece p = workPiece;
+		ActivePiece h = workHandle;
+
+		if(h.checkCollision(x, y, piece.direction, fld)) return 0;
+		int startY = instantGravity ? h.getBottom(x, y, piece.direction, fld) : y;
+		if(!isInsideArea(x, startY)) return 0;
+
+		int limitMove = -1;
+		int limitRotate = -1;
+		boolean shareCount = false;
+		int limitOver = RuleOptions.LOCKRESET_LIMIT_OVER_NORESET;
+		boolean kickEnable = true;
+		boolean allowUpward = true;
+		if(ruleopt != null) {
+			limitMove = ruleopt.lockresetLimitMove;
+			limitRotate = ruleopt.lockresetLimitRotate;
+			shareCount = ruleopt.lockresetLimitShareCount;
+			limitOver = ruleopt.lockresetLimitOver;
+			kickEnable = ruleopt.rotateWallkick;
+			allowUpward = (ruleopt.rotateMaxUpwardWallkick != 0);
+		}
+		if(wallkick == null) kickEnable = false;
+
+		// 制限を超えた後の回数は区別しなくていい
+		capMove = (limitMove < 0) ? 0 : limitMove + 1;
+		capRotate = shareCount ? 0 : ((limitRotate < 0) ? 0 : limitRotate + 1);
+
+		int frontierSize = Piece.DIRECTION_COUNT * areaWidth * areaHeight * 2 * (capMove + 1);
+		if((frontier == null) || (frontier.length < frontierSize)) frontier = new int[frontierSize];
+		for(int i = 0; i < frontierSize; i++) frontier[i] = Integer.MAX_VALUE;
+
+		visit(getState(x, startY, piece.direction), 0, 0, 0, false, false);
+
+		// 落下は先頭, 入力は末尾に入れるので, 取り出す順番の入力countは減らない
+		while(queueSize > 0) {
+			int label = queue[queueHead];
+			int inputs = queueInputs[queueHead];
+			queueHead = (queueHead + 1) % queue.length;
+			queueSize--;
+
+			int rotateCount = label % (capRotate + 1);
+			label /= capRotate + 1;
+			int moveCount = label % (capMove + 1);
+			label /= capMove + 1;
+			boolean ground = (label % 2) != 0;
+			int s = label / 2;
+			if(!expand(s, ground, moveCount, rotateCount)) continue;
+
+			int rt = s / (areaWidth * areaHeight);
+			int sy = (s / areaWidth) % areaHeight + originY;
+			int sx = s % areaWidth + originX;
+
+			boolean onGround = h.checkCollision(sx, sy + 1, rt, fld);
+
+			// GameEngine.isMoveCountExceed/isRotateCountExceedと同じ判定
+			// (Soft drop・Hard dropによるcountのリセットは扱わないので, 実際より先に制限を超えることがある)
+			boolean moveExceed, rotateExceed;
+			if(shareCount) {
+				moveExceed = rotateExceed = (limitMove >= 0) && (moveCount >= limitMove);
+			} else {
+				moveExceed = (limitMove >= 0) && (moveCount >= limitMove);
+				rotateExceed = (limitRotate >= 0) && (rotateCount >= limitRotate);
+			}
+
+			if(onGround) {
+				addPlacement(sx, sy, rt, inputs);
+
+				// 制限を超えると即固定
+				if((limitOver == RuleOptions.LOCKRESET_LIMIT_OVER_INSTANT) && (moveExceed || rotateExceed)) continue;
+			}
+
+			// 接地中の移動・rotationは回数に数える (共有する場合はmoveCountだけを使う)
+			int nextMove = Math.min(moveCount + (onGround ? 1 : 0), capMove);
+			int nextRotate = Math.min(rotateCount + (onGround ? 1 : 0), capRotate);
+
+			// 横移動
+			for(int d = -1; d <= 1; d += 2) {
+				int nx = sx + d * moveStep;
+				if(!h.checkCollision(nx, sy, rt, fld)) {
+					int ny = instantGravity ? h.getBottom(nx, sy, rt, fld) : sy;
+					if(isInsideArea(nx, ny)) {
+						visitMoved(nx, sy, ny, rt, inputs + 1, nextMove, rotateCount, onGround);
+					}
+				}
+			}
+
+			// rotation
+			for(int move = -1; move <= 2; move++) {
+				if((move == 0) || ((move == -1) && !rotateLeft) || ((move == 1) && !rotateRight) || ((move == 2) && !rotateDouble))
+					continue;
+
+				int rt2 = (rt + move + Piece.DIRECTION_COUNT) % Piece.DIRECTION_COUNT;
+				int nx = sx;
+				int ny = sy;
+
+				if(h.checkCollision(sx, sy, rt2, fld)) {
+					if(!kickEnable || ((limitOver == RuleOptions.LOCKRESET_LIMIT_OVER_NOWALLKICK) && rotateExceed)) continue;
+
+					p.direction = rt;
+					WallkickResult kick = wallkick.executeWallkick(sx, sy, move, rt, rt2, allowUpward, p, fld, null);
+					if(kick == null) continue;
+
+					nx += kick.offsetX;
+					ny += kick.offsetY;
+					rt2 = kick.direction;
+				}
+
+				int bottom = instantGravity ? h.getBottom(nx, ny, rt2, fld) : ny;
+				if(isInsideArea(nx, bottom)) {
+					if(shareCount) visitMoved(nx, ny, bottom, rt2, inputs + 1, nextMove, rotateCount, onGround);
+					else visitMoved(nx, ny, bottom, rt2, inputs + 1, moveCount, nextRotate, onGround);
+				}
+			}
+
+			// 落下 (入力なし). 接地中の移動・rotationの直後でなければcountが0に戻る
+			if(!onGround && !instantGravity && isInsideArea(sx, sy + 1)) {
+				if(ground) visit(getState(sx, sy + 1, rt), inputs, moveCount, rotateCount, false, true);
+				else visit(getState(sx, sy + 1, rt), inputs, 0, 0, false, true);
+			}
+		}
+
+		return placementCount;
+	}
+
+	/**
+	 * 移動なしで真下に落とせる設置場所だけを調べる (Wallkickなし, 全DirectionとX-coordinate).
+	 * 高さyで好きなように移動・rotationできる場合の設置場所になる.
+	 * @param fld field
+	 * @param piece ピース (中身は変更されない)
+	 * @param y 落とし始めるY-coordinate
+	 * @return 見つかった設置場所のcount (入力countは-1になる)
+	 */
+	public int searchDrop(Field fld, Piece piece, int y) {
+		prepare(fld, piece, y);
+		ActivePiece h = workHandle;
+
+		for(int rt = 0; rt < Piece.DIRECTION_COUNT; rt++) {
+			if(sameShapeRt[rt] != rt) continue;
+
+			for(int x = originX; x < originX + areaWidth; x++) {
+				if(!h.checkCollision(x, y, rt, fld)) {
+					int bottom = h.getBottom(x, y, rt, fld);
+					if(isInsideArea(x, bottom)) addPlacement(x, bottom, rt, -1);
+				}
+			}
+		}
+
+		return placementCount;
+	}
+
+	/**
+	 * 見つかった設置場所のcountを取得
+	 * @return 設置場所のcount
+	 */
+	public int getPlacementCount() {
+		return placementCount;
+	}
+
+	/**
+	 * 設置場所のX-coordinateを取得
+	 * @param i 番号
+	 * @return X-coordinate
+	 */
+	public int getX(int i) {
+		return placementX[i];
+	}
+
+	/**
+	 * 設置場所のY-coordinateを取得
+	 * @param i 番号
+	 * @return Y-coordinate
+	 */
+	public int getY(int i) {
+		return placementY[i];
+	}
+
+	/**
+	 * 設置場所のDirectionを取得
+	 * @param i 番号
+	 * @return Direction
+	 */
+	public int getRt(int i) {
+		return placementRt[i];
+	}
+
+	/**
+	 * 設置場所までの最小入力count (横移動とrotationのcount) を取得
+	 * @param i 番号
+	 * @return 入力count (searchDropで見つけた場合は-1)
+	 */
+	public int getInputCount(int i) {
+		return placementInputs[i];
+	}
+
+	/**
+	 * 探索の準備 (探索範囲, 作業領域, 同じ形のDirectionを決める)
+	 * @param fld field
+	 * @param piece ピース
+	 * @param y 開始Y-coordinate
+	 */
+	protected void prepare(Field fld, Piece piece, int y) {
+		if(workPiece == null) workPiece = new Piece(piece);
+		else workPiece.copy(piece);
+		workHandle.set(workPiece, 0, 0);
+
+		int size = piece.big ? 2 : 1;
+		int maxBlock = piece.getMaxBlock();
+		int[] rtMinX = new int[Piece.DIRECTION_COUNT];
+		int[] rtMinY = new int[Piece.DIRECTION_COUNT];
+		int left = 0, right = 0, top = 0, bottom = 0;
+
+		for(int rt = 0; rt < Piece.DIRECTION_COUNT; rt++) {
+			int minX = 0, maxX = 0, minY = 0, maxY = 0;
+			for(int i = 0; i < maxBlock; i++) {
+				int bx = piece.getDataX(rt, i) * size;
+				int by = piece.getDataY(rt, i) * size;
+				if((i == 0) || (bx < minX)) minX = bx;
+				if((i == 0) || (by < minY)) minY = by;
+				if((i == 0) || (bx + size - 1 > maxX)) maxX = bx + size - 1;
+				if((i == 0) || (by + size - 1 > maxY)) maxY = by + size - 1;
+			}
+			rtMinX[rt] = minX;
+			rtMinY[rt] = minY;
+
+			// ピースの全てのBlockがfieldの左右の壁の内側に入る範囲 (全Directionの分を合わせる)
+			int l = -minX;
+			int r = fld.getWidth() - 1 - maxX;
+			int t = (fld.getHiddenHeight() * -1) - maxY;
+			int b = fld.getHeight() - 1 - minY;
+			if((rt == 0) || (l < left)) left = l;
+			if((rt == 0) || (r > right)) right = r;
+			if((rt == 0) || (t < top)) top = t;
+			if((rt == 0) || (b > bottom)) bottom = b;
+		}
+
+		originX = left;
+		areaWidth = Math.max(right - left + 1, 0);
+		originY = Math.min(y, top) - EXTRA_TOP_ROWS;
+		areaHeight = Math.max(bottom - originY + 1, 0);
+
+		int states = Piece.DIRECTION_COUNT * areaWidth * areaHeight;
+		if((placed == null) || (placed.length < (states + 63) / 64)) {
+			placed = new long[(states + 63) / 64];
+			queue = new int[Math.max(states, 16)];
+			queueInputs = new int[queue.length];
+		}
+		for(int i = 0; i < placed.length; i++) placed[i] = 0;
+		queueHead = 0;
+		queueSize = 0;
+		placementCount = 0;
+
+		// 同じ形になるDirection
+		for(int rt = 0; rt < Piece.DIRECTION_COUNT; rt++) {
+			sameShapeRt[rt] = rt;
+			sameShapeX[rt] = 0;
+			sameShapeY[rt] = 0;
+
+			for(int rt2 = 0; rt2 < rt; rt2++) {
+				if(isSameShape(piece, rt, rtMinX[rt] / size, rtMinY[rt] / size, rt2, rtMinX[rt2] / size, rtMinY[rt2] / size)) {
+					sameShapeRt[rt] = rt2;
+					sameShapeX[rt] = rtMinX[rt] - rtMinX[rt2];
+					sameShapeY[rt] = rtMinY[rt] - rtMinY[rt2];
+					break;
+				}
+			}
+		}
+	}
+
+	/**
+	 * 2つのDirectionのBlockの並びが平行移動で重なるか調べる
+	 * @param piece ピース
+	 * @param rt1 Direction 1
+	 * @param minX1 Direction 1の一番左の相対X位置
+	 * @param minY1 Direction 1の一番上の相対Y位置
+	 * @param rt2 Direction 2
+	 * @param minX2 Direction 2の一番左の相対X位置
+	 * @param minY2 Direction 2の一番上の相対Y位置
+	 * @return 重なるならtrue
+	 */
+	protected static boolean isSameShape(Piece piece, int rt1, int minX1, int minY1, int rt2, int minX2, int minY2) {
+		int maxBlock = piece.getMaxBlock();
+
+		for(int i = 0; i < maxBlock; i++) {
+			boolean found = false;
+			for(int j = 0; j < maxBlock; j++) {
+				if((piece.getDataX(rt1, i) - minX1 == piece.getDataX(rt2, j) - minX2) &&
+				   (piece.getDataY(rt1, i) - minY1 == piece.getDataY(rt2, j) - minY2)) {
+					found = true;
+					break;
+				}
+			}
+			if(!found) return false;
+		}
+
+		return true;
+	}
+
+	/**
+	 * 座標が探索範囲内かどうか
+	 * @param x X-coordinate
+	 * @param y Y-coordinate
+	 * @return 範囲内ならtrue
+	 */
+	protected boolean isInsideArea(int x, int y) {
+		return (x >= originX) && (x < originX + areaWidth) && (y >= originY) && (y < originY + areaHeight);
+	}
+
+	/**
+	 * 状態の番号を取得
+	 * @param x X-coordinate
+	 * @param y Y-coordinate
+	 * @param rt Direction
+	 * @return 状態の番号
+	 */
+	protected int getState(int x, int y, int rt) {
+		return (rt * areaHeight + (y - originY)) * areaWidth + (x - originX);
+	}
+
+	/**
+	 * 横移動・rotationした後の状態をキューに入れる.
+	 * 20Gで落ちた場合はGameEngineと同じく, 接地中の移動・rotationの直後なら1段目ではcountを0に戻さない.
+	 * @param x X-coordinate
+	 * @param y 移動・rotation直後のY-coordinate
+	 * @param bottom 落ちた後のY-coordinate (20Gでなければyと同じ)
+	 * @param rt Direction
+	 * @param inputs 入力count
+	 * @param moveCount 接地中の横移動count
+	 * @param rotateCount 接地中のrotationcount
+	 * @param onGround 接地中の移動・rotationならtrue
+	 */
+	protected void visitMoved(int x, int y, int bottom, int rt, int inputs, int moveCount, int rotateCount, boolean onGround) {
+		if((bottom - y >= 2) || ((bottom - y == 1) && !onGround)) {
+			moveCount = 0;
+			rotateCount = 0;
+		}
+		visit(getState(x, bottom, rt), inputs, moveCount, rotateCount, onGround && (bottom == y), false);
+	}
+
+	/**
+	 * 状態をキューに入れる (同じ位置で移動・rotationcountがどちらも以下のものを展開済みなら何もしない)
+	 * @param s 状態の番号
+	 * @param inputs 入力count
+	 * @param moveCount 接地中の横移動count
+	 * @param rotateCount 接地中のrotationcount
+	 * @param ground 直前が接地中の移動・rotationならtrue (次の落下でcountが0に戻らない)
+	 * @param front trueならキューの先頭に入れる
+	 */
+	protected void visit(int s, int inputs, int moveCount, int rotateCount, boolean ground, boolean front) {
+		int base = (s * 2 + (ground ? 1 : 0)) * (capMove + 1);
+		if(frontier[base + moveCount] <= rotateCount) return;
+
+		if(queueSize >= queue.length) {
+			int[] newQueue = new int[queue.length * 2];
+			int[] newInputs = new int[newQueue.length];
+			for(int i = 0; i < queueSize; i++) {
+				newQueue[i] = queue[(queueHead + i) % queue.length];
+				newInputs[i] = queueInputs[(queueHead + i) % queue.length];
+			}
+			queue = newQueue;
+			queueInputs = newInputs;
+			queueHead = 0;
+		}
+
+		int i;
+		if(front) {
+			queueHead = (queueHead - 1 + queue.length) % queue.length;
+			i = queueHead;
+		} else {
+			i = (queueHead + queueSize) % queue.length;
+		}
+		queue[i] = (base + moveCount) * (capRotate + 1) + rotateCount;
+		queueInputs[i] = inputs;
+		queueSize++;
+	}
+
+	/**
+	 * キューから取り出した状態を展開済みにする.
+	 * 入力countの少ない順に取り出すので, 展開済みのものに支配されていなければ新しいPareto frontierの一部になる.
+	 * groundがfalseの方が次の落下でcountが0に戻る分だけ良いので, groundがfalseのものはtrueのものも支配する.
+	 * @param s 状態の番号
+	 * @param ground 直前が接地中の移動・rotationならtrue
+	 * @param moveCount 接地中の横移動count
+	 * @param rotateCount 接地中のrotationcount
+	 * @return 展開するならtrue, 支配されているならfalse
+	 */
+	protected boolean expand(int s, boolean ground, int moveCount, int rotateCount) {
+		int base = (s * 2 + (ground ? 1 : 0)) * (capMove + 1);
+		if(frontier[base + moveCount] <= rotateCount) return false;
+
+		for(int g = (ground ? 1 : 0); g < 2; g++) {
+			base = (s * 2 + g) * (capMove + 1);
+			for(int m = moveCount; (m <= capMove) && (frontier[base + m] > rotateCount); m++) {
+				frontier[base + m] = rotateCount;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * 設置場所を記録 (同じ形・位置のものが記録済みなら何もしない)
+	 * @param x X-coordinate
+	 * @param y Y-coordinate
+	 * @param rt Direction
+	 * @param inputs 入力count
+	 */
+	protected void addPlacement(int x, int y, int rt, int inputs) {
+		int s = getState(x, y, rt);
+		if(isInsideArea(x + sameShapeX[rt], y + sameShapeY[rt])) {
+			s = getState(x + sameShapeX[rt], y + sameShapeY[rt], sameShapeRt[rt]);
+		}
+		if((placed[s >> 6] & (1L << s)) != 0) return;
+		placed[s >> 6] |= (1L << s);
+
+		if(placementCount >= placementX.length) {
+			int length = placementX.length * 2;
+			int[] newX = new int[length];
+			int[] newY = new int[length];
+			int[] newRt = new int[length];
+			int[] newInputs = new int[length];
+			System.arraycopy(placementX, 0, newX, 0, placementCount);
+			System.arraycopy(placementY, 0, newY, 0, placementCount);
+			System.arraycopy(placementRt, 0, newRt, 0, placementCount);
+			System.arraycopy(placementInputs, 0, newInputs, 0, placementCount);
+			placementX = newX;
+			placementY = newY;
+			placementRt = newRt;
+			placementInputs = newInputs;
+		}
+
+		placementX[placementCount] = x;
+		placementY[placementCount] = y;
+		placementRt[placementCount] = rt;
+		placementInputs[placementCount] = inputs;
+		placementCount++;
+	}
+}
@@ -42,7 +42,7 @@ import mu.nu.nullpo.util.GeneralUtil;
 /**
  * CHALLENGER Mode
  */
-public class ChallengerMode extends DummyMode {
+public class ChallengerMode extends DummyMode implements ReplaySettingMode {
 	/** Current version */
 	private static final int CURRENT_VERSION = 3;
 	
@@ -2528,6 +2528,15 @@ public class ChallengerMode extends DummyMode {
 		return false;
 	}
 
+	/*
+	 * Save the settings for the replay journal
+	 */
+	public void saveReplaySetting(GameEngine engine, int playerID, CustomProperties prop) {
+		saveSetting(prop, engine.ruleopt.strRuleName);
+		prop.setProperty("challenger.version", version);
+		prop.setProperty("challenger.aitype", AIused);
+	}
+
 	@Override
 	public void saveReplay(GameEngine engine, int playerID, CustomProperties prop) {
 		saveSetting(owner.replayProp, engine.ruleopt.strRuleName);
@@ -37,35 +37,81 @@ import mu.nu.nullpo.util.GeneralUtil;
  * 7 piece bag randomizer
  * @deprecated No longer used. The current one is net.omegaboshi.nullpomino.game.subsystem.randomizer.BagRandomizer.
  */
-public class BagRandomizer implements Randomizer {
+public class BagRandomizer implements Randomizer, BatchRandomizer {
+	/** Bitmask of pieces which can appear */
+	private int enableMask;
+
+	/** Number of piece types in a bag */
+	private int pieceKind;
+
+	/** Bitmask of pieces which have already appeared in the current bag */
+	private int alreadyAppeared;
+
+	/** Number of pieces left in the current bag */
+	private int bagLeft;
+
 	/*
 	 * Create NEXT sequence
 	 */
 	public int[] createPieceSequence(boolean[] pieceEnable, Random random, int arrayMax) {
 		int[] pieceArray = new int[arrayMax];
-		int pieceKind = GeneralUtil.getNumberOfPiecesCanAppear(pieceEnable);
+		startPieceSequence(pieceEnable);
+		// Only whole bags are made (the rest is left as 0)
+		fillPieceSequence(pieceArray, 0, arrayMax - (arrayMax % pieceKind), random);
+		return pieceArray;
+	}
 
-		for(int i = 0; i < arrayMax / pieceKind; i++) {
-			// Flags for pieces which have already appeared
-			boolean[] alreadyAppeared = new boolean[Piece.PIECE_COUNT];
+	/*
+	 * Start a new piece sequence
+	 */
+	public void startPieceSequence(boolean[] pieceEnable) {
+		enableMask = GeneralUtil.getPieceEnableMask(pieceEnable);
+		pieceKind = Integer.bitCount(enableMask);
+		alreadyAppeared = 0;
+		bagLeft = pieceKind;
+	}
+
+	/*
+	 * Make the next pieces
+	 */
+	public void fillPieceSequence(int[] pieceArray, int offset, int length, Random random) {
+		for(int i = offset; i < offset + length; i++) {
+			// Start a new bag
+			if(bagLeft <= 0) {
+				alreadyAppeared = 0;
+				bagLeft = pieceKind;
+			}
 
-			// Create draws
-			for(int j = 0; j < pieceKind; j++) {
-				int id = 0;
+			int id = 0;
 
-				// Draw
-				do {
-					id = random.nextInt(Piece.PIECE_COUNT);
-				} while((pieceEnable[id] == false) || (alreadyAppeared[id] == true));
+			// Draw
+			do {
+				id = random.nextInt(Piece.PIECE_COUNT);
+			} while((enableMask & ~alreadyAppeared & (1 << id)) == 0);
 
-				// Set block drawn flag to ON
-				alreadyAppeared[id] = true;
+			// Set block drawn flag to ON
+			alreadyAppeared |= 1 << id;
+			bagLeft--;
 
-				// Add to NEXT list
-				pieceArray[i * pieceKind + j] = id;
-			}
+			// Add to NEXT list
+			pieceArray[i] = id;
 		}
+	}
 
-		return pieceArray;
+	/*
+	 * Get the state of the current sequence
+	 */
+	public long getSequenceState() {
+		return enableMask | ((long)alreadyAppeared << 16) | ((long)bagLeft << 32);
+	}
+
+	/*
+	 * Restore the state of a sequence
+	 */
+	public void setSequenceState(long state) {
+		enableMask = (int)(state & 0xFFFF);
+		pieceKind = Integer.bitCount(enableMask);
+		alreadyAppeared = (int)((state >>> 16) & 0xFFFF);
+		bagLeft = (int)((state >>> 32) & 0xFF);
 	}
 }
@@ -0,0 +1,66 @@
+/*
+    Copyright (c) 2010, NullNoname
+    All rights reserved.
+
+    Redistribution and use in source and binary forms, with or without
+    modification, are permitted provided that the following conditions are met:
+
+        * Redistributions of source code must retain the above copyright
+          notice, this list of conditions and the following disclaimer.
+        * Redistributions in binary form must reproduce the above copyright
+          notice, this list of conditions and the following disclaimer in the
+          documentation and/or other materials provided with the distribution.
+        * Neither the name of NullNoname nor the names of its
+          contributors may be used to endorse or promote products derived from
+          this software without specific prior written permission.
+
+    THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+    AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+    IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+    ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+    LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+    CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+    SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+    INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+    CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+    ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+    POSSIBILITY OF SUCH DAMAGE.
+*/
+package mu.nu.nullpo.game.subsystem.randomizer;
+
+import java.util.Random;
+
+/**
+ * Piece sequence randomizer that can make its sequence in parts, without allocating anything.
+ * Used by tools that make a lot of sequences (distribution analysis, seed search).
+ * An instance keeps the state of one sequence, so use one instance per thread.
+ * Independent of the deprecated Randomizer interface, which the legacy randomizers still implement too.
+ */
+public interface BatchRandomizer {
+	/**
+	 * Start a new piece sequence.
+	 * @param pieceEnable Piece enable array (When pieceEnable[id] is true the piece can appear)
+	 */
+	public void startPieceSequence(boolean[] pieceEnable);
+
+	/**
+	 * Make the next pieces of the current sequence.
+	 * @param pieceArray Array to fill
+	 * @param offset First index to fill
+	 * @param length Number of pieces to make
+	 * @param random Random number generator
+	 */
+	public void fillPieceSequence(int[] pieceArray, int offset, int length, Random random);
+
+	/**
+	 * Get the state of the current sequence (history, bag contents etc.), not including the random number generator.
+	 * @return State
+	 */
+	public long getSequenceState();
+
+	/**
+	 * Restore the state of a sequence.
+	 * @param state State from getSequenceState
+	 */
+	public void setSequenceState(long state);
+}
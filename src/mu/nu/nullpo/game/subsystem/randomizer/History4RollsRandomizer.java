@@ -37,69 +37,107 @@ import mu.nu.nullpo.util.GeneralUtil;
  * History randomizer (4 rolls)
  * @deprecated No longer used. The current one is net.omegaboshi.nullpomino.game.subsystem.randomizer.History4RollsRandomizer.
  */
-public class History4RollsRandomizer implements Randomizer {
+public class History4RollsRandomizer implements Randomizer, BatchRandomizer {
+	/** Initial history (Z Z Z Z, the newest one is at the lowest 4 bits) */
+	private static final int HISTORY_INIT = Piece.PIECE_Z | (Piece.PIECE_Z << 4) | (Piece.PIECE_Z << 8) | (Piece.PIECE_Z << 12);
+
+	/** Bitmask of pieces which can appear */
+	private int enableMask;
+
+	/** true if enabled piece types are S,Z,O only */
+	private boolean szoOnly;
+
+	/** Last 4 pieces, 4 bits each (the newest one is at the lowest 4 bits) */
+	private int history;
+
+	/** true until the first piece is drawn */
+	private boolean first;
+
 	/*
 	 * Create NEXT sequence
 	 */
 	public int[] createPieceSequence(boolean[] pieceEnable, Random random, int arrayMax) {
 		int[] pieceArray = new int[arrayMax];
-		int history[] = new int[4];
-		int id = 0;
-		boolean szoOnly = GeneralUtil.isPieceSZOOnly(pieceEnable);
-
-		// 履歴をZ Z Z Zで埋める
-		history[0] = Piece.PIECE_Z;
-		history[1] = Piece.PIECE_Z;
-		history[2] = Piece.PIECE_Z;
-		history[3] = Piece.PIECE_Z;
-
-		// 初手生成
-		do {
-			id = random.nextInt(Piece.PIECE_COUNT);
-		} while( (!pieceEnable[id]) || ((!szoOnly) && ((id == Piece.PIECE_Z) || (id == Piece.PIECE_O) || (id == Piece.PIECE_S))) );
-
-		// Add to NEXT list
-		pieceArray[0] = id;
-
-		// 履歴をずらす
-		for(int j = 0; j < 3; j++) {
-			history[3 - j] = history[3 - (j + 1)];
-		}
+		startPieceSequence(pieceEnable);
+		fillPieceSequence(pieceArray, 0, arrayMax, random);
+		return pieceArray;
+	}
 
-		// 履歴に新しいBlockを入れる
-		history[0] = id;
-
-		// Create draws
-		for(int i = 1; i < arrayMax; i++) {
-			// Draw
-			do {
-				id = random.nextInt(Piece.PIECE_COUNT);
-			} while(!pieceEnable[id]);
-
-			// 引いたツモが履歴にあったらMaximum4回引き直し
-			if((id == history[0]) || (id == history[1]) || (id == history[2]) || (id == history[3])) {
-				for(int j = 0; j < 4; j++) {
-					do {
-						id = random.nextInt(Piece.PIECE_COUNT);
-					} while(!pieceEnable[id]);
-
-					// 4つの履歴に無かったらその場で抜ける
-					if((id != history[0]) && (id != history[1]) && (id != history[2]) && (id != history[3])) break;
-				}
-			}
+	/*
+	 * Start a new piece sequence
+	 */
+	public void startPieceSequence(boolean[] pieceEnable) {
+		enableMask = GeneralUtil.getPieceEnableMask(pieceEnable);
+		szoOnly = GeneralUtil.isPieceSZOOnly(pieceEnable);
+		history = HISTORY_INIT;
+		first = true;
+	}
 
-			// 履歴をずらす
-			for(int j = 0; j < 3; j++) {
-				history[3 - j] = history[3 - (j + 1)];
+	/*
+	 * Make the next pieces
+	 */
+	public void fillPieceSequence(int[] pieceArray, int offset, int length, Random random) {
+		for(int i = offset; i < offset + length; i++) {
+			int id = 0;
+
+			if(first) {
+				// 初手生成
+				do {
+					id = random.nextInt(Piece.PIECE_COUNT);
+				} while( ((enableMask & (1 << id)) == 0) || ((!szoOnly) && ((id == Piece.PIECE_Z) || (id == Piece.PIECE_O) || (id == Piece.PIECE_S))) );
+
+				first = false;
+			} else {
+				// Draw
+				do {
+					id = random.nextInt(Piece.PIECE_COUNT);
+				} while((enableMask & (1 << id)) == 0);
+
+				// 引いたツモが履歴にあったらMaximum4回引き直し
+				if(isInHistory(id)) {
+					for(int j = 0; j < 4; j++) {
+						do {
+							id = random.nextInt(Piece.PIECE_COUNT);
+						} while((enableMask & (1 << id)) == 0);
+
+						// 4つの履歴に無かったらその場で抜ける
+						if(!isInHistory(id)) break;
+					}
+				}
 			}
 
-			// 履歴に新しいBlockを入れる
-			history[0] = id;
+			// 履歴をずらして新しいBlockを入れる
+			history = ((history << 4) | id) & 0xFFFF;
 
 			// Add to NEXT list
 			pieceArray[i] = id;
 		}
+	}
 
-		return pieceArray;
+	/*
+	 * Get the state of the current sequence
+	 */
+	public long getSequenceState() {
+		return enableMask | ((long)history << 16) | (first ? (1L << 32) : 0) | (szoOnly ? (1L << 33) : 0);
+	}
+
+	/*
+	 * Restore the state of a sequence
+	 */
+	public void setSequenceState(long state) {
+		enableMask = (int)(state & 0xFFFF);
+		history = (int)((state >>> 16) & 0xFFFF);
+		first = (state & (1L << 32)) != 0;
+		szoOnly = (state & (1L << 33)) != 0;
+	}
+
+	/**
+	 * 履歴にあるかどうか
+	 * @param id Piece ID
+	 * @return true if the piece is one of the last 4 pieces
+	 */
+	private boolean isInHistory(int id) {
+		return ((history & 0xF) == id) || (((history >>> 4) & 0xF) == id) ||
+		       (((history >>> 8) & 0xF) == id) || (((history >>> 12) & 0xF) == id);
 	}
 }
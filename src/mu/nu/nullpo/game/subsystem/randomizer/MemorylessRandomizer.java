@@ -31,28 +31,59 @@ package mu.nu.nullpo.game.subsystem.randomizer;
 import java.util.Random;
 
 import mu.nu.nullpo.game.component.Piece;
+import mu.nu.nullpo.util.GeneralUtil;
 
 /**
  * Memoryless randomizer
  * @deprecated No longer used. The current one is net.omegaboshi.nullpomino.game.subsystem.randomizer.MemorylessRandomizer.
  */
-public class MemorylessRandomizer implements Randomizer {
+public class MemorylessRandomizer implements Randomizer, BatchRandomizer {
+	/** Bitmask of pieces which can appear */
+	private int enableMask;
+
 	/*
 	 * Create NEXT sequence
 	 */
 	public int[] createPieceSequence(boolean[] pieceEnable, Random random, int arrayMax) {
 		int[] pieceArray = new int[arrayMax];
+		startPieceSequence(pieceEnable);
+		fillPieceSequence(pieceArray, 0, arrayMax, random);
+		return pieceArray;
+	}
 
-		for(int i = 0; i < pieceArray.length; i++) {
+	/*
+	 * Start a new piece sequence
+	 */
+	public void startPieceSequence(boolean[] pieceEnable) {
+		enableMask = GeneralUtil.getPieceEnableMask(pieceEnable);
+	}
+
+	/*
+	 * Make the next pieces
+	 */
+	public void fillPieceSequence(int[] pieceArray, int offset, int length, Random random) {
+		for(int i = offset; i < offset + length; i++) {
 			int id = 0;
 
 			do {
 				id = random.nextInt(Piece.PIECE_COUNT);
-			} while(pieceEnable[id] == false);
+			} while((enableMask & (1 << id)) == 0);
 
 			pieceArray[i] = id;
 		}
+	}
 
-		return pieceArray;
+	/*
+	 * Get the state of the current sequence
+	 */
+	public long getSequenceState() {
+		return enableMask;
+	}
+
+	/*
+	 * Restore the state of a sequence
+	 */
+	public void setSequenceState(long state) {
+		enableMask = (int)(state & 0xFFFF);
 	}
 }
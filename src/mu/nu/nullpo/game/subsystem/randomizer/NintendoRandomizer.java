@@ -31,36 +31,71 @@ package mu.nu.nullpo.game.subsystem.randomizer;
 import java.util.Random;
 
 import mu.nu.nullpo.game.component.Piece;
+import mu.nu.nullpo.util.GeneralUtil;
 
 /**
  * Nintendo randomizer
  * @deprecated No longer used. The current one is net.omegaboshi.nullpomino.game.subsystem.randomizer.NintendoRandomizer.
  */
-public class NintendoRandomizer implements Randomizer {
+public class NintendoRandomizer implements Randomizer, BatchRandomizer {
+	/** Bitmask of pieces which can appear */
+	private int enableMask;
+
+	/** Previous piece */
+	private int prev;
+
 	/*
 	 * Create NEXT sequence
 	 */
 	public int[] createPieceSequence(boolean[] pieceEnable, Random random, int arrayMax) {
 		int[] pieceArray = new int[arrayMax];
-		int prev = Piece.PIECE_COUNT;
+		startPieceSequence(pieceEnable);
+		fillPieceSequence(pieceArray, 0, arrayMax, random);
+		return pieceArray;
+	}
 
-		for(int i = 0; i < pieceArray.length; i++) {
+	/*
+	 * Start a new piece sequence
+	 */
+	public void startPieceSequence(boolean[] pieceEnable) {
+		enableMask = GeneralUtil.getPieceEnableMask(pieceEnable) | (1 << Piece.PIECE_COUNT);
+		prev = Piece.PIECE_COUNT;
+	}
+
+	/*
+	 * Make the next pieces
+	 */
+	public void fillPieceSequence(int[] pieceArray, int offset, int length, Random random) {
+		for(int i = offset; i < offset + length; i++) {
 			int id = 0;
 
 			do {
 				id = random.nextInt(Piece.PIECE_COUNT+1);
-			} while(id != Piece.PIECE_COUNT && pieceEnable[id] == false);
+			} while((enableMask & (1 << id)) == 0);
 
 			if (id == prev || id == Piece.PIECE_COUNT) {
 				do {
 					id = random.nextInt(Piece.PIECE_COUNT);
-				} while(pieceEnable[id] == false);
+				} while((enableMask & (1 << id)) == 0);
 			}
 
 			pieceArray[i] = id;
 			prev = id;
 		}
+	}
 
-		return pieceArray;
+	/*
+	 * Get the state of the current sequence
+	 */
+	public long getSequenceState() {
+		return enableMask | ((long)prev << 16);
+	}
+
+	/*
+	 * Restore the state of a sequence
+	 */
+	public void setSequenceState(long state) {
+		enableMask = (int)(state & 0xFFFF);
+		prev = (int)((state >>> 16) & 0xFF);
 	}
 }
@@ -0,0 +1,246 @@
+/*
+    Copyright (c) 2010, NullNoname
+    All rights reserved.
+
+    Redistribution and use in source and binary forms, with or without
+    modification, are permitted provided that the following conditions are met:
+
+        * Redistributions of source code must retain the above copyright
+          notice, this list of conditions and the following disclaimer.
+        * Redistributions in binary form must reproduce the above copyright
+          notice, this list of conditions and the following disclaimer in the
+          documentation and/or other materials provided with the distribution.
+        * Neither the name of NullNoname nor the names of its
+          contributors may be used to endorse or promote products derived from
+          this software without specific prior written permission.
+
+    THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+    AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+    IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+    ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+    LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+    CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+    SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+    INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+    CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+    ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+    POSSIBILITY OF SUCH DAMAGE.
+*/
+package mu.nu.nullpo.game.subsystem.randomizer;
+
+/**
+ * Piece sequence that can jump to any piece.
+ * <p>
+ * The state of the randomizer and the random number generator is saved every <code>interval</code> pieces while the sequence is made.
+ * Jumping to piece N restores the last checkpoint before N and makes less than <code>interval</code> pieces.
+ * Checkpoints can be exported and imported, so a replay viewer can jump even to pieces it hasn't made yet.
+ */
+public class SeekablePieceSequence {
+	/** Default number of pieces between checkpoints */
+	public static final int DEFAULT_INTERVAL = 1024;
+
+	/** Randomizer */
+	private BatchRandomizer randomizer;
+
+	/** Random number generator */
+	private SplitRandom random;
+
+	/** Number of pieces between checkpoints */
+	private int interval;
+
+	/** Checkpoints: randomizer state */
+	private long[] cpSequenceState;
+
+	/** Checkpoints: random number generator state */
+	private long[] cpRandomState;
+
+	/** Checkpoints: random number generator gamma */
+	private long[] cpRandomGamma;
+
+	/** Number of checkpoints (checkpoint i is at piece i * interval) */
+	private int cpCount;
+
+	/** Index of the piece made next */
+	private long position;
+
+	/** Buffer for skipped pieces */
+	private int[] skipBuffer;
+
+	/** Buffer for get */
+	private int[] oneBuffer = new int[1];
+
+	/**
+	 * Constructor
+	 * @param randomizer Randomizer
+	 * @param pieceEnable Piece enable array
+	 * @param seed Random seed
+	 */
+	public SeekablePieceSequence(BatchRandomizer randomizer, boolean[] pieceEnable, long seed) {
+		this(randomizer, pieceEnable, seed, DEFAULT_INTERVAL);
+	}
+
+	/**
+	 * Constructor
+	 * @param randomizer Randomizer
+	 * @param pieceEnable Piece enable array
+	 * @param seed Random seed
+	 * @param interval Number of pieces between checkpoints
+	 */
+	public SeekablePieceSequence(BatchRandomizer randomizer, boolean[] pieceEnable, long seed, int interval) {
+		if(interval <= 0) throw new IllegalArgumentException("interval must be positive");
+
+		this.randomizer = randomizer;
+		this.random = new SplitRandom(seed);
+		this.interval = interval;
+
+		cpSequenceState = new long[16];
+		cpRandomState = new long[16];
+		cpRandomGamma = new long[16];
+		cpCount = 0;
+		skipBuffer = new int[interval];
+
+		randomizer.startPieceSequence(pieceEnable);
+		position = 0;
+		addCheckpoint();
+	}
+
+	/**
+	 * Get the index of the piece made next
+	 * @return Position
+	 */
+	public long getPosition() {
+		return position;
+	}
+
+	/**
+	 * Get the number of pieces between checkpoints
+	 * @return Interval
+	 */
+	public int getInterval() {
+		return interval;
+	}
+
+	/**
+	 * Get the number of checkpoints
+	 * @return Number of checkpoints
+	 */
+	public int getCheckpointCount() {
+		return cpCount;
+	}
+
+	/**
+	 * Get a piece
+	 * @param n Index of the piece
+	 * @return Piece ID
+	 */
+	public int get(long n) {
+		seek(n);
+		fill(oneBuffer, 0, 1);
+		return oneBuffer[0];
+	}
+
+	/**
+	 * Jump to a piece
+	 * @param n Index of the piece made next
+	 */
+	public void seek(long n) {
+		if(n < 0) throw new IllegalArgumentException("n must not be negative");
+
+		long cp = Math.min(n / interval, cpCount - 1);
+
+		// Restore the checkpoint unless the current position is closer
+		if((n < position) || (position < cp * interval)) {
+			int i = (int)cp;
+			randomizer.setSequenceState(cpSequenceState[i]);
+			random.setState(cpRandomState[i], cpRandomGamma[i]);
+			position = cp * interval;
+		}
+
+		while(position < n) {
+			int len = (int)Math.min(n - position, interval - (position % interval));
+			fill(skipBuffer, 0, len);
+		}
+	}
+
+	/**
+	 * Make pieces from the current position
+	 * @param pieceArray Array to fill
+	 * @param offset First index to fill
+	 * @param length Number of pieces to make
+	 */
+	public void fill(int[] pieceArray, int offset, int length) {
+		while(length > 0) {
+			// Stop at the next checkpoint
+			int len = (int)Math.min(length, interval - (position % interval));
+			randomizer.fillPieceSequence(pieceArray, offset, len, random);
+			position += len;
+			offset += len;
+			length -= len;
+
+			if((position % interval == 0) && (position / interval == cpCount)) addCheckpoint();
+		}
+	}
+
+	/**
+	 * Export checkpoints (3 longs for each: randomizer state, random state, random gamma)
+	 * @return Checkpoints
+	 */
+	public long[] exportCheckpoints() {
+		long[] result = new long[cpCount * 3];
+		for(int i = 0; i < cpCount; i++) {
+			result[i * 3 + 0] = cpSequenceState[i];
+			result[i * 3 + 1] = cpRandomState[i];
+			result[i * 3 + 2] = cpRandomGamma[i];
+		}
+		return result;
+	}
+
+	/**
+	 * Import checkpoints from exportCheckpoints (the sequence must have been made with the same randomizer, seed and interval)
+	 * @param checkpoints Checkpoints
+	 */
+	public void importCheckpoints(long[] checkpoints) {
+		int count = checkpoints.length / 3;
+		if(count <= cpCount) return;
+
+		ensureCheckpointCapacity(count);
+		for(int i = cpCount; i < count; i++) {
+			cpSequenceState[i] = checkpoints[i * 3 + 0];
+			cpRandomState[i] = checkpoints[i * 3 + 1];
+			cpRandomGamma[i] = checkpoints[i * 3 + 2];
+		}
+		cpCount = count;
+	}
+
+	/**
+	 * Save a checkpoint at the current position
+	 */
+	private void addCheckpoint() {
+		ensureCheckpointCapacity(cpCount + 1);
+		cpSequenceState[cpCount] = randomizer.getSequenceState();
+		cpRandomState[cpCount] = random.getState();
+		cpRandomGamma[cpCount] = random.getGamma();
+		cpCount++;
+	}
+
+	/**
+	 * Grow the checkpoint arrays
+	 * @param size Required size
+	 */
+	private void ensureCheckpointCapacity(int size) {
+		if(size <= cpSequenceState.length) return;
+
+		int newSize = cpSequenceState.length;
+		while(newSize < size) newSize *= 2;
+
+		long[] a = new long[newSize];
+		System.arraycopy(cpSequenceState, 0, a, 0, cpCount);
+		cpSequenceState = a;
+		a = new long[newSize];
+		System.arraycopy(cpRandomState, 0, a, 0, cpCount);
+		cpRandomState = a;
+		a = new long[newSize];
+		System.arraycopy(cpRandomGamma, 0, a, 0, cpCount);
+		cpRandomGamma = a;
+	}
+}
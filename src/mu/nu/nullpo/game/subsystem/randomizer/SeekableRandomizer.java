@@ -0,0 +1,132 @@
+/*
+    Copyright (c) 2010, NullNoname
+    All rights reserved.
+
+    Redistribution and use in source and binary forms, with or without
+    modification, are permitted provided that the following conditions are met:
+
+        * Redistributions of source code must retain the above copyright
+          notice, this list of conditions and the following disclaimer.
+        * Redistributions in binary form must reproduce the above copyright
+          notice, this list of conditions and the following disclaimer in the
+          documentation and/or other materials provided with the distribution.
+        * Neither the name of NullNoname nor the names of its
+          contributors may be used to endorse or promote products derived from
+          this software without specific prior written permission.
+
+    THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+    AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+    IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+    ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+    LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+    CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+    SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+    INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+    CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+    ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+    POSSIBILITY OF SUCH DAMAGE.
+*/
+package mu.nu.nullpo.game.subsystem.randomizer;
+
+/**
+ * Randomizer for GameEngine that makes its pieces with a {@link SeekablePieceSequence}.
+ * <p>
+ * GameEngine's streaming next queue takes its pieces from here one by one like from any other randomizer,
+ * and can also get any piece of the sequence with {@link #getPiece(long)} (e.g. a replay viewer or spectator
+ * jumping ahead, or a piece that has already been dropped from the queue) without making every earlier piece.
+ * The sequence only depends on the BatchRandomizer, the piece enable array and the random seed,
+ * so replays play back the same pieces.
+ */
+public class SeekableRandomizer extends net.omegaboshi.nullpomino.game.subsystem.randomizer.Randomizer {
+	/** Randomizer that makes the pieces */
+	private BatchRandomizer batch;
+
+	/** Number of pieces between checkpoints */
+	private int interval;
+
+	/** Piece sequence (null until setState) */
+	private SeekablePieceSequence sequence;
+
+	/** Index of the piece returned by the next call of next() */
+	private long nextIndex;
+
+	/**
+	 * Constructor (7-bag, can be used as the randomizer of a rule)
+	 */
+	@SuppressWarnings("deprecation")
+	public SeekableRandomizer() {
+		this(new BagRandomizer());
+	}
+
+	/**
+	 * Constructor
+	 * @param batch Randomizer that makes the pieces
+	 */
+	public SeekableRandomizer(BatchRandomizer batch) {
+		this(batch, SeekablePieceSequence.DEFAULT_INTERVAL);
+	}
+
+	/**
+	 * Constructor
+	 * @param batch Randomizer that makes the pieces
+	 * @param interval Number of pieces between checkpoints
+	 */
+	public SeekableRandomizer(BatchRandomizer batch, int interval) {
+		super();
+		this.batch = batch;
+		this.interval = interval;
+	}
+
+	/*
+	 * Start a new sequence
+	 */
+	@Override
+	public void setState(boolean[] pieceEnable, long seed) {
+		// The super class constructor can call this before batch is set
+		if(batch == null) return;
+
+		sequence = new SeekablePieceSequence(batch, pieceEnable, seed, interval);
+		nextIndex = 0;
+	}
+
+	/*
+	 * Get the next piece
+	 */
+	@Override
+	public int next() {
+		return sequence.get(nextIndex++);
+	}
+
+	/**
+	 * Get any piece of the sequence (doesn't change which piece next() returns)
+	 * @param n Index of the piece (0 is the first piece next() returned)
+	 * @return Piece ID
+	 */
+	public int getPiece(long n) {
+		return sequence.get(n);
+	}
+
+	/**
+	 * Get the index of the piece returned by the next call of next()
+	 * @return Index of the piece
+	 */
+	public long getNextIndex() {
+		return nextIndex;
+	}
+
+	/**
+	 * Make next() continue from another piece
+	 * @param n Index of the piece returned by the next call of next()
+	 */
+	public void skipTo(long n) {
+		nextIndex = n;
+	}
+
+	/**
+	 * Get the piece sequence (to export or import its checkpoints)
+	 * @return Piece sequence (null until setState is called)
+	 */
+	public SeekablePieceSequence getSequence() {
+		return sequence;
+	}
+}
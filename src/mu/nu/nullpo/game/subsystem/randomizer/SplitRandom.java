@@ -0,0 +1,188 @@
+/*
+    Copyright (c) 2010, NullNoname
+    All rights reserved.
+
+    Redistribution and use in source and binary forms, with or without
+    modification, are permitted provided that the following conditions are met:
+
+        * Redistributions of source code must retain the above copyright
+          notice, this list of conditions and the following disclaimer.
+        * Redistributions in binary form must reproduce the above copyright
+          notice, this list of conditions and the following disclaimer in the
+          documentation and/or other materials provided with the distribution.
+        * Neither the name of NullNoname nor the names of its
+          contributors may be used to endorse or promote products derived from
+          this software without specific prior written permission.
+
+    THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+    AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+    IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+    ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+    LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+    CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+    SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+    INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+    CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+    ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+    POSSIBILITY OF SUCH DAMAGE.
+*/
+package mu.nu.nullpo.game.subsystem.randomizer;
+
+import java.util.Random;
+
+/**
+ * Splittable random number generator (SplitMix64).
+ * <p>
+ * It is much faster than java.util.Random and has no lock.
+ * split() makes an independent generator, so sequences can be made on many threads from one seed
+ * and still be reproduced.
+ */
+public class SplitRandom extends Random {
+	/** Serial version ID */
+	private static final long serialVersionUID = 2434389358472617319L;
+
+	/** Default gamma (odd number close to 2^64 / golden ratio) */
+	private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+	/** Current state */
+	private long seed;
+
+	/** Value added to the state for each number (always odd) */
+	private long gamma;
+
+	/**
+	 * Constructor
+	 * @param seed Seed
+	 */
+	public SplitRandom(long seed) {
+		this(seed, GOLDEN_GAMMA);
+	}
+
+	/**
+	 * Constructor
+	 * @param seed Seed
+	 * @param gamma Gamma (must be odd)
+	 */
+	private SplitRandom(long seed, long gamma) {
+		super(0L);
+		this.seed = seed;
+		this.gamma = gamma;
+	}
+
+	/**
+	 * Make a new generator which is independent from this one. This generator advances by 2 numbers.
+	 * @return New generator
+	 */
+	public SplitRandom split() {
+		return new SplitRandom(nextLong(), mixGamma(nextSeed()));
+	}
+
+	/**
+	 * Get the current state (use with getGamma and setState to save and restore this generator)
+	 * @return Current state
+	 */
+	public long getState() {
+		return seed;
+	}
+
+	/**
+	 * Get the gamma
+	 * @return Gamma
+	 */
+	public long getGamma() {
+		return gamma;
+	}
+
+	/**
+	 * Restore a state
+	 * @param seed State from getState
+	 * @param gamma Gamma from getGamma
+	 */
+	public void setState(long seed, long gamma) {
+		this.seed = seed;
+		this.gamma = gamma | 1L;
+	}
+
+	/*
+	 * Set seed (the gamma is reset to the default)
+	 */
+	@Override
+	public synchronized void setSeed(long seed) {
+		this.seed = seed;
+		this.gamma = GOLDEN_GAMMA;
+	}
+
+	/*
+	 * Get the next random bits
+	 */
+	@Override
+	protected int next(int bits) {
+		return (int)(mix64(nextSeed()) >>> (64 - bits));
+	}
+
+	/*
+	 * Get the next random long
+	 */
+	@Override
+	public long nextLong() {
+		return mix64(nextSeed());
+	}
+
+	/*
+	 * Get the next random int
+	 */
+	@Override
+	public int nextInt() {
+		return (int)(mix64(nextSeed()) >>> 32);
+	}
+
+	/*
+	 * Get a random int between 0 and n - 1
+	 */
+	@Override
+	public int nextInt(int n) {
+		if(n <= 0) throw new IllegalArgumentException("n must be positive");
+
+		// Multiply and shift instead of division; reject the low values that would make it uneven
+		long m = (mix64(nextSeed()) >>> 32) * n;
+		if((m & 0xFFFFFFFFL) < n) {
+			long threshold = (0x100000000L - n) % n;
+			while((m & 0xFFFFFFFFL) < threshold) {
+				m = (mix64(nextSeed()) >>> 32) * n;
+			}
+		}
+		return (int)(m >>> 32);
+	}
+
+	/**
+	 * Advance the state
+	 * @return New state
+	 */
+	private long nextSeed() {
+		return seed += gamma;
+	}
+
+	/**
+	 * Mix the bits of the state (David Stafford's Mix13)
+	 * @param z State
+	 * @return Random number
+	 */
+	private static long mix64(long z) {
+		z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+		return z ^ (z >>> 31);
+	}
+
+	/**
+	 * Make a gamma from a state
+	 * @param z State
+	 * @return Gamma (odd, with enough bit transitions)
+	 */
+	private static long mixGamma(long z) {
+		z = (z ^ (z >>> 33)) * 0xff51afd7ed558ccdL;
+		z = (z ^ (z >>> 33)) * 0xc4ceb9fe1a85ec53L;
+		z = (z ^ (z >>> 33)) | 1L;
+		int n = Long.bitCount(z ^ (z >>> 1));
+		return (n < 24) ? z ^ 0xaaaaaaaaaaaaaaaaL : z;
+	}
+}
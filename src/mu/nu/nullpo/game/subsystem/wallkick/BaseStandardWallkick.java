@@ -1,5 +1,8 @@
 package mu.nu.nullpo.game.subsystem.wallkick;
 
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+
 import mu.nu.nullpo.game.component.Controller;
 import mu.nu.nullpo.game.component.Field;
 import mu.nu.nullpo.game.component.Piece;
@@ -26,30 +29,272 @@ public class BaseStandardWallkick implements Wallkick {
 		return null;
 	}
 
+	/**
+	 * Get the kicks to try, as a flat array of offsets (x0, y0, x1, y1, ...). Used from executeWallkick.
+	 * The default implementation flattens getKickTable(...)[rtOld].
+	 * The same array should be returned for the same kicks, because it is a part of the cache key.
+	 * @param x X-coordinate
+	 * @param y Y-coordinate
+	 * @param rtDir Rotation button used (-1: left rotation, 1: right rotation, 2: 180-degree rotation)
+	 * @param rtOld Direction before rotation
+	 * @param rtNew Direction after rotation
+	 * @param allowUpward If true, upward wallkicks are allowed.
+	 * @param piece Current piece
+	 * @param field Current field
+	 * @param ctrl Button input status (it may be null, when controlled by an AI)
+	 * @return Kicks. You may return null if you don't want to execute a kick.
+	 */
+	protected int[] getKicks(int x, int y, int rtDir, int rtOld, int rtNew, boolean allowUpward, Piece piece, Field field, Controller ctrl) {
+		int[][][] kicktable = getKickTable(x, y, rtDir, rtOld, rtNew, allowUpward, piece, field, ctrl);
+		if(kicktable == null) return null;
+
+		int[][] table = kicktable[rtOld];
+		int[] kicks = flatKicks.get(table);
+		if(kicks == null) {
+			// A kick table made for every call would make this grow without limit
+			if(flatKicks.size() >= FLAT_KICKS_MAX) clearCache();
+
+			kicks = new int[table.length * 2];
+			for(int i = 0; i < table.length; i++) {
+				kicks[i * 2 + 0] = table[i][0];
+				kicks[i * 2 + 1] = table[i][1];
+			}
+			flatKicks.put(table, kicks);
+		}
+		return kicks;
+	}
+
+	/** Flattened kick tables (getKickTable(...)[rtOld] -> getKicks) */
+	protected IdentityHashMap<int[][], int[]> flatKicks = new IdentityHashMap<int[][], int[]>();
+
+	/** Maximum number of flattened kick tables (the caches are cleared when full) */
+	protected static final int FLAT_KICKS_MAX = 256;
+
+	/** Maximum number of entries in the kick cache (it is cleared when full) */
+	protected static final int KICK_CACHE_MAX = 4096;
+
+	/** Cached "no kick" result */
+	private static final WallkickResult NO_KICK = new WallkickResult();
+
+	/** Kick cache: kicks, piece, directions and the field around the piece -> result */
+	protected HashMap<KickKey, WallkickResult> kickCache = new HashMap<KickKey, WallkickResult>();
+
+	/** Shared WallkickResult objects (offsetX, offsetY, direction -> result) */
+	protected HashMap<Integer, WallkickResult> kickResults = new HashMap<Integer, WallkickResult>();
+
+	/** Reused key for cache lookups */
+	private KickKey lookupKey = new KickKey();
+
+	/** Bitmask made by the last updateKickWindow call */
+	protected long kickWindow;
+
 	/*
 	 * Wallkick
+	 * The returned WallkickResult is shared between calls, so it must not be modified.
 	 */
 	public WallkickResult executeWallkick(int x, int y, int rtDir, int rtOld, int rtNew, boolean allowUpward, Piece piece, Field field, Controller ctrl) {
-		int[][][] kicktable = getKickTable(x, y, rtDir, rtOld, rtNew, allowUpward, piece, field, ctrl);
+		int[] kicks = getKicks(x, y, rtDir, rtOld, rtNew, allowUpward, piece, field, ctrl);
 
-		if(kicktable != null) {
-			for(int i = 0; i < kicktable[rtOld].length; i++) {
-				int x2 = kicktable[rtOld][i][0];
-				int y2 = kicktable[rtOld][i][1];
+		if(kicks != null) {
+			// Every cell probed by the kicks fits in 64 bits: the result depends only on those cells
+			boolean cacheable = field.isRowMaskEnabled() && updateKickWindow(x, y, kicks, rtNew, allowUpward, piece, field);
+			long window = kickWindow;
 
-				if(piece.big == true) {
-					x2 *= 2;
-					y2 *= 2;
-				}
+			if(cacheable) {
+				lookupKey.set(kicks, rtOld, rtNew, allowUpward, piece, window);
+				WallkickResult cached = kickCache.get(lookupKey);
+				if(cached != null) return (cached == NO_KICK) ? null : cached;
+			}
+
+			WallkickResult result = probeKicks(x, y, kicks, rtNew, allowUpward, piece, field);
+
+			if(cacheable) {
+				if(kickCache.size() >= KICK_CACHE_MAX) clearCache();
+				KickKey key = new KickKey();
+				key.set(kicks, rtOld, rtNew, allowUpward, piece, window);
+				kickCache.put(key, (result == null) ? NO_KICK : result);
+			}
+
+			return result;
+		}
+
+		return null;
+	}
+
+	/**
+	 * Clear the kick cache and the flattened kick tables (the cache keys refer to the flattened tables)
+	 */
+	protected void clearCache() {
+		kickCache.clear();
+		flatKicks.clear();
+	}
+
+	/**
+	 * Try each kick in order
+	 * @param x X-coordinate
+	 * @param y Y-coordinate
+	 * @param kicks Kicks (x0, y0, x1, y1, ...)
+	 * @param rtNew Direction after rotation
+	 * @param allowUpward If true, upward wallkicks are allowed.
+	 * @param piece Current piece
+	 * @param field Current field
+	 * @return WallkickResult of the first kick that fits, or null
+	 */
+	protected WallkickResult probeKicks(int x, int y, int[] kicks, int rtNew, boolean allowUpward, Piece piece, Field field) {
+		for(int i = 0; i + 1 < kicks.length; i += 2) {
+			int x2 = kicks[i];
+			int y2 = kicks[i + 1];
+
+			if(piece.big == true) {
+				x2 *= 2;
+				y2 *= 2;
+			}
 
-				if((y2 >= 0) || (allowUpward)) {
-					if(piece.checkCollision(x + x2, y + y2, rtNew, field) == false) {
-						return new WallkickResult(x2, y2, rtNew);
-					}
+			if((y2 >= 0) || (allowUpward)) {
+				if(piece.checkCollision(x + x2, y + y2, rtNew, field) == false) {
+					return getKickResult(x2, y2, rtNew);
 				}
 			}
 		}
 
 		return null;
 	}
+
+	/**
+	 * Get a shared WallkickResult
+	 * @param offsetX X offset
+	 * @param offsetY Y offset
+	 * @param direction Direction after rotation
+	 * @return WallkickResult (don't modify it)
+	 */
+	protected WallkickResult getKickResult(int offsetX, int offsetY, int direction) {
+		Integer key = Integer.valueOf(((offsetX & 0xFF) << 16) | ((offsetY & 0xFF) << 8) | (direction & 0xFF));
+		WallkickResult result = kickResults.get(key);
+		if(result == null) {
+			result = new WallkickResult(offsetX, offsetY, direction);
+			kickResults.put(key, result);
+		}
+		return result;
+	}
+
+	/**
+	 * Store the collision state of every cell which can be probed by the kicks in kickWindow, as a bitmask.
+	 * The cells form a rectangle relative to (x, y), so the same bitmask means the same kick result.
+	 * @param x X-coordinate
+	 * @param y Y-coordinate
+	 * @param kicks Kicks (x0, y0, x1, y1, ...)
+	 * @param rtNew Direction after rotation
+	 * @param allowUpward If true, upward wallkicks are allowed.
+	 * @param piece Current piece
+	 * @param field Current field (row bitmasks must be enabled)
+	 * @return false if the rectangle has more than 64 cells
+	 */
+	protected boolean updateKickWindow(int x, int y, int[] kicks, int rtNew, boolean allowUpward, Piece piece, Field field) {
+		int size = piece.big ? 2 : 1;
+		int maxBlock = piece.getMaxBlock();
+		if((maxBlock == 0) || (kicks.length < 2)) return false;
+
+		// Blocks of the piece
+		int pMinX = 0, pMaxX = 0, pMinY = 0, pMaxY = 0;
+		for(int i = 0; i < maxBlock; i++) {
+			int bx = piece.getDataX(rtNew, i) * size;
+			int by = piece.getDataY(rtNew, i) * size;
+			if((i == 0) || (bx < pMinX)) pMinX = bx;
+			if((i == 0) || (by < pMinY)) pMinY = by;
+			if((i == 0) || (bx + size - 1 > pMaxX)) pMaxX = bx + size - 1;
+			if((i == 0) || (by + size - 1 > pMaxY)) pMaxY = by + size - 1;
+		}
+
+		// Kick offsets which can be tried
+		boolean found = false;
+		int kMinX = 0, kMaxX = 0, kMinY = 0, kMaxY = 0;
+		for(int i = 0; i + 1 < kicks.length; i += 2) {
+			int x2 = kicks[i] * size;
+			int y2 = kicks[i + 1] * size;
+			if((y2 < 0) && !allowUpward) continue;
+			if(!found || (x2 < kMinX)) kMinX = x2;
+			if(!found || (x2 > kMaxX)) kMaxX = x2;
+			if(!found || (y2 < kMinY)) kMinY = y2;
+			if(!found || (y2 > kMaxY)) kMaxY = y2;
+			found = true;
+		}
+		if(!found) return false;
+
+		int left = x + pMinX + kMinX;
+		int top = y + pMinY + kMinY;
+		int w = (pMaxX + kMaxX) - (pMinX + kMinX) + 1;
+		int h = (pMaxY + kMaxY) - (pMinY + kMinY) + 1;
+		if(w * h > 64) return false;
+
+		long lineMask = (w >= 64) ? -1L : ((1L << w) - 1);
+		int fieldWidth = field.getWidth();
+		long window = 0;
+
+		for(int i = 0; i < h; i++) {
+			long row = field.getRowCollisionMask(top + i);
+			long bits;
+
+			// Columns outside the field are walls
+			if(left >= 0) {
+				bits = (left >= 64) ? 0 : (row >>> left);
+			} else if(left > -64) {
+				bits = (row << -left) | ((1L << -left) - 1);
+			} else {
+				bits = -1L;
+			}
+			int inside = fieldWidth - left;
+			if(inside <= 0) bits = -1L;
+			else if(inside < 64) bits |= (-1L << inside);
+
+			window |= (bits & lineMask) << (i * w);
+		}
+
+		kickWindow = window;
+		return true;
+	}
+
+	/**
+	 * Key of the kick cache
+	 */
+	protected static class KickKey {
+		/** Kicks */
+		int[] kicks;
+
+		/** Directions, piece ID, big, allowUpward */
+		int info;
+
+		/** Offset of the piece after rotation (applyOffsetArray) */
+		int offset;
+
+		/** Collision bitmask around the piece */
+		long window;
+
+		/**
+		 * Set the key
+		 * @param kicks Kicks
+		 * @param rtOld Direction before rotation
+		 * @param rtNew Direction after rotation
+		 * @param allowUpward If true, upward wallkicks are allowed.
+		 * @param piece Current piece
+		 * @param window Collision bitmask around the piece
+		 */
+		void set(int[] kicks, int rtOld, int rtNew, boolean allowUpward, Piece piece, long window) {
+			this.kicks = kicks;
+			this.info = (rtOld & 3) | ((rtNew & 3) << 2) | ((piece.big ? 1 : 0) << 4) | ((allowUpward ? 1 : 0) << 5) | ((piece.id + 1) << 6);
+			this.offset = ((piece.dataOffsetX[rtNew] & 0xFFFF) << 16) | (piece.dataOffsetY[rtNew] & 0xFFFF);
+			this.window = window;
+		}
+
+		@Override
+		public int hashCode() {
+			return System.identityHashCode(kicks) * 31 + info * 17 + offset + (int)(window ^ (window >>> 32)) * 7;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if(!(o instanceof KickKey)) return false;
+			KickKey k = (KickKey)o;
+			return (kicks == k.kicks) && (info == k.info) && (offset == k.offset) && (window == k.window);
+		}
+	}
 }
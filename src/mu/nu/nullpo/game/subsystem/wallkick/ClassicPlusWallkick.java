@@ -121,9 +121,9 @@ public class ClassicPlusWallkick implements Wallkick {
 		if(piece.big == true) return checkCollisionKickBig(piece, x, y, rt, fld);
 
 		for(int i = 0; i < piece.getMaxBlock(); i++) {
-			if(piece.dataX[rt][i] != 1 + piece.dataOffsetX[rt]) {
-				int x2 = x + piece.dataX[rt][i];
-				int y2 = y + piece.dataY[rt][i];
+			if(piece.getDataX(rt, i) != 1 + piece.dataOffsetX[rt]) {
+				int x2 = x + piece.getDataX(rt, i);
+				int y2 = y + piece.getDataY(rt, i);
 
 				if(x2 >= fld.getWidth()) {
 					return true;
@@ -154,9 +154,9 @@ public class ClassicPlusWallkick implements Wallkick {
 	 */
 	private boolean checkCollisionKickBig(Piece piece, int x, int y, int rt, Field fld) {
 		for(int i = 0; i < piece.getMaxBlock(); i++) {
-			if(piece.dataX[rt][i] != 1 + piece.dataOffsetX[rt]) {
-				int x2 = (x + piece.dataX[rt][i] * 2);
-				int y2 = (y + piece.dataY[rt][i] * 2);
+			if(piece.getDataX(rt, i) != 1 + piece.dataOffsetX[rt]) {
+				int x2 = (x + piece.getDataX(rt, i) * 2);
+				int y2 = (y + piece.getDataY(rt, i) * 2);
 
 				// 4Block分調べる
 				for(int k = 0; k < 2; k++)for(int l = 0; l < 2; l++) {
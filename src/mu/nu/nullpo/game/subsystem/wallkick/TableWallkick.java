@@ -0,0 +1,303 @@
+/*
+    Copyright (c) 2010, NullNoname
+    All rights reserved.
+
+    Redistribution and use in source and binary forms, with or without
+    modification, are permitted provided that the following conditions are met:
+
+        * Redistributions of source code must retain the above copyright
+          notice, this list of conditions and the following disclaimer.
+        * Redistributions in binary form must reproduce the above copyright
+          notice, this list of conditions and the following disclaimer in the
+          documentation and/or other materials provided with the distribution.
+        * Neither the name of NullNoname nor the names of its
+          contributors may be used to endorse or promote products derived from
+          this software without specific prior written permission.
+
+    THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+    AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+    IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+    ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+    LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+    CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+    SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+    INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+    CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+    ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+    POSSIBILITY OF SUCH DAMAGE.
+*/
+package mu.nu.nullpo.game.subsystem.wallkick;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.util.HashMap;
+import java.util.StringTokenizer;
+
+import org.apache.log4j.Logger;
+
+import mu.nu.nullpo.game.component.Controller;
+import mu.nu.nullpo.game.component.Field;
+import mu.nu.nullpo.game.component.Piece;
+import mu.nu.nullpo.game.component.WallkickResult;
+import mu.nu.nullpo.util.CustomProperties;
+
+/**
+ * Wallkick system that reads its kick tables from a file.
+ * <p>
+ * The file is a properties file. Each key is &lt;piece&gt;.&lt;direction&gt;.&lt;rtOld&gt;
+ * (piece: name in Piece.PIECE_NAMES or "default", direction: L, R or 180)
+ * and each value is a space-separated list of "x,y" offsets, tried in order.
+ * <pre>
+ * default.L.0=1,0 1,-1 0,2 1,2
+ * I.R.0=-2,0 1,0 -2,1 1,-2
+ * </pre>
+ * Optional keys:
+ * <ul>
+ * <li>base: Class name of a wallkick system used for rotations with no table
+ * (e.g. mu.nu.nullpo.game.subsystem.wallkick.ClassicWallkick, so a file can change only some of its kicks)</li>
+ * <li>reload.interval: Check the file for changes every this many milliseconds while playing (0 = off; only for editing the tables)</li>
+ * </ul>
+ * Tables are compiled into flat int[] arrays and shared between every instance loaded from the same file.
+ * When the file is changed, the next load (or reload) compiles it again.
+ * The files for the standard systems are in config/wallkick.
+ */
+public class TableWallkick extends BaseStandardWallkick {
+	/** Log */
+	static Logger log = Logger.getLogger(TableWallkick.class);
+
+	/** Extension of kick table files */
+	public static final String FILE_EXTENSION = ".kick";
+
+	/** Direction names (index = rotation button: 0=left, 1=right, 2=180-degree) */
+	public static final String[] DIRECTION_NAMES = {"L", "R", "180"};
+
+	/** Compiled tables: filename -> KickTableFile */
+	private static HashMap<String, KickTableFile> tableCache = new HashMap<String, KickTableFile>();
+
+	/** Filename */
+	protected String filename;
+
+	/** Kicks [piece.id + 1 (0=default)][direction * Piece.DIRECTION_COUNT + rtOld] (null = not defined) */
+	protected int[][][] kicks;
+
+	/** Class name of the base wallkick system (null = none) */
+	protected String baseName;
+
+	/** Wallkick system used for rotations with no table (null = no kick) */
+	protected Wallkick base;
+
+	/** Milliseconds between checks for changes of the file (0 = off) */
+	protected long reloadInterval;
+
+	/** Time of the last check for changes */
+	protected long lastReloadCheck;
+
+	/**
+	 * Load a kick table file
+	 * @param filename Filename
+	 * @return TableWallkick (null if something fails)
+	 */
+	public static TableWallkick load(String filename) {
+		TableWallkick wallkick = new TableWallkick(filename);
+		if(!wallkick.reload()) return null;
+		return wallkick;
+	}
+
+	/**
+	 * Constructor
+	 * @param filename Filename
+	 */
+	protected TableWallkick(String filename) {
+		this.filename = filename;
+	}
+
+	/**
+	 * Get filename
+	 * @return Filename
+	 */
+	public String getFilename() {
+		return filename;
+	}
+
+	/**
+	 * Load the kick tables again if the file has been changed
+	 * @return true if successful
+	 */
+	public boolean reload() {
+		KickTableFile table = getKickTableFile(filename);
+		if(table == null) return false;
+
+		if(kicks != table.kicks) {
+			kicks = table.kicks;
+			clearCache();
+		}
+		if((table.base == null) ? (baseName != null) : !table.base.equals(baseName)) {
+			baseName = table.base;
+			base = (baseName == null) ? null : createBase(baseName);
+		}
+		reloadInterval = table.reloadInterval;
+		lastReloadCheck = System.currentTimeMillis();
+		return true;
+	}
+
+	/**
+	 * Create the base wallkick system
+	 * @param name Class name
+	 * @return Wallkick system (null if something fails)
+	 */
+	@SuppressWarnings("deprecation")
+	protected Wallkick createBase(String name) {
+		if(name.endsWith(FILE_EXTENSION)) {
+			// Kick table files could refer to each other without end
+			log.warn("Base of " + filename + " must be a wallkick class: " + name);
+			return null;
+		}
+
+		try {
+			return (Wallkick)Class.forName(name).newInstance();
+		} catch (Exception e) {
+			log.warn("Failed to load base wallkick " + name + " of " + filename, e);
+		}
+		return null;
+	}
+
+	/**
+	 * Get the compiled tables of a file (compiled again when the file has been changed)
+	 * @param filename Filename
+	 * @return KickTableFile (null if something fails)
+	 */
+	protected static synchronized KickTableFile getKickTableFile(String filename) {
+		long lastModified = new File(filename).lastModified();
+		KickTableFile table = tableCache.get(filename);
+		if((table != null) && (table.lastModified == lastModified)) return table;
+
+		CustomProperties prop = new CustomProperties();
+		try {
+			FileInputStream in = new FileInputStream(filename);
+			prop.load(in);
+			in.close();
+
+			KickTableFile newTable = new KickTableFile();
+			newTable.lastModified = lastModified;
+			newTable.kicks = compile(prop);
+			newTable.base = prop.getProperty("base");
+			newTable.reloadInterval = prop.getProperty("reload.interval", 0L);
+			table = newTable;
+		} catch (Exception e) {
+			log.warn("Failed to load kick table from " + filename, e);
+			if(table == null) return null;
+
+			// Keep the old tables until the file is changed again
+			table.lastModified = lastModified;
+			return table;
+		}
+
+		tableCache.put(filename, table);
+		return table;
+	}
+
+	/**
+	 * Compile kick tables
+	 * @param prop Properties of a kick table file
+	 * @return Kicks [piece.id + 1 (0=default)][direction * Piece.DIRECTION_COUNT + rtOld]
+	 * @throws IllegalArgumentException When an offset is malformed
+	 */
+	protected static int[][][] compile(CustomProperties prop) {
+		int[][][] result = new int[Piece.PIECE_COUNT + 1][DIRECTION_NAMES.length * Piece.DIRECTION_COUNT][];
+
+		for(int i = 0; i <= Piece.PIECE_COUNT; i++) {
+			String pieceName = (i == 0) ? "default" : Piece.PIECE_NAMES[i - 1];
+
+			for(int d = 0; d < DIRECTION_NAMES.length; d++) {
+				for(int rt = 0; rt < Piece.DIRECTION_COUNT; rt++) {
+					String key = pieceName + "." + DIRECTION_NAMES[d] + "." + rt;
+					String value = prop.getProperty(key);
+					if(value != null) result[i][d * Piece.DIRECTION_COUNT + rt] = parseKicks(key, value);
+				}
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * Parse a list of offsets ("x,y x,y ...")
+	 * @param key Key (for error messages)
+	 * @param value Value
+	 * @return Kicks (x0, y0, x1, y1, ...)
+	 * @throws IllegalArgumentException When an offset is malformed
+	 */
+	protected static int[] parseKicks(String key, String value) {
+		StringTokenizer st = new StringTokenizer(value, " \t;");
+		int[] result = new int[st.countTokens() * 2];
+
+		for(int i = 0; st.hasMoreTokens(); i++) {
+			String token = st.nextToken();
+			int comma = token.indexOf(',');
+			if(comma < 0) throw new IllegalArgumentException(key + ": malformed offset \"" + token + "\"");
+
+			try {
+				result[i * 2 + 0] = Integer.parseInt(token.substring(0, comma).trim());
+				result[i * 2 + 1] = Integer.parseInt(token.substring(comma + 1).trim());
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException(key + ": malformed offset \"" + token + "\"", e);
+			}
+		}
+
+		return result;
+	}
+
+	/*
+	 * Wallkick
+	 */
+	@Override
+	public WallkickResult executeWallkick(int x, int y, int rtDir, int rtOld, int rtNew, boolean allowUpward, Piece piece, Field field, Controller ctrl) {
+		if(reloadInterval > 0) {
+			long now = System.currentTimeMillis();
+			if(now - lastReloadCheck >= reloadInterval) {
+				lastReloadCheck = now;
+				reload();
+			}
+		}
+
+		if((base != null) && (getKicks(x, y, rtDir, rtOld, rtNew, allowUpward, piece, field, ctrl) == null)) {
+			return base.executeWallkick(x, y, rtDir, rtOld, rtNew, allowUpward, piece, field, ctrl);
+		}
+		return super.executeWallkick(x, y, rtDir, rtOld, rtNew, allowUpward, piece, field, ctrl);
+	}
+
+	/*
+	 * Get kicks
+	 */
+	@Override
+	protected int[] getKicks(int x, int y, int rtDir, int rtOld, int rtNew, boolean allowUpward, Piece piece, Field field, Controller ctrl) {
+		int d;
+		if(rtDir == -1) d = 0;
+		else if(rtDir == 1) d = 1;
+		else if(rtDir == 2) d = 2;
+		else return null;
+
+		int index = d * Piece.DIRECTION_COUNT + rtOld;
+		int[] result = null;
+		if((piece.id >= 0) && (piece.id < Piece.PIECE_COUNT)) result = kicks[piece.id + 1][index];
+		if(result == null) result = kicks[0][index];
+		return result;
+	}
+
+	/**
+	 * Compiled kick tables of a file
+	 */
+	protected static class KickTableFile {
+		/** Last modified time of the file */
+		long lastModified;
+
+		/** Kicks */
+		int[][][] kicks;
+
+		/** Class name of the base wallkick system (null = none) */
+		String base;
+
+		/** Milliseconds between checks for changes of the file (0 = off) */
+		long reloadInterval;
+	}
+}
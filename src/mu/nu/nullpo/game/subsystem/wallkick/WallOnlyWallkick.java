@@ -75,8 +75,8 @@ public class WallOnlyWallkick implements Wallkick {
 		if(piece.big == true) return checkCollisionKickBig(piece, x, y, rt, fld);
 
 		for(int i = 0; i < piece.getMaxBlock(); i++) {
-			int x2 = x + piece.dataX[rt][i];
-			int y2 = y + piece.dataY[rt][i];
+			int x2 = x + piece.getDataX(rt, i);
+			int y2 = y + piece.getDataY(rt, i);
 
 			if(fld.getCoordAttribute(x2, y2) == Field.COORD_WALL) {
 				return true;
@@ -97,8 +97,8 @@ public class WallOnlyWallkick implements Wallkick {
 	 */
 	private boolean checkCollisionKickBig(Piece piece, int x, int y, int rt, Field fld) {
 		for(int i = 0; i < piece.getMaxBlock(); i++) {
-			int x2 = (x + piece.dataX[rt][i] * 2);
-			int y2 = (y + piece.dataY[rt][i] * 2);
+			int x2 = (x + piece.getDataX(rt, i) * 2);
+			int y2 = (y + piece.getDataY(rt, i) * 2);
 
 			// 4Block分調べる
 			for(int k = 0; k < 2; k++)for(int l = 0; l < 2; l++) {
@@ -38,6 +38,7 @@ import mu.nu.nullpo.game.play.GameEngine;
 import mu.nu.nullpo.game.play.GameManager;
 import mu.nu.nullpo.gui.EffectObject;
 import mu.nu.nullpo.util.CustomProperties;
+import mu.nu.nullpo.util.ReplayStreamWriter;
 
 import org.apache.log4j.Logger;
 
@@ -77,6 +78,9 @@ public class RendererSDL extends EventReceiver {
 	/** Line clear effect speed */
 	protected int lineeffectspeed;
 
+	/** 描画用の作業ピース (毎フレームPieceを作らないように使い回す) */
+	protected Piece workPiece = new Piece();
+
 	/**
 	 * Constructor
 	 */
@@ -329,6 +333,16 @@ public class RendererSDL extends EventReceiver {
 		}
 	}
 
+	/*
+	 * リプレイのjournalを作成
+	 */
+	@Override
+	public ReplayStreamWriter createReplayWriter(GameManager owner) {
+		if(!NullpoMinoSDL.propGlobal.getProperty("custom.replay.journal", false)) return null;
+
+		return createReplayWriter(owner, NullpoMinoSDL.propGlobal.getProperty("custom.replay.directory", "replay"));
+	}
+
 	/*
 	 * リプレイを保存
 	 */
@@ -336,7 +350,8 @@ public class RendererSDL extends EventReceiver {
 	public void saveReplay(GameManager owner, CustomProperties prop) {
 		if(owner.mode.isNetplayMode()) return;
 
-		saveReplay(owner, prop, NullpoMinoSDL.propGlobal.getProperty("custom.replay.directory", "replay"));
+		saveReplay(owner, prop, NullpoMinoSDL.propGlobal.getProperty("custom.replay.directory", "replay"),
+				NullpoMinoSDL.propGlobal.getProperty("custom.replay.binary", false));
 	}
 
 	/*
@@ -561,8 +576,8 @@ public class RendererSDL extends EventReceiver {
 	 */
 	protected void drawPiece(int x, int y, Piece piece, float scale, float darkness) throws SDLException {
 		for(int i = 0; i < piece.getMaxBlock(); i++) {
-			int x2 = x + (int)(piece.dataX[piece.direction][i] * 16 * scale);
-			int y2 = y + (int)(piece.dataY[piece.direction][i] * 16 * scale);
+			int x2 = x + (int)(piece.getDataX(piece.direction, i) * 16 * scale);
+			int y2 = y + (int)(piece.getDataY(piece.direction, i) * 16 * scale);
 
 			Block blkTemp = new Block(piece.block[i]);
 			blkTemp.darkness = darkness;
@@ -586,8 +601,8 @@ public class RendererSDL extends EventReceiver {
 		if(piece != null) {
 			for(int i = 0; i < piece.getMaxBlock(); i++) {
 				if(!piece.big) {
-					int x2 = engine.nowPieceX + piece.dataX[piece.direction][i];
-					int y2 = engine.nowPieceY + piece.dataY[piece.direction][i];
+					int x2 = engine.nowPieceX + piece.getDataX(piece.direction, i);
+					int y2 = engine.nowPieceY + piece.getDataY(piece.direction, i);
 
 					if(y2 >= 0) {
 						Block blkTemp = piece.block[i];
@@ -598,8 +613,8 @@ public class RendererSDL extends EventReceiver {
 						drawBlock(x + (x2 * blksize), y + (y2 * blksize), blkTemp, scale);
 					}
 				} else {
-					int x2 = engine.nowPieceX + (piece.dataX[piece.direction][i] * 2);
-					int y2 = engine.nowPieceY + (piece.dataY[piece.direction][i] * 2);
+					int x2 = engine.nowPieceX + (piece.getDataX(piece.direction, i) * 2);
+					int y2 = engine.nowPieceY + (piece.getDataY(piece.direction, i) * 2);
 
 					Block blkTemp = piece.block[i];
 					if(engine.nowPieceColorOverride >= 0) {
@@ -627,8 +642,8 @@ public class RendererSDL extends EventReceiver {
 		if(piece != null) {
 			for(int i = 0; i < piece.getMaxBlock(); i++) {
 				if(!piece.big) {
-					int x2 = engine.nowPieceX + piece.dataX[piece.direction][i];
-					int y2 = engine.nowPieceBottomY + piece.dataY[piece.direction][i];
+					int x2 = engine.nowPieceX + piece.getDataX(piece.direction, i);
+					int y2 = engine.nowPieceBottomY + piece.getDataY(piece.direction, i);
 
 					if(y2 >= 0) {
 						if(outlineghost) {
@@ -681,8 +696,8 @@ public class RendererSDL extends EventReceiver {
 						}
 					}
 				} else {
-					int x2 = engine.nowPieceX + (piece.dataX[piece.direction][i] * 2);
-					int y2 = engine.nowPieceBottomY + (piece.dataY[piece.direction][i] * 2);
+					int x2 = engine.nowPieceX + (piece.getDataX(piece.direction, i) * 2);
+					int y2 = engine.nowPieceBottomY + (piece.getDataY(piece.direction, i) * 2);
 
 					if(outlineghost) {
 						Block blkTemp = piece.block[i];
@@ -739,7 +754,8 @@ public class RendererSDL extends EventReceiver {
 
 	protected void drawHintPiece(int x, int y, GameEngine engine, float scale) throws SDLException {
 		if (engine.nowPieceObject!=null){
-			Piece piece = new Piece(engine.nowPieceObject);
+			Piece piece = workPiece;
+			piece.copy(engine.nowPieceObject);
 			piece.direction=engine.aiHintRt;
 			piece.updateConnectData();
 			int blksize = (int)(16 * scale);
@@ -747,8 +763,8 @@ public class RendererSDL extends EventReceiver {
 			if(piece != null) {
 				for(int i = 0; i < piece.getMaxBlock(); i++) {
 					if(!piece.big) {
-						int x2 = engine.aiHintX + piece.dataX[piece.direction][i];
-						int y2 = engine.aiHintY + piece.dataY[piece.direction][i];
+						int x2 = engine.aiHintX + piece.getDataX(piece.direction, i);
+						int y2 = engine.aiHintY + piece.getDataY(piece.direction, i);
 
 						if(y2 >= 0) {
 
@@ -780,8 +796,8 @@ public class RendererSDL extends EventReceiver {
 								graphics.fillRect(new SDLRect(x3 + (blksize-2), y3 + (blksize-2), 2, 2), color);
 						}
 					} else {
-						int x2 = engine.aiHintX + (piece.dataX[piece.direction][i] * 2);
-						int y2 = engine.aiHintY + (piece.dataY[piece.direction][i] * 2);
+						int x2 = engine.aiHintX + (piece.getDataX(piece.direction, i) * 2);
+						int y2 = engine.aiHintY + (piece.getDataY(piece.direction, i) * 2);
 
 						Block blkTemp = piece.block[i];
 						int x3 = x + (x2 * blksize);
@@ -1304,7 +1320,8 @@ public class RendererSDL extends EventReceiver {
 				if(engine.holdPieceObject != null) {
 					float dark = 0f;
 					if(engine.holdDisable == true) dark = 0.3f;
-					Piece piece = new Piece(engine.holdPieceObject);
+					Piece piece = workPiece;
+					piece.copy(engine.holdPieceObject);
 					piece.resetOffsetArray();
 
 					if(getNextDisplayType() == 2) {
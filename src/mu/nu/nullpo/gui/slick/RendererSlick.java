@@ -38,6 +38,7 @@ import mu.nu.nullpo.game.play.GameEngine;
 import mu.nu.nullpo.game.play.GameManager;
 import mu.nu.nullpo.gui.EffectObject;
 import mu.nu.nullpo.util.CustomProperties;
+import mu.nu.nullpo.util.ReplayStreamWriter;
 
 //import org.apache.log4j.Logger;
 import org.newdawn.slick.Color;
@@ -75,6 +76,9 @@ public class RendererSlick extends EventReceiver {
 	/** Line clear effect speed */
 	protected int lineeffectspeed;
 
+	/** 描画用の作業ピース (毎フレームPieceを作らないように使い回す) */
+	protected Piece workPiece = new Piece();
+
 	/**
 	 * Block colorIDに応じてSlick用Colorオブジェクトを作成・取得
 	 * @param colorID Block colorID
@@ -267,6 +271,16 @@ public class RendererSlick extends EventReceiver {
 		}
 	}
 
+	/*
+	 * リプレイのjournalを作成
+	 */
+	@Override
+	public ReplayStreamWriter createReplayWriter(GameManager owner) {
+		if(!NullpoMinoSlick.propGlobal.getProperty("custom.replay.journal", false)) return null;
+
+		return createReplayWriter(owner, NullpoMinoSlick.propGlobal.getProperty("custom.replay.directory", "replay"));
+	}
+
 	/*
 	 * リプレイを保存
 	 */
@@ -274,7 +288,8 @@ public class RendererSlick extends EventReceiver {
 	public void saveReplay(GameManager owner, CustomProperties prop) {
 		if(owner.mode.isNetplayMode()) return;
 
-		saveReplay(owner, prop, NullpoMinoSlick.propGlobal.getProperty("custom.replay.directory", "replay"));
+		saveReplay(owner, prop, NullpoMinoSlick.propGlobal.getProperty("custom.replay.directory", "replay"),
+				NullpoMinoSlick.propGlobal.getProperty("custom.replay.binary", false));
 	}
 
 	/*
@@ -455,8 +470,8 @@ public class RendererSlick extends EventReceiver {
 	 */
 	protected void drawPiece(int x, int y, Piece piece, float scale, float darkness) {
 		for(int i = 0; i < piece.getMaxBlock(); i++) {
-			int x2 = x + (int)(piece.dataX[piece.direction][i] * 16 * scale);
-			int y2 = y + (int)(piece.dataY[piece.direction][i] * 16 * scale);
+			int x2 = x + (int)(piece.getDataX(piece.direction, i) * 16 * scale);
+			int y2 = y + (int)(piece.getDataY(piece.direction, i) * 16 * scale);
 
 			Block blkTemp = new Block(piece.block[i]);
 			blkTemp.darkness = darkness;
@@ -479,8 +494,8 @@ public class RendererSlick extends EventReceiver {
 		if(piece != null) {
 			for(int i = 0; i < piece.getMaxBlock(); i++) {
 				if(!piece.big) {
-					int x2 = engine.nowPieceX + piece.dataX[piece.direction][i];
-					int y2 = engine.nowPieceY + piece.dataY[piece.direction][i];
+					int x2 = engine.nowPieceX + piece.getDataX(piece.direction, i);
+					int y2 = engine.nowPieceY + piece.getDataY(piece.direction, i);
 
 					if(y2 >= 0) {
 						Block blkTemp = piece.block[i];
@@ -491,8 +506,8 @@ public class RendererSlick extends EventReceiver {
 						drawBlock(x + (x2 * blksize), y + (y2 * blksize), blkTemp, scale);
 					}
 				} else {
-					int x2 = engine.nowPieceX + (piece.dataX[piece.direction][i] * 2);
-					int y2 = engine.nowPieceY + (piece.dataY[piece.direction][i] * 2);
+					int x2 = engine.nowPieceX + (piece.getDataX(piece.direction, i) * 2);
+					int y2 = engine.nowPieceY + (piece.getDataY(piece.direction, i) * 2);
 
 					Block blkTemp = piece.block[i];
 					if(engine.nowPieceColorOverride >= 0) {
@@ -519,8 +534,8 @@ public class RendererSlick extends EventReceiver {
 		if(piece != null) {
 			for(int i = 0; i < piece.getMaxBlock(); i++) {
 				if(!piece.big) {
-					int x2 = engine.nowPieceX + piece.dataX[piece.direction][i];
-					int y2 = engine.nowPieceBottomY + piece.dataY[piece.direction][i];
+					int x2 = engine.nowPieceX + piece.getDataX(piece.direction, i);
+					int y2 = engine.nowPieceBottomY + piece.getDataY(piece.direction, i);
 
 					if(y2 >= 0) {
 						if(outlineghost) {
@@ -579,8 +594,8 @@ public class RendererSlick extends EventReceiver {
 						}
 					}
 				} else {
-					int x2 = engine.nowPieceX + (piece.dataX[piece.direction][i] * 2);
-					int y2 = engine.nowPieceBottomY + (piece.dataY[piece.direction][i] * 2);
+					int x2 = engine.nowPieceX + (piece.getDataX(piece.direction, i) * 2);
+					int y2 = engine.nowPieceBottomY + (piece.getDataY(piece.direction, i) * 2);
 
 					if(outlineghost) {
 						Block blkTemp = piece.block[i];
@@ -643,7 +658,8 @@ public class RendererSlick extends EventReceiver {
 
 	protected void drawHintPiece(int x, int y, GameEngine engine, float scale) {
 		if (engine.nowPieceObject!=null){
-			Piece piece =  new Piece(engine.nowPieceObject);
+			Piece piece = workPiece;
+			piece.copy(engine.nowPieceObject);
 			piece.direction=engine.aiHintRt;
 			piece.updateConnectData();
 			int blksize = (int)(16 * scale);
@@ -651,8 +667,8 @@ public class RendererSlick extends EventReceiver {
 			if(piece != null) {
 				for(int i = 0; i < piece.getMaxBlock(); i++) {
 					if(!piece.big) {
-						int x2 = engine.aiHintX + piece.dataX[engine.aiHintRt][i];
-						int y2 = engine.aiHintY + piece.dataY[engine.aiHintRt][i];
+						int x2 = engine.aiHintX + piece.getDataX(engine.aiHintRt, i);
+						int y2 = engine.aiHintY + piece.getDataY(engine.aiHintRt, i);
 
 						if(y2 >= 0) {
 
@@ -684,8 +700,8 @@ public class RendererSlick extends EventReceiver {
 								graphics.fillRect(x3 + (blksize-2), y3 + (blksize-2), 2, 2);
 						}
 					} else {
-						int x2 = engine.aiHintX + (piece.dataX[engine.aiHintRt][i] * 2);
-						int y2 = engine.aiHintY + (piece.dataY[engine.aiHintRt][i] * 2);
+						int x2 = engine.aiHintX + (piece.getDataX(engine.aiHintRt, i) * 2);
+						int y2 = engine.aiHintY + (piece.getDataY(engine.aiHintRt, i) * 2);
 
 						Block blkTemp = piece.block[i];
 						int x3 = x + (x2 * blksize);
@@ -1202,7 +1218,8 @@ public class RendererSlick extends EventReceiver {
 				if(engine.holdPieceObject != null) {
 					float dark = 0f;
 					if(engine.holdDisable == true) dark = 0.3f;
-					Piece piece = new Piece(engine.holdPieceObject);
+					Piece piece = workPiece;
+					piece.copy(engine.holdPieceObject);
 					piece.resetOffsetArray();
 
 					if(getNextDisplayType() == 2) {
@@ -29,12 +29,12 @@
 package mu.nu.nullpo.gui.slick;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FilenameFilter;
 import java.io.IOException;
 import java.util.Arrays;
 
 import mu.nu.nullpo.game.component.Statistics;
+import mu.nu.nullpo.util.BinaryReplay;
 import mu.nu.nullpo.util.CustomProperties;
 import mu.nu.nullpo.util.GeneralUtil;
 
@@ -137,9 +137,7 @@ public class StateReplaySelect extends DummyMenuScrollState {
 			CustomProperties prop = new CustomProperties();
 
 			try {
-				FileInputStream in = new FileInputStream(NullpoMinoSlick.propGlobal.getProperty("custom.replay.directory", "replay") + "/" + list[i]);
-				prop.load(in);
-				in.close();
+				prop = BinaryReplay.load(NullpoMinoSlick.propGlobal.getProperty("custom.replay.directory", "replay") + "/" + list[i]);
 			} catch (IOException e) {
 				log.error("Failed to load replay file (" + list[i] + ")", e);
 			}
@@ -178,9 +176,7 @@ public class StateReplaySelect extends DummyMenuScrollState {
 		CustomProperties prop = new CustomProperties();
 
 		try {
-			FileInputStream in = new FileInputStream(NullpoMinoSlick.propGlobal.getProperty("custom.replay.directory", "replay") + "/" + list[cursor]);
-			prop.load(in);
-			in.close();
+			prop = BinaryReplay.load(NullpoMinoSlick.propGlobal.getProperty("custom.replay.directory", "replay") + "/" + list[cursor]);
 		} catch (IOException e) {
 			log.error("Failed to load replay file from " + list[cursor], e);
 			return true;
@@ -83,6 +83,7 @@ import mu.nu.nullpo.gui.net.NetLobbyFrame;
 import mu.nu.nullpo.gui.net.NetLobbyListener;
 import mu.nu.nullpo.gui.net.UpdateChecker;
 import mu.nu.nullpo.gui.net.UpdateCheckerListener;
+import mu.nu.nullpo.util.BinaryReplay;
 import mu.nu.nullpo.util.CustomProperties;
 import mu.nu.nullpo.util.GeneralUtil;
 import mu.nu.nullpo.util.ModeManager;
@@ -1038,9 +1039,7 @@ public class NullpoMinoSwing extends JFrame implements ActionListener, NetLobbyL
 		CustomProperties prop = new CustomProperties();
 
 		try {
-			FileInputStream stream = new FileInputStream(filename);
-			prop.load(stream);
-			stream.close();
+			prop = BinaryReplay.load(filename);
 		} catch (IOException e) {
 			log.error("Couldn't load replay file from " + filename, e);
 			return;
@@ -42,6 +42,7 @@ import mu.nu.nullpo.game.event.EventReceiver;
 import mu.nu.nullpo.game.play.GameEngine;
 import mu.nu.nullpo.game.play.GameManager;
 import mu.nu.nullpo.util.CustomProperties;
+import mu.nu.nullpo.util.ReplayStreamWriter;
 
 //import org.apache.log4j.Logger;
 
@@ -64,6 +65,9 @@ public class RendererSwing extends EventReceiver {
 	/** ghost ピースの上にNEXT表示 */
 	protected boolean nextshadow;
 
+	/** 描画用の作業ピース (毎フレームPieceを作らないように使い回す) */
+	protected Piece workPiece = new Piece();
+
 	/**
 	 * 指定した font 色をAWT用Colorとして取得
 	 * @param fontColor  font 色
@@ -286,6 +290,16 @@ public class RendererSwing extends EventReceiver {
 		return false;
 	}
 
+	/*
+	 * リプレイのjournalを作成
+	 */
+	@Override
+	public ReplayStreamWriter createReplayWriter(GameManager owner) {
+		if(!NullpoMinoSwing.propGlobal.getProperty("custom.replay.journal", false)) return null;
+
+		return createReplayWriter(owner, NullpoMinoSwing.propGlobal.getProperty("custom.replay.directory", "replay"));
+	}
+
 	/*
 	 * リプレイを保存
 	 */
@@ -293,7 +307,8 @@ public class RendererSwing extends EventReceiver {
 	public void saveReplay(GameManager owner, CustomProperties prop) {
 		if(owner.mode.isNetplayMode()) return;
 
-		saveReplay(owner, prop, NullpoMinoSwing.propGlobal.getProperty("custom.replay.directory", "replay"));
+		saveReplay(owner, prop, NullpoMinoSwing.propGlobal.getProperty("custom.replay.directory", "replay"),
+				NullpoMinoSwing.propGlobal.getProperty("custom.replay.binary", false));
 	}
 
 	/*
@@ -525,8 +540,8 @@ public class RendererSwing extends EventReceiver {
 	 */
 	protected void drawPiece(int x, int y, Piece piece, float scale, float darkness) {
 		for(int i = 0; i < piece.getMaxBlock(); i++) {
-			int x2 = x + (int)(piece.dataX[piece.direction][i] * 16 * scale);
-			int y2 = y + (int)(piece.dataY[piece.direction][i] * 16 * scale);
+			int x2 = x + (int)(piece.getDataX(piece.direction, i) * 16 * scale);
+			int y2 = y + (int)(piece.getDataY(piece.direction, i) * 16 * scale);
 
 			Block blkTemp = new Block(piece.block[i]);
 			blkTemp.darkness = darkness;
@@ -548,8 +563,8 @@ public class RendererSwing extends EventReceiver {
 		if(piece != null) {
 			for(int i = 0; i < piece.getMaxBlock(); i++) {
 				if(!piece.big) {
-					int x2 = engine.nowPieceX + piece.dataX[piece.direction][i];
-					int y2 = engine.nowPieceY + piece.dataY[piece.direction][i];
+					int x2 = engine.nowPieceX + piece.getDataX(piece.direction, i);
+					int y2 = engine.nowPieceY + piece.getDataY(piece.direction, i);
 
 					if(y2 >= 0) {
 						Block blkTemp = piece.block[i];
@@ -560,8 +575,8 @@ public class RendererSwing extends EventReceiver {
 						drawBlock(x + (x2 * blksize), y + (y2 * blksize), blkTemp, scale);
 					}
 				} else {
-					int x2 = engine.nowPieceX + (piece.dataX[piece.direction][i] * 2);
-					int y2 = engine.nowPieceY + (piece.dataY[piece.direction][i] * 2);
+					int x2 = engine.nowPieceX + (piece.getDataX(piece.direction, i) * 2);
+					int y2 = engine.nowPieceY + (piece.getDataY(piece.direction, i) * 2);
 
 					Block blkTemp = piece.block[i];
 					if(engine.nowPieceColorOverride >= 0) {
@@ -587,8 +602,8 @@ public class RendererSwing extends EventReceiver {
 		if(piece != null) {
 			for(int i = 0; i < piece.getMaxBlock(); i++) {
 				if(!piece.big) {
-					int x2 = engine.nowPieceX + piece.dataX[piece.direction][i];
-					int y2 = engine.nowPieceBottomY + piece.dataY[piece.direction][i];
+					int x2 = engine.nowPieceX + piece.getDataX(piece.direction, i);
+					int y2 = engine.nowPieceBottomY + piece.getDataY(piece.direction, i);
 
 					if(y2 >= 0) {
 						if(outlineghost) {
@@ -642,8 +657,8 @@ public class RendererSwing extends EventReceiver {
 						}
 					}
 				} else {
-					int x2 = engine.nowPieceX + (piece.dataX[piece.direction][i] * 2);
-					int y2 = engine.nowPieceBottomY + (piece.dataY[piece.direction][i] * 2);
+					int x2 = engine.nowPieceX + (piece.getDataX(piece.direction, i) * 2);
+					int y2 = engine.nowPieceBottomY + (piece.getDataY(piece.direction, i) * 2);
 
 					if(outlineghost) {
 						Block blkTemp = piece.block[i];
@@ -701,7 +716,8 @@ public class RendererSwing extends EventReceiver {
 
 	protected void drawHintPiece(int x, int y, GameEngine engine, float scale) {
 		if (engine.nowPieceObject!=null){
-			Piece piece = new Piece(engine.nowPieceObject);
+			Piece piece = workPiece;
+			piece.copy(engine.nowPieceObject);
 			piece.direction=engine.aiHintRt;
 			piece.updateConnectData();
 			int blksize = (int)(16 * scale);
@@ -709,8 +725,8 @@ public class RendererSwing extends EventReceiver {
 			if(piece != null) {
 				for(int i = 0; i < piece.getMaxBlock(); i++) {
 					if(!piece.big) {
-						int x2 = engine.aiHintX + piece.dataX[piece.direction][i];
-						int y2 = engine.aiHintY + piece.dataY[piece.direction][i];
+						int x2 = engine.aiHintX + piece.getDataX(piece.direction, i);
+						int y2 = engine.aiHintY + piece.getDataY(piece.direction, i);
 
 						if(y2 >= 0) {
 
@@ -742,8 +758,8 @@ public class RendererSwing extends EventReceiver {
 								graphics.fillRect(x3 + (blksize-2), y3 + (blksize-2), 2, 2);
 						}
 					} else {
-						int x2 = engine.aiHintX + (piece.dataX[piece.direction][i] * 2);
-						int y2 = engine.aiHintY + (piece.dataY[piece.direction][i] * 2);
+						int x2 = engine.aiHintX + (piece.getDataX(piece.direction, i) * 2);
+						int y2 = engine.aiHintY + (piece.getDataY(piece.direction, i) * 2);
 
 						Block blkTemp = piece.block[i];
 						int x3 = x + (x2 * blksize);
@@ -1144,7 +1160,8 @@ public class RendererSwing extends EventReceiver {
 				if(engine.holdPieceObject != null) {
 					float dark = 0f;
 					if(engine.holdDisable == true) dark = 0.3f;
-					Piece piece = new Piece(engine.holdPieceObject);
+					Piece piece = workPiece;
+					piece.copy(engine.holdPieceObject);
 					piece.resetOffsetArray();
 
 					if(getNextDisplayType() == 2) {
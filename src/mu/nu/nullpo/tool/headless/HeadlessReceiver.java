@@ -0,0 +1,87 @@
+/*
+    Copyright (c) 2010, NullNoname
+    All rights reserved.
+
+    Redistribution and use in source and binary forms, with or without
+    modification, are permitted provided that the following conditions are met:
+
+        * Redistributions of source code must retain the above copyright
+          notice, this list of conditions and the following disclaimer.
+        * Redistributions in binary form must reproduce the above copyright
+          notice, this list of conditions and the following disclaimer in the
+          documentation and/or other materials provided with the distribution.
+        * Neither the name of NullNoname nor the names of its
+          contributors may be used to endorse or promote products derived from
+          this software without specific prior written permission.
+
+    THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+    AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+    IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+    ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+    LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+    CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+    SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+    INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+    CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+    ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+    POSSIBILITY OF SUCH DAMAGE.
+*/
+package mu.nu.nullpo.tool.headless;
+
+import mu.nu.nullpo.game.event.EventReceiver;
+import mu.nu.nullpo.game.play.GameManager;
+import mu.nu.nullpo.util.CustomProperties;
+
+/**
+ * EventReceiver for headless games. It draws nothing, plays nothing and never writes files.
+ */
+public class HeadlessReceiver extends EventReceiver {
+	/** Mode config (not loaded from or saved to config/setting/mode.cfg) */
+	protected CustomProperties modeConfig;
+
+	/**
+	 * Constructor
+	 */
+	public HeadlessReceiver() {
+		this(null);
+	}
+
+	/**
+	 * Constructor
+	 * @param modeConfig Mode config (null: empty)
+	 */
+	public HeadlessReceiver(CustomProperties modeConfig) {
+		this.modeConfig = (modeConfig != null) ? modeConfig : new CustomProperties();
+	}
+
+	/*
+	 * Load mode config
+	 */
+	@Override
+	public CustomProperties loadModeConfig() {
+		return modeConfig;
+	}
+
+	/*
+	 * Save mode config (kept in memory only)
+	 */
+	@Override
+	public void saveModeConfig(CustomProperties modeConfig) {
+		this.modeConfig = modeConfig;
+	}
+
+	/*
+	 * Save properties (does nothing)
+	 */
+	@Override
+	public boolean saveProperties(String filename, CustomProperties prop) {
+		return false;
+	}
+
+	/*
+	 * Save replay (does nothing)
+	 */
+	@Override
+	public void saveReplay(GameManager owner, CustomProperties prop) {
+	}
+}
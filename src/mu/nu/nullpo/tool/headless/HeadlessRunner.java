@@ -0,0 +1,447 @@
+/*
+    Copyright (c) 2010, NullNoname
+    All rights reserved.
+
+    Redistribution and use in source and binary forms, with or without
+    modification, are permitted provided that the following conditions are met:
+
+        * Redistributions of source code must retain the above copyright
+          notice, this list of conditions and the following disclaimer.
+        * Redistributions in binary form must reproduce the above copyright
+          notice, this list of conditions and the following disclaimer in the
+          documentation and/or other materials provided with the distribution.
+        * Neither the name of NullNoname nor the names of its
+          contributors may be used to endorse or promote products derived from
+          this software without specific prior written permission.
+
+    THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+    AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+    IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+    ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+    LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+    CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+    SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+    INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+    CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+    ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+    POSSIBILITY OF SUCH DAMAGE.
+*/
+package mu.nu.nullpo.tool.headless;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+
+import org.apache.log4j.Logger;
+
+import mu.nu.nullpo.game.component.ReplayData;
+import mu.nu.nullpo.game.component.RuleOptions;
+import mu.nu.nullpo.game.component.Statistics;
+import mu.nu.nullpo.game.play.GameEngine;
+import mu.nu.nullpo.game.play.GameManager;
+import mu.nu.nullpo.game.subsystem.ai.DummyAI;
+import mu.nu.nullpo.game.subsystem.mode.GameMode;
+import mu.nu.nullpo.game.subsystem.wallkick.Wallkick;
+import mu.nu.nullpo.util.BinaryReplay;
+import mu.nu.nullpo.util.CustomProperties;
+import mu.nu.nullpo.util.GeneralUtil;
+import mu.nu.nullpo.util.ModeManager;
+import net.omegaboshi.nullpomino.game.subsystem.randomizer.Randomizer;
+
+/**
+ * Runs a game without any window, as fast as the CPU can.
+ * <p>
+ * Inputs come from a replay, from scripts (button bits for each frame) or from an AI.
+ * Usage: HeadlessRunner -mode &lt;name&gt; (-rule &lt;file&gt; | -replay &lt;file&gt;) [-modelist &lt;file&gt;] [-ai &lt;class&gt;]
+ * [-script &lt;replay file&gt;] [-frames &lt;max frames&gt;] [-repeat &lt;count&gt;]
+ */
+public class HeadlessRunner {
+	/** Log */
+	static Logger log = Logger.getLogger(HeadlessRunner.class);
+
+	/** Default mode list */
+	public static final String DEFAULT_MODE_LIST = "config/list/mode.lst";
+
+	/** Default maximum number of frames (10 hours at 60fps) */
+	public static final long DEFAULT_MAX_FRAMES = 60L * 60 * 60 * 10;
+
+	/** GameManager */
+	public GameManager gameManager;
+
+	/** Scripted inputs for each player (null: no script) */
+	protected ReplayData[] script;
+
+	/** Number of frames run */
+	protected long frames;
+
+	/** Time spent in run (nanoseconds) */
+	protected long elapsedTime;
+
+	/** true once a game has been active */
+	protected boolean gameWasActive;
+
+	/**
+	 * Load a mode list
+	 * @param filename Mode list file (one class name per line)
+	 * @return ModeManager
+	 */
+	public static ModeManager loadModeManager(String filename) {
+		ModeManager modeManager = new ModeManager();
+
+		try {
+			BufferedReader txtMode = new BufferedReader(new FileReader(filename));
+			modeManager.loadGameModes(txtMode);
+			txtMode.close();
+		} catch (Exception e) {
+			log.warn("Failed to load mode list from " + filename, e);
+		}
+
+		return modeManager;
+	}
+
+	/**
+	 * Load a replay file (text or binary)
+	 * @param filename Filename
+	 * @return Properties (null if something fails)
+	 */
+	public static CustomProperties loadProperties(String filename) {
+		try {
+			return BinaryReplay.load(filename);
+		} catch (Exception e) {
+			log.warn("Failed to load " + filename, e);
+			return null;
+		}
+	}
+
+	/**
+	 * Create a new instance of a mode (ModeManager's instances are shared, so each game gets its own)
+	 * @param mode Mode
+	 * @return New instance (null if something fails)
+	 */
+	public static GameMode newModeInstance(GameMode mode) {
+		try {
+			return mode.getClass().getDeclaredConstructor().newInstance();
+		} catch (Exception e) {
+			log.warn("Failed to create mode " + mode.getClass().getName(), e);
+			return null;
+		}
+	}
+
+	/**
+	 * Start a new game
+	 * @param mode Mode (this instance is used as is)
+	 * @param ruleopt Rule used by every player
+	 * @param aiName AI class name (null or empty: no AI)
+	 */
+	public void startNewGame(GameMode mode, RuleOptions ruleopt, String aiName) {
+		gameManager = new GameManager(new HeadlessReceiver());
+		gameManager.mode = mode;
+		gameManager.init();
+
+		for(int i = 0; i < gameManager.getPlayers(); i++) {
+			GameEngine engine = gameManager.engine[i];
+			engine.ruleopt = new RuleOptions(ruleopt);
+			loadRuleSubsystems(engine);
+
+			if((aiName != null) && (aiName.length() > 0)) {
+				DummyAI aiObj = GeneralUtil.loadAIPlayer(aiName);
+				engine.ai = aiObj;
+				engine.aiUseThread = false;
+			}
+
+			engine.init();
+		}
+
+		resetCounters();
+	}
+
+	/**
+	 * Start a replay
+	 * @param mode Mode (this instance is used as is)
+	 * @param replayProp Replay
+	 */
+	public void startReplayGame(GameMode mode, CustomProperties replayProp) {
+		gameManager = new GameManager(new HeadlessReceiver());
+		gameManager.replayMode = true;
+		gameManager.replayProp = replayProp;
+		gameManager.mode = mode;
+		gameManager.init();
+
+		for(int i = 0; i < gameManager.getPlayers(); i++) {
+			GameEngine engine = gameManager.engine[i];
+			RuleOptions ruleopt = new RuleOptions();
+			ruleopt.readProperty(replayProp, i);
+			engine.ruleopt = ruleopt;
+			loadRuleSubsystems(engine);
+			engine.init();
+		}
+
+		resetCounters();
+	}
+
+	/**
+	 * Load the randomizer and wallkick of the rule
+	 * @param engine GameEngine
+	 */
+	protected void loadRuleSubsystems(GameEngine engine) {
+		RuleOptions ruleopt = engine.ruleopt;
+
+		// NEXT順生成アルゴリズム
+		if((ruleopt.strRandomizer != null) && (ruleopt.strRandomizer.length() > 0)) {
+			Randomizer randomizerObject = GeneralUtil.loadRandomizer(ruleopt.strRandomizer);
+			engine.randomizer = randomizerObject;
+		}
+
+		// Wallkick
+		if((ruleopt.strWallkick != null) && (ruleopt.strWallkick.length() > 0)) {
+			Wallkick wallkickObject = GeneralUtil.loadWallkick(ruleopt.strWallkick);
+			engine.wallkick = wallkickObject;
+		}
+	}
+
+	/**
+	 * Reset frame counters
+	 */
+	protected void resetCounters() {
+		script = new ReplayData[gameManager.getPlayers()];
+		frames = 0;
+		elapsedTime = 0;
+		gameWasActive = false;
+	}
+
+	/**
+	 * Set scripted inputs of a player (used instead of the keyboard; ignored in replays)
+	 * @param playerID Player ID
+	 * @param data Button bits for each frame, counted from the start of the game manager (not from READY)
+	 */
+	public void setScript(int playerID, ReplayData data) {
+		script[playerID] = data;
+	}
+
+	/**
+	 * Run until the game ends
+	 * @param maxFrames Maximum number of frames
+	 * @return true if the game has ended, false if maxFrames has been reached
+	 */
+	public boolean run(long maxFrames) {
+		long start = System.nanoTime();
+
+		while(!isFinished() && (frames < maxFrames)) {
+			runFrame();
+		}
+
+		elapsedTime += System.nanoTime() - start;
+		return isFinished();
+	}
+
+	/**
+	 * Run until the game ends and the game over screen is done (the point where a replay is saved)
+	 * @param maxFrames Maximum number of frames
+	 * @return true if the game has ended, false if maxFrames has been reached
+	 */
+	public boolean runToResult(long maxFrames) {
+		if(!run(maxFrames)) return false;
+
+		long start = System.nanoTime();
+
+		while(isGameOverScreen() && (frames < maxFrames)) {
+			runFrame();
+		}
+
+		elapsedTime += System.nanoTime() - start;
+		return true;
+	}
+
+	/**
+	 * Check whether a player is still in the game over screen
+	 * @return true if any player is in the game over screen
+	 */
+	protected boolean isGameOverScreen() {
+		for(int i = 0; i < gameManager.getPlayers(); i++) {
+			if(gameManager.engine[i].stat == GameEngine.STAT_GAMEOVER) return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Get the results as they would be written to a replay file (Statistics and the result properties of the mode)
+	 * @return Results
+	 */
+	public CustomProperties getResultProperties() {
+		CustomProperties prop = new CustomProperties();
+
+		// Modes write their results to owner.replayProp, so it is swapped while they do
+		CustomProperties replayProp = gameManager.replayProp;
+		gameManager.replayProp = prop;
+
+		for(int i = 0; i < gameManager.getPlayers(); i++) {
+			GameEngine engine = gameManager.engine[i];
+			engine.statistics.writeProperty(prop, i);
+			if(gameManager.mode != null) gameManager.mode.saveReplay(engine, i, prop);
+		}
+
+		gameManager.replayProp = replayProp;
+		return prop;
+	}
+
+	/**
+	 * Run one frame
+	 */
+	public void runFrame() {
+		if(!gameManager.replayMode) {
+			for(int i = 0; i < script.length; i++) {
+				if(script[i] != null) gameManager.engine[i].ctrl.setButtonBit(script[i].getInputData((int)frames));
+			}
+		}
+
+		gameManager.updateAll();
+		frames++;
+
+		if(gameManager.isGameActive()) gameWasActive = true;
+	}
+
+	/**
+	 * Check whether the game has ended
+	 * @return true if the game has ended or the mode asked to quit
+	 */
+	public boolean isFinished() {
+		if(gameManager.getQuitFlag()) return true;
+		return gameWasActive && !gameManager.isGameActive();
+	}
+
+	/**
+	 * Get the number of frames run
+	 * @return Number of frames
+	 */
+	public long getFrames() {
+		return frames;
+	}
+
+	/**
+	 * Get the time spent in run
+	 * @return Time (nanoseconds)
+	 */
+	public long getElapsedTime() {
+		return elapsedTime;
+	}
+
+	/**
+	 * Get the speed
+	 * @return Frames per second
+	 */
+	public double getFramesPerSecond() {
+		if(elapsedTime <= 0) return 0;
+		return frames * 1000000000.0 / elapsedTime;
+	}
+
+	/**
+	 * Get a one-line summary of the result of a player
+	 * @param playerID Player ID
+	 * @return Summary
+	 */
+	public String getResultString(int playerID) {
+		Statistics s = gameManager.engine[playerID].statistics;
+		return "Player " + (playerID + 1) + ": Score:" + s.score + " Lines:" + s.lines + " Level:" + (s.level + s.levelDispAdd) +
+			" Pieces:" + s.totalPieceLocked + " Time:" + GeneralUtil.getTime(s.time);
+	}
+
+	/**
+	 * Shut down the game
+	 */
+	public void shutdown() {
+		if(gameManager != null) {
+			gameManager.shutdown();
+			gameManager = null;
+		}
+	}
+
+	/**
+	 * Main
+	 * @param args Command line arguments
+	 */
+	public static void main(String[] args) {
+		String modeList = DEFAULT_MODE_LIST;
+		String modeName = null;
+		String ruleName = null;
+		String replayName = null;
+		String scriptName = null;
+		String aiName = null;
+		long maxFrames = DEFAULT_MAX_FRAMES;
+		int repeat = 1;
+
+		for(int i = 0; i + 1 < args.length; i += 2) {
+			if(args[i].equals("-modelist")) modeList = args[i + 1];
+			else if(args[i].equals("-mode")) modeName = args[i + 1];
+			else if(args[i].equals("-rule")) ruleName = args[i + 1];
+			else if(args[i].equals("-replay")) replayName = args[i + 1];
+			else if(args[i].equals("-script")) scriptName = args[i + 1];
+			else if(args[i].equals("-ai")) aiName = args[i + 1];
+			else if(args[i].equals("-frames")) maxFrames = Long.parseLong(args[i + 1]);
+			else if(args[i].equals("-repeat")) repeat = Integer.parseInt(args[i + 1]);
+			else System.err.println("Unknown option: " + args[i]);
+		}
+
+		CustomProperties replayProp = null;
+		if(replayName != null) {
+			replayProp = loadProperties(replayName);
+			if(replayProp == null) {
+				System.err.println("Couldn't load replay: " + replayName);
+				System.exit(1);
+			}
+			if(modeName == null) modeName = replayProp.getProperty("name.mode", "");
+		}
+		if((modeName == null) || ((ruleName == null) && (replayProp == null))) {
+			System.err.println("Usage: HeadlessRunner -mode <name> (-rule <file> | -replay <file>) [-modelist <file>] [-ai <class>]" +
+				" [-script <replay file>] [-frames <max frames>] [-repeat <count>]");
+			System.exit(1);
+		}
+
+		ModeManager modeManager = loadModeManager(modeList);
+		GameMode modeTemplate = modeManager.getMode(modeName);
+		if(modeTemplate == null) {
+			System.err.println("Couldn't find mode: " + modeName);
+			System.exit(1);
+		}
+
+		RuleOptions ruleopt = (ruleName != null) ? GeneralUtil.loadRule(ruleName) : null;
+
+		ReplayData scriptData = null;
+		if(scriptName != null) {
+			CustomProperties scriptProp = loadProperties(scriptName);
+			if(scriptProp != null) {
+				scriptData = new ReplayData();
+				scriptData.readProperty(scriptProp, 0);
+			}
+		}
+
+		long totalFrames = 0, totalTime = 0;
+		for(int r = 0; r < repeat; r++) {
+			HeadlessRunner runner = new HeadlessRunner();
+			GameMode mode = newModeInstance(modeTemplate);
+			if(mode == null) System.exit(1);
+
+			if(replayProp != null) {
+				runner.startReplayGame(mode, replayProp);
+			} else {
+				runner.startNewGame(mode, ruleopt, aiName);
+				if(scriptData != null) runner.setScript(0, scriptData);
+			}
+
+			boolean ended = runner.run(maxFrames);
+
+			System.out.println("Run " + (r + 1) + ": " + (ended ? "Ended" : "Stopped") + " after " + runner.getFrames() + " frames, " +
+				String.format("%.1f", runner.getFramesPerSecond()) + " frames/sec");
+			for(int i = 0; i < runner.gameManager.getPlayers(); i++) {
+				System.out.println("  " + runner.getResultString(i));
+			}
+
+			totalFrames += runner.getFrames();
+			totalTime += runner.getElapsedTime();
+			runner.shutdown();
+		}
+
+		if(repeat > 1) {
+			System.out.println("Total: " + totalFrames + " frames, " +
+				String.format("%.1f", (totalTime > 0) ? totalFrames * 1000000000.0 / totalTime : 0.0) + " frames/sec");
+		}
+	}
+}
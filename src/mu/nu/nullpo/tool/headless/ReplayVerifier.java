@@ -0,0 +1,355 @@
+/*
+    Copyright (c) 2010, NullNoname
+    All rights reserved.
+
+    Redistribution and use in source and binary forms, with or without
+    modification, are permitted provided that the following conditions are met:
+
+        * Redistributions of source code must retain the above copyright
+          notice, this list of conditions and the following disclaimer.
+        * Redistributions in binary form must reproduce the above copyright
+          notice, this list of conditions and the following disclaimer in the
+          documentation and/or other materials provided with the distribution.
+        * Neither the name of NullNoname nor the names of its
+          contributors may be used to endorse or promote products derived from
+          this software without specific prior written permission.
+
+    THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+    AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+    IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+    ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+    LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+    CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+    SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+    INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+    CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+    ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+    POSSIBILITY OF SUCH DAMAGE.
+*/
+package mu.nu.nullpo.tool.headless;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.log4j.Logger;
+
+import mu.nu.nullpo.game.subsystem.mode.GameMode;
+import mu.nu.nullpo.util.CustomProperties;
+import mu.nu.nullpo.util.ModeManager;
+
+/**
+ * Replay verifier - plays back many replays without a window and checks that the results match the replay files
+ * <p>
+ * Each replay is played back on its own GameManager and mode instance, one replay per thread at a time.
+ * The Statistics and the result properties written by the mode (e.g. result.grade.name) are compared
+ * with the values in the replay file.
+ * <p>
+ * Usage: ReplayVerifier [-modelist &lt;file&gt;] [-threads &lt;count&gt;] [-frames &lt;max frames&gt;] [-report &lt;file&gt;]
+ * &lt;replay files or directories...&gt;
+ */
+public class ReplayVerifier {
+	/** Log */
+	static Logger log = Logger.getLogger(ReplayVerifier.class);
+
+	/** Replay file extension */
+	public static final String REPLAY_EXTENSION = ".rep";
+
+	/** Frames allowed on top of the recorded input frames (READY, game over screen etc.) */
+	public static final long EXTRA_FRAMES = 60 * 60;
+
+	/** Properties that are not compared (they depend on the speed of the machine) */
+	public static final String[] IGNORED_KEY_SUFFIXES = {".statistics.gamerate"};
+
+	/** Result: Results match */
+	public static final int RESULT_OK = 0,
+							RESULT_MISMATCH = 1,
+							RESULT_TIMEOUT = 2,
+							RESULT_ERROR = 3;
+
+	/** Result names */
+	public static final String[] RESULT_NAMES = {"OK", "MISMATCH", "TIMEOUT", "ERROR"};
+
+	/** Mode list */
+	protected ModeManager modeManager;
+
+	/** Maximum number of frames of one replay (0: recorded input frames + EXTRA_FRAMES) */
+	protected long maxFrames;
+
+	/**
+	 * Constructor
+	 * @param modeManager Mode list
+	 * @param maxFrames Maximum number of frames of one replay (0: recorded input frames + EXTRA_FRAMES)
+	 */
+	public ReplayVerifier(ModeManager modeManager, long maxFrames) {
+		this.modeManager = modeManager;
+		this.maxFrames = maxFrames;
+	}
+
+	/**
+	 * Verify replays
+	 * @param files Replay files
+	 * @param threads Number of threads
+	 * @return Results (same order as files)
+	 * @throws Exception If a thread was interrupted
+	 */
+	public List<Result> verifyAll(List<File> files, int threads) throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		List<Result> results = new ArrayList<Result>(files.size());
+
+		try {
+			List<Future<Result>> futures = new ArrayList<Future<Result>>(files.size());
+			for(final File file: files) {
+				futures.add(executor.submit(new Callable<Result>() {
+					public Result call() {
+						return verify(file);
+					}
+				}));
+			}
+			for(int i = 0; i < futures.size(); i++) {
+				results.add(futures.get(i).get());
+			}
+		} finally {
+			executor.shutdown();
+		}
+
+		return results;
+	}
+
+	/**
+	 * Verify a replay
+	 * @param file Replay file
+	 * @return Result
+	 */
+	public Result verify(File file) {
+		Result result = new Result(file);
+
+		CustomProperties claimed = HeadlessRunner.loadProperties(file.getPath());
+		if(claimed == null) {
+			result.setError("Couldn't load the replay");
+			return result;
+		}
+
+		String modeName = claimed.getProperty("name.mode", "");
+		GameMode modeTemplate = modeManager.getMode(modeName);
+		if(modeTemplate == null) {
+			result.setError("Unknown mode: " + modeName);
+			return result;
+		}
+		GameMode mode = HeadlessRunner.newModeInstance(modeTemplate);
+		if(mode == null) {
+			result.setError("Couldn't create mode: " + modeName);
+			return result;
+		}
+
+		// The game gets its own copy so that the claimed values stay as they are
+		CustomProperties replayProp = new CustomProperties();
+		replayProp.putAll(claimed);
+
+		HeadlessRunner runner = new HeadlessRunner();
+		try {
+			runner.startReplayGame(mode, replayProp);
+
+			long limit = maxFrames;
+			if(limit <= 0) {
+				for(int i = 0; i < runner.gameManager.getPlayers(); i++) {
+					limit = Math.max(limit, claimed.getProperty(i + ".r.max", 0));
+				}
+				limit += EXTRA_FRAMES;
+			}
+
+			boolean ended = runner.runToResult(limit);
+			result.frames = runner.getFrames();
+			result.time = runner.getElapsedTime();
+
+			if(!ended) {
+				result.status = RESULT_TIMEOUT;
+				result.differences.add("Game didn't end in " + limit + " frames");
+			} else {
+				compare(claimed, runner.getResultProperties(), result.differences);
+				result.status = result.differences.isEmpty() ? RESULT_OK : RESULT_MISMATCH;
+			}
+		} catch (Throwable e) {
+			log.warn("Error while verifying " + file, e);
+			result.setError(e.toString());
+		} finally {
+			runner.shutdown();
+		}
+
+		return result;
+	}
+
+	/**
+	 * Compare the results of a replay with the values in the replay file
+	 * @param claimed Replay file
+	 * @param actual Results of the replay
+	 * @param differences Differences are added here
+	 */
+	public static void compare(CustomProperties claimed, CustomProperties actual, List<String> differences) {
+		List<String> keys = new ArrayList<String>(actual.stringPropertyNames());
+		Collections.sort(keys);
+
+		for(String key: keys) {
+			if(isIgnored(key)) continue;
+
+			// Not in the replay (older version)
+			String claimedValue = claimed.getProperty(key);
+			if(claimedValue == null) continue;
+
+			String actualValue = actual.getProperty(key);
+			if(!claimedValue.equals(actualValue)) {
+				differences.add(key + ": replay=" + claimedValue + " actual=" + actualValue);
+			}
+		}
+	}
+
+	/**
+	 * Check whether a property is not compared
+	 * @param key Property name
+	 * @return true if the property is not compared
+	 */
+	protected static boolean isIgnored(String key) {
+		for(int i = 0; i < IGNORED_KEY_SUFFIXES.length; i++) {
+			if(key.endsWith(IGNORED_KEY_SUFFIXES[i])) return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Add replay files (directories are searched recursively)
+	 * @param file File or directory
+	 * @param list Files are added here
+	 */
+	public static void addReplayFiles(File file, List<File> list) {
+		if(file.isDirectory()) {
+			File[] children = file.listFiles();
+			if(children == null) return;
+			Arrays.sort(children);
+			for(int i = 0; i < children.length; i++) {
+				if(children[i].isDirectory() || children[i].getName().endsWith(REPLAY_EXTENSION)) addReplayFiles(children[i], list);
+			}
+		} else {
+			list.add(file);
+		}
+	}
+
+	/**
+	 * Print a report
+	 * @param results Results
+	 * @param wallTime Time taken by everything (nanoseconds)
+	 * @param out Output
+	 */
+	public static void printReport(List<Result> results, long wallTime, PrintStream out) {
+		int[] count = new int[RESULT_NAMES.length];
+		long totalFrames = 0;
+
+		for(Result r: results) {
+			count[r.status]++;
+			totalFrames += r.frames;
+
+			if(r.status != RESULT_OK) {
+				out.println(RESULT_NAMES[r.status] + " " + r.file.getPath());
+				for(String d: r.differences) {
+					out.println("  " + d);
+				}
+			}
+		}
+
+		out.println();
+		out.print("Replays: " + results.size());
+		for(int i = 0; i < RESULT_NAMES.length; i++) {
+			out.print(", " + RESULT_NAMES[i] + ": " + count[i]);
+		}
+		out.println();
+		out.println("Frames: " + totalFrames + ", " + String.format("%.1f", (wallTime > 0) ? totalFrames * 1000000000.0 / wallTime : 0.0) +
+			" frames/sec, " + String.format("%.2f", wallTime / 1000000000.0) + " sec");
+	}
+
+	/**
+	 * Main
+	 * @param args Command line arguments
+	 */
+	public static void main(String[] args) throws Exception {
+		String modeList = HeadlessRunner.DEFAULT_MODE_LIST;
+		int threads = Runtime.getRuntime().availableProcessors();
+		long maxFrames = 0;
+		String reportName = null;
+		List<File> files = new ArrayList<File>();
+
+		for(int i = 0; i < args.length; i++) {
+			if(args[i].equals("-modelist") && (i + 1 < args.length)) modeList = args[++i];
+			else if(args[i].equals("-threads") && (i + 1 < args.length)) threads = Integer.parseInt(args[++i]);
+			else if(args[i].equals("-frames") && (i + 1 < args.length)) maxFrames = Long.parseLong(args[++i]);
+			else if(args[i].equals("-report") && (i + 1 < args.length)) reportName = args[++i];
+			else addReplayFiles(new File(args[i]), files);
+		}
+
+		if(files.isEmpty()) {
+			System.err.println("Usage: ReplayVerifier [-modelist <file>] [-threads <count>] [-frames <max frames>] [-report <file>]" +
+				" <replay files or directories...>");
+			System.exit(1);
+		}
+
+		ReplayVerifier verifier = new ReplayVerifier(HeadlessRunner.loadModeManager(modeList), maxFrames);
+
+		long start = System.nanoTime();
+		List<Result> results = verifier.verifyAll(files, Math.max(1, threads));
+		long wallTime = System.nanoTime() - start;
+
+		printReport(results, wallTime, System.out);
+		if(reportName != null) {
+			PrintStream out = new PrintStream(new FileOutputStream(reportName));
+			printReport(results, wallTime, out);
+			out.close();
+		}
+
+		for(Result r: results) {
+			if(r.status != RESULT_OK) System.exit(2);
+		}
+	}
+
+	/**
+	 * Result of one replay
+	 */
+	public static class Result {
+		/** Replay file */
+		public File file;
+
+		/** Result (RESULT_*) */
+		public int status;
+
+		/** Differences and errors */
+		public List<String> differences = new ArrayList<String>();
+
+		/** Number of frames played */
+		public long frames;
+
+		/** Time taken (nanoseconds) */
+		public long time;
+
+		/**
+		 * Constructor
+		 * @param file Replay file
+		 */
+		public Result(File file) {
+			this.file = file;
+		}
+
+		/**
+		 * Mark as an error
+		 * @param message Error message
+		 */
+		public void setError(String message) {
+			status = RESULT_ERROR;
+			differences.add(message);
+		}
+	}
+}
@@ -0,0 +1,381 @@
+/*
+    Copyright (c) 2010, NullNoname
+    All rights reserved.
+
+    Redistribution and use in source and binary forms, with or without
+    modification, are permitted provided that the following conditions are met:
+
+        * Redistributions of source code must retain the above copyright
+          notice, this list of conditions and the following disclaimer.
+        * Redistributions in binary form must reproduce the above copyright
+          notice, this list of conditions and the following disclaimer in the
+          documentation and/or other materials provided with the distribution.
+        * Neither the name of NullNoname nor the names of its
+          contributors may be used to endorse or promote products derived from
+          this software without specific prior written permission.
+
+    THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+    AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+    IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+    ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+    LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+    CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+    SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+    INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+    CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+    ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+    POSSIBILITY OF SUCH DAMAGE.
+*/
+package mu.nu.nullpo.tool.randomizeranalyzer;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import mu.nu.nullpo.game.component.Piece;
+import mu.nu.nullpo.game.subsystem.randomizer.BatchRandomizer;
+import mu.nu.nullpo.game.subsystem.randomizer.SplitRandom;
+
+/**
+ * Randomizer analyzer - piece distribution and speed of the randomizers in the randomizer package
+ * <p>
+ * Usage: RandomizerAnalyzer [pieces] [threads] [seed] [class names...]
+ * <ul>
+ * <li>pieces: Number of pieces made by each randomizer (Default: 100000000)</li>
+ * <li>threads: Number of threads (Default: number of processors)</li>
+ * <li>seed: Random seed in hex (Default: random)</li>
+ * <li>class names: Randomizers to analyze (Default: all of them)</li>
+ * </ul>
+ */
+public class RandomizerAnalyzer {
+	/** Randomizers analyzed by default */
+	public static final String[] DEFAULT_RANDOMIZERS = {
+		"mu.nu.nullpo.game.subsystem.randomizer.BagRandomizer",
+		"mu.nu.nullpo.game.subsystem.randomizer.BagRandomizerNoSZO",
+		"mu.nu.nullpo.game.subsystem.randomizer.History4RollsRandomizer",
+		"mu.nu.nullpo.game.subsystem.randomizer.History6RollsRandomizer",
+		"mu.nu.nullpo.game.subsystem.randomizer.MemorylessRandomizer",
+		"mu.nu.nullpo.game.subsystem.randomizer.NintendoRandomizer",
+	};
+
+	/** Number of pieces in one sequence (a new sequence is started after that) */
+	public static final int SEQUENCE_LENGTH = 1 << 20;
+
+	/** Number of pieces made by one fillPieceSequence call */
+	public static final int CHUNK_SIZE = 4096;
+
+	/** Droughts of this length or longer are counted together */
+	public static final int MAX_DROUGHT = 64;
+
+	/** Number of pieces made by each benchmark iteration */
+	public static final int BENCHMARK_PIECES = 1 << 22;
+
+	/** Number of benchmark warmup iterations */
+	public static final int BENCHMARK_WARMUP = 5;
+
+	/** Number of measured benchmark iterations */
+	public static final int BENCHMARK_ITERATIONS = 10;
+
+	/**
+	 * Main
+	 * @param args Command line arguments
+	 */
+	public static void main(String[] args) throws Exception {
+		long pieces = (args.length > 0) ? Long.parseLong(args[0]) : 100000000L;
+		int threads = (args.length > 1) ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+		long seed = (args.length > 2) ? Long.parseLong(args[2], 16) : System.nanoTime();
+		String[] classNames = DEFAULT_RANDOMIZERS;
+		if(args.length > 3) {
+			classNames = new String[args.length - 3];
+			System.arraycopy(args, 3, classNames, 0, classNames.length);
+		}
+
+		boolean[] pieceEnable = new boolean[Piece.PIECE_COUNT];
+		for(int i = 0; i < Piece.PIECE_STANDARD_COUNT; i++) pieceEnable[i] = true;
+
+		System.out.println("Pieces:" + pieces + " Threads:" + threads + " Seed:" + Long.toString(seed, 16));
+
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			for(int i = 0; i < classNames.length; i++) {
+				Class<?> randomizerClass = Class.forName(classNames[i]);
+
+				System.out.println();
+				System.out.println("=== " + randomizerClass.getSimpleName());
+
+				long time = System.nanoTime();
+				Stats stats = analyze(executor, randomizerClass, pieceEnable, pieces, threads, new SplitRandom(seed));
+				time = System.nanoTime() - time;
+
+				stats.print(System.out);
+				System.out.println("Throughput (with statistics, " + threads + " threads): " + perSecond(stats.total, time) + " pieces/sec");
+				System.out.println("Throughput (generation only, 1 thread): " + perSecond(BENCHMARK_PIECES, benchmark(randomizerClass, pieceEnable, seed)) + " pieces/sec");
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * Run a randomizer on several threads and collect statistics
+	 * @param executor Executor
+	 * @param randomizerClass Randomizer class (must implement BatchRandomizer)
+	 * @param pieceEnable Piece enable flags
+	 * @param pieces Number of pieces
+	 * @param threads Number of tasks
+	 * @param random Random number generator (each task gets a split of it)
+	 * @return Statistics of all tasks
+	 */
+	public static Stats analyze(ExecutorService executor, Class<?> randomizerClass, boolean[] pieceEnable, long pieces, int threads, SplitRandom random)
+		throws Exception
+	{
+		List<Future<Stats>> futures = new ArrayList<Future<Stats>>();
+		for(int i = 0; i < threads; i++) {
+			long count = pieces / threads + ((i < pieces % threads) ? 1 : 0);
+			futures.add(executor.submit(new AnalyzeTask((BatchRandomizer)randomizerClass.getDeclaredConstructor().newInstance(), pieceEnable, count, random.split())));
+		}
+
+		Stats stats = new Stats();
+		for(int i = 0; i < futures.size(); i++) {
+			stats.add(futures.get(i).get());
+		}
+		return stats;
+	}
+
+	/**
+	 * Measure the speed of a randomizer without statistics
+	 * @param randomizerClass Randomizer class (must implement BatchRandomizer)
+	 * @param pieceEnable Piece enable flags
+	 * @param seed Random seed
+	 * @return Average time of one iteration (BENCHMARK_PIECES pieces) in nanoseconds
+	 */
+	public static long benchmark(Class<?> randomizerClass, boolean[] pieceEnable, long seed) throws Exception {
+		BatchRandomizer randomizer = (BatchRandomizer)randomizerClass.getDeclaredConstructor().newInstance();
+		SplitRandom random = new SplitRandom(seed);
+		int[] pieceArray = new int[CHUNK_SIZE];
+		long total = 0;
+		int sink = 0;
+
+		for(int i = 0; i < BENCHMARK_WARMUP + BENCHMARK_ITERATIONS; i++) {
+			long time = System.nanoTime();
+			randomizer.startPieceSequence(pieceEnable);
+			for(int j = 0; j < BENCHMARK_PIECES; j += CHUNK_SIZE) {
+				randomizer.fillPieceSequence(pieceArray, 0, CHUNK_SIZE, random);
+				sink += pieceArray[CHUNK_SIZE - 1];
+			}
+			time = System.nanoTime() - time;
+			if(i >= BENCHMARK_WARMUP) total += time;
+		}
+
+		// Keep the JIT from removing the loop
+		if(sink == -1) System.out.println();
+
+		return total / BENCHMARK_ITERATIONS;
+	}
+
+	/**
+	 * Get a number per second
+	 * @param count Count
+	 * @param nanos Time in nanoseconds
+	 * @return count per second
+	 */
+	private static long perSecond(long count, long nanos) {
+		if(nanos <= 0) return 0;
+		return (long)(count * 1000000000.0 / nanos);
+	}
+
+	/**
+	 * Task that runs a randomizer and collects statistics
+	 */
+	protected static class AnalyzeTask implements Callable<Stats> {
+		/** Randomizer */
+		private BatchRandomizer randomizer;
+
+		/** Piece enable flags */
+		private boolean[] pieceEnable;
+
+		/** Number of pieces */
+		private long pieces;
+
+		/** Random number generator */
+		private SplitRandom random;
+
+		/**
+		 * Constructor
+		 * @param randomizer Randomizer
+		 * @param pieceEnable Piece enable flags
+		 * @param pieces Number of pieces
+		 * @param random Random number generator
+		 */
+		public AnalyzeTask(BatchRandomizer randomizer, boolean[] pieceEnable, long pieces, SplitRandom random) {
+			this.randomizer = randomizer;
+			this.pieceEnable = pieceEnable;
+			this.pieces = pieces;
+			this.random = random;
+		}
+
+		/*
+		 * Run
+		 */
+		public Stats call() {
+			Stats stats = new Stats();
+			int[] pieceArray = new int[CHUNK_SIZE];
+			long done = 0;
+
+			while(done < pieces) {
+				// New sequence
+				randomizer.startPieceSequence(pieceEnable);
+				stats.startSequence();
+
+				long seqLeft = Math.min(SEQUENCE_LENGTH, pieces - done);
+				while(seqLeft > 0) {
+					int len = (int)Math.min(CHUNK_SIZE, seqLeft);
+					randomizer.fillPieceSequence(pieceArray, 0, len, random);
+					stats.count(pieceArray, len);
+					seqLeft -= len;
+					done += len;
+				}
+			}
+
+			return stats;
+		}
+	}
+
+	/**
+	 * Piece distribution statistics
+	 */
+	public static class Stats {
+		/** Total number of pieces */
+		public long total;
+
+		/** Number of each piece */
+		public long[] pieceCount = new long[Piece.PIECE_COUNT];
+
+		/** Number of droughts of each length ([piece][pieces between two of the piece], the last one is MAX_DROUGHT or longer) */
+		public long[][] droughtCount = new long[Piece.PIECE_COUNT][MAX_DROUGHT + 1];
+
+		/** Sum of drought lengths of each piece */
+		public long[] droughtSum = new long[Piece.PIECE_COUNT];
+
+		/** Longest drought of each piece */
+		public long[] droughtMax = new long[Piece.PIECE_COUNT];
+
+		/** Number of pieces which are the same as the previous piece */
+		public long repeatCount;
+
+		/** Number of pieces which are one of the previous 4 pieces */
+		public long historyRepeatCount;
+
+		/** Position of the last appearance of each piece in the current sequence (-1: not yet) */
+		private long[] lastSeen = new long[Piece.PIECE_COUNT];
+
+		/** Last 4 pieces, 4 bits each (newest at the lowest bits, 0xF: none) */
+		private int history;
+
+		/** Position in the current sequence */
+		private long position;
+
+		/**
+		 * Start a new sequence
+		 */
+		public void startSequence() {
+			for(int i = 0; i < lastSeen.length; i++) lastSeen[i] = -1;
+			history = 0xFFFF;
+			position = 0;
+		}
+
+		/**
+		 * Count pieces
+		 * @param pieceArray Pieces
+		 * @param length Number of pieces
+		 */
+		public void count(int[] pieceArray, int length) {
+			for(int i = 0; i < length; i++) {
+				int id = pieceArray[i];
+
+				pieceCount[id]++;
+				if((history & 0xF) == id) repeatCount++;
+				if(((history & 0xF) == id) || (((history >>> 4) & 0xF) == id) ||
+				   (((history >>> 8) & 0xF) == id) || (((history >>> 12) & 0xF) == id))
+				{
+					historyRepeatCount++;
+				}
+				history = ((history << 4) | id) & 0xFFFF;
+
+				if(lastSeen[id] >= 0) {
+					long drought = position - lastSeen[id] - 1;
+					droughtCount[id][(int)Math.min(drought, MAX_DROUGHT)]++;
+					droughtSum[id] += drought;
+					if(drought > droughtMax[id]) droughtMax[id] = drought;
+				}
+				lastSeen[id] = position;
+				position++;
+			}
+			total += length;
+		}
+
+		/**
+		 * Add statistics of another task
+		 * @param s Statistics
+		 */
+		public void add(Stats s) {
+			total += s.total;
+			repeatCount += s.repeatCount;
+			historyRepeatCount += s.historyRepeatCount;
+			for(int i = 0; i < Piece.PIECE_COUNT; i++) {
+				pieceCount[i] += s.pieceCount[i];
+				droughtSum[i] += s.droughtSum[i];
+				droughtMax[i] = Math.max(droughtMax[i], s.droughtMax[i]);
+				for(int j = 0; j <= MAX_DROUGHT; j++) droughtCount[i][j] += s.droughtCount[i][j];
+			}
+		}
+
+		/**
+		 * Get a drought length percentile of a piece
+		 * @param id Piece ID
+		 * @param p Percentile (0.0-1.0)
+		 * @return Drought length (MAX_DROUGHT means MAX_DROUGHT or longer)
+		 */
+		public int getDroughtPercentile(int id, double p) {
+			long n = 0;
+			for(int j = 0; j <= MAX_DROUGHT; j++) n += droughtCount[id][j];
+			if(n == 0) return 0;
+
+			long target = (long)Math.ceil(n * p);
+			long sum = 0;
+			for(int j = 0; j <= MAX_DROUGHT; j++) {
+				sum += droughtCount[id][j];
+				if(sum >= target) return j;
+			}
+			return MAX_DROUGHT;
+		}
+
+		/**
+		 * Print the statistics
+		 * @param out Output
+		 */
+		public void print(PrintStream out) {
+			out.println("Piece   Frequency   Drought(avg)  p99  p99.99  max");
+			for(int i = 0; i < Piece.PIECE_COUNT; i++) {
+				if(pieceCount[i] == 0) continue;
+
+				long droughts = 0;
+				for(int j = 0; j <= MAX_DROUGHT; j++) droughts += droughtCount[i][j];
+
+				out.println(String.format("%-5s %10.5f%% %13.3f %4d %7d %4d",
+						Piece.getPieceName(i),
+						pieceCount[i] * 100.0 / total,
+						(droughts > 0) ? (double)droughtSum[i] / droughts : 0.0,
+						getDroughtPercentile(i, 0.99),
+						getDroughtPercentile(i, 0.9999),
+						droughtMax[i]));
+			}
+			out.println(String.format("Repeat rate (same as the previous piece): %.5f%%", repeatCount * 100.0 / total));
+			out.println(String.format("History repeat rate (one of the previous 4 pieces): %.5f%%", historyRepeatCount * 100.0 / total));
+		}
+	}
+}
@@ -0,0 +1,456 @@
+/*
+    Copyright (c) 2010, NullNoname
+    All rights reserved.
+
+    Redistribution and use in source and binary forms, with or without
+    modification, are permitted provided that the following conditions are met:
+
+        * Redistributions of source code must retain the above copyright
+          notice, this list of conditions and the following disclaimer.
+        * Redistributions in binary form must reproduce the above copyright
+          notice, this list of conditions and the following disclaimer in the
+          documentation and/or other materials provided with the distribution.
+        * Neither the name of NullNoname nor the names of its
+          contributors may be used to endorse or promote products derived from
+          this software without specific prior written permission.
+
+    THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+    AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+    IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+    ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+    LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+    CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+    SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+    INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+    CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+    ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+    POSSIBILITY OF SUCH DAMAGE.
+*/
+package mu.nu.nullpo.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import mu.nu.nullpo.game.component.ReplayData;
+
+/**
+ * Binary replay file format
+ * <p>
+ * Holds the same data as a text replay (a property file), but button inputs are stored as runs of
+ * (button bits, length) in varints instead of one "&lt;id&gt;.r.&lt;frame&gt;" property per change.
+ * <pre>
+ * "NPRB" format version (1 byte) flags (1 byte)
+ * Body (deflate compressed if FLAG_COMPRESSED):
+ *   Header: mode name, rule name, core version, player count, random seed of each player
+ *   Other properties: count, (key, value)...
+ *   Inputs of each player: number of frames, (button bits, run length)...
+ * </pre>
+ * Strings are a varint (length + 1, 0 for null) followed by UTF-8 bytes.
+ */
+public class BinaryReplay {
+	/** File signature */
+	public static final byte[] MAGIC = {'N', 'P', 'R', 'B'};
+
+	/** Format version */
+	public static final int FORMAT_VERSION = 1;
+
+	/** Flag: Body is deflate compressed */
+	public static final int FLAG_COMPRESSED = 1;
+
+	/** Properties stored in the header (per-player ones start with "&lt;id&gt;.") */
+	protected static final String KEY_MODE = "name.mode",
+								   KEY_RULE = "name.rule",
+								   KEY_VERSION = "version.core",
+								   KEY_RANDSEED = ".replay.randSeed";
+
+	/** Comment of text replays */
+	public static final String TEXT_COMMENT = "NullpoMino Replay";
+
+	/**
+	 * Check whether a stream starts with the binary replay signature (the stream must support mark)
+	 * @param in Input stream
+	 * @return true if it is a binary replay
+	 * @throws IOException When reading fails
+	 */
+	public static boolean isBinary(InputStream in) throws IOException {
+		in.mark(MAGIC.length);
+		boolean result = true;
+		for(int i = 0; i < MAGIC.length; i++) {
+			if(in.read() != MAGIC[i]) {
+				result = false;
+				break;
+			}
+		}
+		in.reset();
+		return result;
+	}
+
+	/**
+	 * Load a replay file (text or binary)
+	 * @param filename Filename
+	 * @return Replay in the text replay layout
+	 * @throws IOException When loading fails
+	 */
+	public static CustomProperties load(String filename) throws IOException {
+		InputStream in = new BufferedInputStream(new FileInputStream(filename));
+		try {
+			return load(in);
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Load a replay (text or binary)
+	 * @param in Input stream
+	 * @return Replay in the text replay layout
+	 * @throws IOException When loading fails
+	 */
+	public static CustomProperties load(InputStream in) throws IOException {
+		if(!in.markSupported()) in = new BufferedInputStream(in);
+
+		CustomProperties prop = new CustomProperties();
+		if(isBinary(in)) {
+			read(in, prop);
+		} else {
+			prop.load(in);
+		}
+		return prop;
+	}
+
+	/**
+	 * Save a replay file
+	 * @param prop Replay
+	 * @param filename Filename
+	 * @param binary true to save in binary, false to save as a text replay
+	 * @throws IOException When saving fails
+	 */
+	public static void save(CustomProperties prop, String filename, boolean binary) throws IOException {
+		OutputStream out = new BufferedOutputStream(new FileOutputStream(filename));
+		try {
+			if(binary) write(prop, out, true);
+			else prop.store(out, TEXT_COMMENT);
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Write a replay in binary
+	 * @param prop Replay (text replay layout)
+	 * @param out Output stream (not closed)
+	 * @param compress true to compress the body
+	 * @throws IOException When writing fails
+	 */
+	public static void write(CustomProperties prop, OutputStream out, boolean compress) throws IOException {
+		out.write(MAGIC);
+		out.write(FORMAT_VERSION);
+		out.write(compress ? FLAG_COMPRESSED : 0);
+
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+
+		// Players are the ones with input data
+		int players = 0;
+		while(prop.getProperty(players + ".r.max") != null) players++;
+
+		// Header
+		writeString(body, prop.getProperty(KEY_MODE));
+		writeString(body, prop.getProperty(KEY_RULE));
+		writeString(body, prop.getProperty(KEY_VERSION));
+		writeVarInt(body, players);
+		for(int i = 0; i < players; i++) {
+			writeString(body, prop.getProperty(i + KEY_RANDSEED));
+		}
+
+		// Other properties
+		List<String> keys = new ArrayList<String>();
+		for(String key: prop.stringPropertyNames()) {
+			if(!isHeaderKey(key, players) && (getInputPlayer(key, players) < 0)) keys.add(key);
+		}
+		Collections.sort(keys);
+		writeVarInt(body, keys.size());
+		for(String key: keys) {
+			writeString(body, key);
+			writeString(body, prop.getProperty(key));
+		}
+
+		// Inputs
+		for(int i = 0; i < players; i++) {
+			writeInputs(body, prop, i);
+		}
+
+		if(compress) {
+			// Not closed because that would close out; end() frees the native zlib state right away
+			Deflater deflater = new Deflater();
+			try {
+				DeflaterOutputStream zout = new DeflaterOutputStream(out, deflater);
+				body.writeTo(zout);
+				zout.finish();
+			} finally {
+				deflater.end();
+			}
+		} else {
+			body.writeTo(out);
+		}
+		out.flush();
+	}
+
+	/**
+	 * Read a binary replay
+	 * @param in Input stream (positioned at the signature)
+	 * @param prop Properties of the text replay layout are added here
+	 * @throws IOException When the data is broken or reading fails
+	 */
+	public static void read(InputStream in, CustomProperties prop) throws IOException {
+		for(int i = 0; i < MAGIC.length; i++) {
+			if(in.read() != MAGIC[i]) throw new IOException("Not a binary replay");
+		}
+		int version = in.read();
+		if((version < 1) || (version > FORMAT_VERSION)) throw new IOException("Unsupported binary replay version: " + version);
+		int flags = in.read();
+		if(flags < 0) throw new EOFException();
+
+		if((flags & FLAG_COMPRESSED) != 0) {
+			// Not closed because that would close in; end() frees the native zlib state right away
+			Inflater inflater = new Inflater();
+			try {
+				readBody(new InflaterInputStream(in, inflater), prop);
+			} finally {
+				inflater.end();
+			}
+		} else {
+			readBody(in, prop);
+		}
+	}
+
+	/**
+	 * Read the body of a binary replay (after the signature, version and flags)
+	 * @param body Input stream (already uncompressed)
+	 * @param prop Properties of the text replay layout are added here
+	 * @throws IOException When the data is broken or reading fails
+	 */
+	protected static void readBody(InputStream body, CustomProperties prop) throws IOException {
+		// Header
+		setProperty(prop, KEY_MODE, readString(body));
+		setProperty(prop, KEY_RULE, readString(body));
+		setProperty(prop, KEY_VERSION, readString(body));
+		int players = readVarInt(body);
+		for(int i = 0; i < players; i++) {
+			setProperty(prop, i + KEY_RANDSEED, readString(body));
+		}
+
+		// Other properties
+		int count = readVarInt(body);
+		for(int i = 0; i < count; i++) {
+			String key = readString(body);
+			setProperty(prop, key, readString(body));
+		}
+
+		// Inputs
+		for(int i = 0; i < players; i++) {
+			readInputs(body, prop, i);
+		}
+	}
+
+	/**
+	 * Write the inputs of a player as runs
+	 * @param out Output stream
+	 * @param prop Replay
+	 * @param playerID Player ID
+	 * @throws IOException When writing fails
+	 */
+	protected static void writeInputs(OutputStream out, CustomProperties prop, int playerID) throws IOException {
+		ReplayData data = new ReplayData();
+		data.readProperty(prop, playerID);
+
+		int max = data.getLength();
+		writeVarInt(out, max);
+
+		int frame = 0;
+		while(frame < max) {
+			int length = data.getRunLength(frame, max);
+			writeVarInt(out, data.getInputData(frame));
+			writeVarInt(out, length);
+			frame += length;
+		}
+	}
+
+	/**
+	 * Read the inputs of a player and add them as "&lt;id&gt;.r.&lt;frame&gt;" properties
+	 * @param in Input stream
+	 * @param prop Replay
+	 * @param playerID Player ID
+	 * @throws IOException When the data is broken or reading fails
+	 */
+	protected static void readInputs(InputStream in, CustomProperties prop, int playerID) throws IOException {
+		int max = readVarInt(in);
+
+		ReplayData data = new ReplayData();
+		while(data.getLength() < max) {
+			int input = readVarInt(in);
+			int length = readVarInt(in);
+			if((length <= 0) || (length > max - data.getLength())) throw new IOException("Broken input data");
+			data.addInputData(input, length);
+		}
+
+		data.writeProperty(prop, playerID, max);
+	}
+
+	/**
+	 * Check whether a property is stored in the header
+	 * @param key Property name
+	 * @param players Number of players
+	 * @return true if it is stored in the header
+	 */
+	protected static boolean isHeaderKey(String key, int players) {
+		if(key.equals(KEY_MODE) || key.equals(KEY_RULE) || key.equals(KEY_VERSION)) return true;
+		if(key.endsWith(KEY_RANDSEED)) {
+			int id = ReplayData.parseFrame(key.substring(0, key.length() - KEY_RANDSEED.length()), 0);
+			return (id >= 0) && (id < players);
+		}
+		return false;
+	}
+
+	/**
+	 * Get the player of an input property ("&lt;id&gt;.r.max" or "&lt;id&gt;.r.&lt;frame&gt;")
+	 * @param key Property name
+	 * @param players Number of players
+	 * @return Player ID (-1 if it is not an input property)
+	 */
+	protected static int getInputPlayer(String key, int players) {
+		int dot = key.indexOf(".r.");
+		if(dot <= 0) return -1;
+
+		int id = ReplayData.parseFrame(key.substring(0, dot), 0);
+		if((id < 0) || (id >= players)) return -1;
+
+		String rest = key.substring(dot + 3);
+		if(rest.equals("max") || (ReplayData.parseFrame(rest, 0) >= 0)) return id;
+		return -1;
+	}
+
+	/**
+	 * Set a property if the value is not null
+	 * @param prop Properties
+	 * @param key Property name
+	 * @param value Value
+	 */
+	protected static void setProperty(CustomProperties prop, String key, String value) {
+		if(value != null) prop.setProperty(key, value);
+	}
+
+	/**
+	 * Write an unsigned varint (7 bits per byte, low bits first)
+	 * @param out Output stream
+	 * @param value Value
+	 * @throws IOException When writing fails
+	 */
+	public static void writeVarInt(OutputStream out, int value) throws IOException {
+		while((value & ~0x7F) != 0) {
+			out.write((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.write(value);
+	}
+
+	/**
+	 * Read an unsigned varint
+	 * @param in Input stream
+	 * @return Value
+	 * @throws IOException When the data is broken or reading fails
+	 */
+	public static int readVarInt(InputStream in) throws IOException {
+		int value = 0;
+		for(int shift = 0; shift < 35; shift += 7) {
+			int b = in.read();
+			if(b < 0) throw new EOFException();
+			value |= (b & 0x7F) << shift;
+			if((b & 0x80) == 0) return value;
+		}
+		throw new IOException("Broken varint");
+	}
+
+	/**
+	 * Write a string
+	 * @param out Output stream
+	 * @param s String (can be null)
+	 * @throws IOException When writing fails
+	 */
+	protected static void writeString(OutputStream out, String s) throws IOException {
+		if(s == null) {
+			writeVarInt(out, 0);
+			return;
+		}
+		byte[] bytes = s.getBytes("UTF-8");
+		writeVarInt(out, bytes.length + 1);
+		out.write(bytes);
+	}
+
+	/**
+	 * Read a string
+	 * @param in Input stream
+	 * @return String (can be null)
+	 * @throws IOException When the data is broken or reading fails
+	 */
+	protected static String readString(InputStream in) throws IOException {
+		int length = readVarInt(in);
+		if(length == 0) return null;
+
+		byte[] bytes = new byte[length - 1];
+		int pos = 0;
+		while(pos < bytes.length) {
+			int n = in.read(bytes, pos, bytes.length - pos);
+			if(n < 0) throw new EOFException();
+			pos += n;
+		}
+		return new String(bytes, "UTF-8");
+	}
+
+	/**
+	 * Converter between text and binary replays
+	 * <p>
+	 * Usage: BinaryReplay [-text] [-nocompress] &lt;input file&gt; &lt;output file&gt;
+	 * (the input file can be either format; the output is binary unless -text is given)
+	 * @param args Command line arguments
+	 */
+	public static void main(String[] args) throws IOException {
+		boolean text = false;
+		boolean compress = true;
+		List<String> files = new ArrayList<String>();
+
+		for(int i = 0; i < args.length; i++) {
+			if(args[i].equals("-text")) text = true;
+			else if(args[i].equals("-nocompress")) compress = false;
+			else files.add(args[i]);
+		}
+
+		if(files.size() != 2) {
+			System.err.println("Usage: BinaryReplay [-text] [-nocompress] <input file> <output file>");
+			System.exit(1);
+		}
+
+		CustomProperties prop = load(files.get(0));
+
+		OutputStream out = new BufferedOutputStream(new FileOutputStream(files.get(1)));
+		try {
+			if(text) prop.store(out, TEXT_COMMENT);
+			else write(prop, out, compress);
+		} finally {
+			out.close();
+		}
+	}
+}
@@ -40,6 +40,7 @@ import org.apache.log4j.Logger;
 import mu.nu.nullpo.game.component.Piece;
 import mu.nu.nullpo.game.component.RuleOptions;
 import mu.nu.nullpo.game.subsystem.ai.DummyAI;
+import mu.nu.nullpo.game.subsystem.wallkick.TableWallkick;
 import mu.nu.nullpo.game.subsystem.wallkick.Wallkick;
 import net.omegaboshi.nullpomino.game.subsystem.randomizer.Randomizer;
 
@@ -216,6 +217,23 @@ public class GeneralUtil {
 		return count;
 	}
 
+	/**
+	 * Get the piece enable flags as a bitmask
+	 * @param pieceEnable Piece enable flags (null: all pieces can appear)
+	 * @return Bitmask (bit id is set when the piece can appear)
+	 */
+	public static int getPieceEnableMask(boolean[] pieceEnable) {
+		if(pieceEnable == null) return (1 << Piece.PIECE_COUNT) - 1;
+
+		int mask = 0;
+
+		for(int i = 0; (i < pieceEnable.length) && (i < Piece.PIECE_COUNT); i++) {
+			if(pieceEnable[i]) mask |= 1 << i;
+		}
+
+		return mask;
+	}
+
 	/**
 	 * Returns true if enabled piece types are S,Z,O only.
 	 * @param pieceEnable Piece enable flags
@@ -300,13 +318,18 @@ public class GeneralUtil {
 
 	/**
 	 * Load Wallkick
-	 * @param filename Classpath of the wallkick
+	 * @param filename Classpath of the wallkick, or a kick table file (*.kick)
 	 * @return Wallkick (null if something fails)
 	 */
 	public static Wallkick loadWallkick(String filename) {
 		Class<?> wallkickClass = null;
 		Wallkick wallkickObject = null;
 
+		// Kick table file
+		if(filename.endsWith(TableWallkick.FILE_EXTENSION)) {
+			return TableWallkick.load(filename);
+		}
+
 		try {
 			wallkickClass = Class.forName(filename);
 			wallkickObject = (Wallkick) wallkickClass.newInstance();
@@ -0,0 +1,540 @@
+/*
+    Copyright (c) 2010, NullNoname
+    All rights reserved.
+
+    Redistribution and use in source and binary forms, with or without
+    modification, are permitted provided that the following conditions are met:
+
+        * Redistributions of source code must retain the above copyright
+          notice, this list of conditions and the following disclaimer.
+        * Redistributions in binary form must reproduce the above copyright
+          notice, this list of conditions and the following disclaimer in the
+          documentation and/or other materials provided with the distribution.
+        * Neither the name of NullNoname nor the names of its
+          contributors may be used to endorse or promote products derived from
+          this software without specific prior written permission.
+
+    THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+    AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+    IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+    ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+    LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+    CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+    SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+    INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+    CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+    ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+    POSSIBILITY OF SUCH DAMAGE.
+*/
+package mu.nu.nullpo.util;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import org.apache.log4j.Logger;
+
+import mu.nu.nullpo.game.component.Field;
+import mu.nu.nullpo.game.component.ReplayData;
+import mu.nu.nullpo.game.component.Statistics;
+
+/**
+ * Writes a replay to a journal file while the game is played, so that the game can be recovered after a crash
+ * <p>
+ * The journal is append-only. Each record is a type byte and its data:
+ * <pre>
+ * "NPRJ" format version (1 byte)
+ * RECORD_PROPERTIES: count, (key, value)...        (rule, random seed, mode settings etc.)
+ * RECORD_INPUT: player ID, button bits, run length
+ * RECORD_CHECKPOINT: player ID, frame, field hash (8 bytes), Statistics as properties
+ * RECORD_END
+ * </pre>
+ * Numbers are varints and strings are written like in {@link BinaryReplay}.
+ * Records are put together on the game thread and written and flushed by a background thread,
+ * which also forces the file to the disk after the properties and each checkpoint.
+ * Input runs that are not finished yet are written at each checkpoint, so a crash loses at most CHECKPOINT_INTERVAL frames.
+ * <p>
+ * Inputs before {@link #getSyncedFrame(int)} are on the disk, so the game can drop them from memory
+ * ({@link ReplayData#discardBefore(int)}) and read them back with {@link #readReplayData(int, ReplayData)} when saving.
+ */
+public class ReplayStreamWriter {
+	/** Log */
+	static Logger log = Logger.getLogger(ReplayStreamWriter.class);
+
+	/** File signature */
+	public static final byte[] MAGIC = {'N', 'P', 'R', 'J'};
+
+	/** Format version */
+	public static final int FORMAT_VERSION = 1;
+
+	/** Journal file extension (added after the replay filename) */
+	public static final String FILE_EXTENSION = ".journal";
+
+	/** Frames between checkpoints (10 seconds) */
+	public static final int CHECKPOINT_INTERVAL = 60 * 10;
+
+	/** Buffered bytes that are handed to the background thread at once */
+	public static final int FLUSH_SIZE = 4096;
+
+	/** Record types */
+	public static final int RECORD_PROPERTIES = 1,
+							RECORD_INPUT = 2,
+							RECORD_CHECKPOINT = 3,
+							RECORD_END = 4;
+
+	/** Journal file */
+	protected File file;
+
+	/** Output stream (used only by the background thread) */
+	protected FileOutputStream out;
+
+	/** Background thread */
+	protected ExecutorService executor;
+
+	/** Records not handed to the background thread yet */
+	protected ByteArrayOutputStream buffer = new ByteArrayOutputStream(FLUSH_SIZE * 2);
+
+	/** Button bits of the current run of each player */
+	protected int[] runInput = new int[0];
+
+	/** Length of the current run of each player */
+	protected int[] runLength = new int[0];
+
+	/** Number of frames of each player that are surely in the file (set by the background thread after each checkpoint) */
+	protected int[] syncedFrame = new int[0];
+
+	/** true after close */
+	protected boolean closed;
+
+	/**
+	 * Constructor (creates the journal file)
+	 * @param file Journal file
+	 * @throws IOException When the file can't be created
+	 */
+	public ReplayStreamWriter(File file) throws IOException {
+		this.file = file;
+		out = new FileOutputStream(file);
+		out.write(MAGIC);
+		out.write(FORMAT_VERSION);
+		out.flush();
+		executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				// Doesn't keep the JVM running if the game is closed without shutting down
+				Thread t = new Thread(r, "ReplayStreamWriter");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	/**
+	 * Get the journal file
+	 * @return Journal file
+	 */
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * Write properties (call when the game starts; later ones overwrite earlier ones when recovering)
+	 * @param prop Properties
+	 */
+	public synchronized void writeProperties(CustomProperties prop) {
+		if(closed) return;
+
+		List<String> keys = new ArrayList<String>(prop.stringPropertyNames());
+		Collections.sort(keys);
+
+		try {
+			buffer.write(RECORD_PROPERTIES);
+			BinaryReplay.writeVarInt(buffer, keys.size());
+			for(String key: keys) {
+				BinaryReplay.writeString(buffer, key);
+				BinaryReplay.writeString(buffer, prop.getProperty(key));
+			}
+		} catch (IOException e) {
+			// ByteArrayOutputStream doesn't throw
+		}
+		flush(true);
+	}
+
+	/**
+	 * Add the button input of the next frame of a player
+	 * @param playerID Player ID
+	 * @param input Button bits
+	 */
+	public synchronized void addInput(int playerID, int input) {
+		if(closed) return;
+
+		if(playerID >= runLength.length) {
+			runInput = Arrays.copyOf(runInput, playerID + 1);
+			runLength = Arrays.copyOf(runLength, playerID + 1);
+		}
+
+		if((runLength[playerID] > 0) && (runInput[playerID] != input)) {
+			writeRun(playerID);
+		}
+		runInput[playerID] = input;
+		runLength[playerID]++;
+
+		if(buffer.size() >= FLUSH_SIZE) flush();
+	}
+
+	/**
+	 * Write a checkpoint (also writes unfinished input runs and flushes)
+	 * @param playerID Player ID
+	 * @param frame Number of frames recorded so far
+	 * @param statistics Statistics
+	 * @param field Field (can be null)
+	 */
+	public synchronized void checkpoint(int playerID, int frame, Statistics statistics, Field field) {
+		if(closed) return;
+
+		for(int i = 0; i < runLength.length; i++) {
+			if(runLength[i] > 0) writeRun(i);
+		}
+
+		CustomProperties prop = new CustomProperties();
+		statistics.writeProperty(prop, playerID);
+		List<String> keys = new ArrayList<String>(prop.stringPropertyNames());
+		Collections.sort(keys);
+
+		try {
+			buffer.write(RECORD_CHECKPOINT);
+			BinaryReplay.writeVarInt(buffer, playerID);
+			BinaryReplay.writeVarInt(buffer, frame);
+			writeLong(buffer, getFieldHash(field));
+			BinaryReplay.writeVarInt(buffer, keys.size());
+			for(String key: keys) {
+				BinaryReplay.writeString(buffer, key);
+				BinaryReplay.writeString(buffer, prop.getProperty(key));
+			}
+		} catch (IOException e) {
+			// ByteArrayOutputStream doesn't throw
+		}
+		flush(true, playerID, frame);
+	}
+
+	/**
+	 * Get the number of frames of a player whose inputs are surely in the journal file
+	 * @param playerID Player ID
+	 * @return Number of frames (the frame of the last checkpoint that has been forced to the disk)
+	 */
+	public synchronized int getSyncedFrame(int playerID) {
+		return (playerID < syncedFrame.length) ? syncedFrame[playerID] : 0;
+	}
+
+	/**
+	 * Set the number of frames of a player whose inputs are surely in the journal file
+	 * @param playerID Player ID
+	 * @param frame Number of frames
+	 */
+	protected synchronized void setSyncedFrame(int playerID, int frame) {
+		if(playerID >= syncedFrame.length) syncedFrame = Arrays.copyOf(syncedFrame, playerID + 1);
+		syncedFrame[playerID] = Math.max(syncedFrame[playerID], frame);
+	}
+
+	/**
+	 * Get all the inputs of a player, reading the frames dropped from memory back from the journal
+	 * @param playerID Player ID
+	 * @param recent Inputs kept in memory (frames before recent.getDiscardedLength() are read from the journal)
+	 * @return All the inputs (recent itself if it has no dropped frames)
+	 * @throws IOException When the journal can't be read or doesn't have the dropped frames
+	 */
+	public ReplayData readReplayData(int playerID, ReplayData recent) throws IOException {
+		int start = recent.getDiscardedLength();
+		if(start == 0) return recent;
+
+		// The frames before start have been forced to the disk, so records that are being written now don't matter
+		List<ReplayData> inputs = new ArrayList<ReplayData>();
+		InputStream in = new BufferedInputStream(new FileInputStream(file));
+		try {
+			read(in, inputs);
+		} finally {
+			in.close();
+		}
+
+		ReplayData journal = (playerID < inputs.size()) ? inputs.get(playerID) : new ReplayData();
+		if(journal.getLength() < start) {
+			throw new IOException("Replay journal " + file + " has " + journal.getLength() + " frames of player " + playerID + ", " + start + " needed");
+		}
+
+		ReplayData result = new ReplayData();
+		int length;
+		for(int frame = 0; frame < start; frame += length) {
+			length = journal.getRunLength(frame, start);
+			result.addInputData(journal.getInputData(frame), length);
+		}
+		for(int frame = start; frame < recent.getLength(); frame += length) {
+			length = recent.getRunLength(frame, recent.getLength());
+			result.addInputData(recent.getInputData(frame), length);
+		}
+		return result;
+	}
+
+	/**
+	 * Write the current run of a player to the buffer
+	 * @param playerID Player ID
+	 */
+	protected void writeRun(int playerID) {
+		try {
+			buffer.write(RECORD_INPUT);
+			BinaryReplay.writeVarInt(buffer, playerID);
+			BinaryReplay.writeVarInt(buffer, runInput[playerID]);
+			BinaryReplay.writeVarInt(buffer, runLength[playerID]);
+		} catch (IOException e) {
+			// ByteArrayOutputStream doesn't throw
+		}
+		runLength[playerID] = 0;
+	}
+
+	/**
+	 * Hand the buffered records to the background thread
+	 */
+	protected void flush() {
+		flush(false);
+	}
+
+	/**
+	 * Hand the buffered records to the background thread
+	 * @param sync true to force the journal to the disk after writing (used for checkpoints)
+	 */
+	protected void flush(boolean sync) {
+		flush(sync, -1, 0);
+	}
+
+	/**
+	 * Hand the buffered records to the background thread
+	 * @param sync true to force the journal to the disk after writing (used for checkpoints)
+	 * @param playerID Player whose synced frame count is updated after forcing the journal to the disk (-1: none)
+	 * @param frame Synced frame count of the player
+	 */
+	protected void flush(final boolean sync, final int playerID, final int frame) {
+		if(buffer.size() == 0) return;
+
+		final byte[] data = buffer.toByteArray();
+		buffer.reset();
+
+		executor.execute(new Runnable() {
+			public void run() {
+				try {
+					out.write(data);
+					out.flush();
+					if(sync) {
+						out.getFD().sync();
+						if(playerID >= 0) setSyncedFrame(playerID, frame);
+					}
+				} catch (IOException e) {
+					log.warn("Failed to write replay journal " + file, e);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Finish the journal. The file is closed (and deleted) by the background thread, so this doesn't wait for the disk.
+	 * @param delete true to delete the journal (the replay has been saved normally)
+	 */
+	public synchronized void close(final boolean delete) {
+		if(closed) return;
+
+		for(int i = 0; i < runLength.length; i++) {
+			if(runLength[i] > 0) writeRun(i);
+		}
+		buffer.write(RECORD_END);
+		flush();
+		closed = true;
+
+		executor.execute(new Runnable() {
+			public void run() {
+				try {
+					out.close();
+				} catch (IOException e) {
+					log.warn("Failed to close replay journal " + file, e);
+				}
+
+				if(delete && !file.delete()) log.warn("Failed to delete replay journal " + file);
+			}
+		});
+		executor.shutdown();
+	}
+
+	/**
+	 * Get the hash of the blocks in a field (used to check that a replay plays back the same way)
+	 * @param field Field (can be null)
+	 * @return Hash (0 if field is null)
+	 */
+	public static long getFieldHash(Field field) {
+		if(field == null) return 0;
+		return field.getHash();
+	}
+
+	/**
+	 * Write a long (8 bytes, big endian)
+	 * @param out Output stream
+	 * @param value Value
+	 * @throws IOException When writing fails
+	 */
+	protected static void writeLong(OutputStream out, long value) throws IOException {
+		for(int i = 56; i >= 0; i -= 8) out.write((int)(value >>> i) & 0xFF);
+	}
+
+	/**
+	 * Read a long (8 bytes, big endian)
+	 * @param in Input stream
+	 * @return Value
+	 * @throws IOException When the data is broken or reading fails
+	 */
+	protected static long readLong(InputStream in) throws IOException {
+		long value = 0;
+		for(int i = 0; i < 8; i++) {
+			int b = in.read();
+			if(b < 0) throw new EOFException();
+			value = (value << 8) | b;
+		}
+		return value;
+	}
+
+	/**
+	 * Read the properties part of a record
+	 * @param in Input stream
+	 * @return Properties
+	 * @throws IOException When the data is broken or reading fails
+	 */
+	protected static CustomProperties readProperties(InputStream in) throws IOException {
+		CustomProperties prop = new CustomProperties();
+		int count = BinaryReplay.readVarInt(in);
+		for(int i = 0; i < count; i++) {
+			String key = BinaryReplay.readString(in);
+			String value = BinaryReplay.readString(in);
+			if((key != null) && (value != null)) prop.setProperty(key, value);
+		}
+		return prop;
+	}
+
+	/**
+	 * Make a replay from a journal (a journal cut off in the middle of a record is read up to the last whole record)
+	 * <p>
+	 * The Statistics are the ones of the last checkpoint, and "&lt;id&gt;.checkpoint.frame" and
+	 * "&lt;id&gt;.checkpoint.fieldHash" are set to the frame and field hash of that checkpoint.
+	 * @param filename Journal file
+	 * @return Replay in the text replay layout
+	 * @throws IOException When the file is not a journal or can't be read
+	 */
+	public static CustomProperties recover(String filename) throws IOException {
+		InputStream in = new BufferedInputStream(new FileInputStream(filename));
+		try {
+			return recover(in);
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Make a replay from a journal
+	 * @param in Input stream
+	 * @return Replay in the text replay layout
+	 * @throws IOException When it is not a journal or reading fails
+	 */
+	public static CustomProperties recover(InputStream in) throws IOException {
+		List<ReplayData> inputs = new ArrayList<ReplayData>();
+		CustomProperties prop = read(in, inputs);
+
+		for(int i = 0; i < inputs.size(); i++) {
+			inputs.get(i).writeProperty(prop, i, -1);
+		}
+
+		return prop;
+	}
+
+	/**
+	 * Read the records of a journal (up to the last whole record)
+	 * @param in Input stream
+	 * @param inputs List to add the inputs of each player to
+	 * @return Properties and checkpoints
+	 * @throws IOException When it is not a journal or reading fails
+	 */
+	protected static CustomProperties read(InputStream in, List<ReplayData> inputs) throws IOException {
+		for(int i = 0; i < MAGIC.length; i++) {
+			if(in.read() != MAGIC[i]) throw new IOException("Not a replay journal");
+		}
+		int version = in.read();
+		if((version < 1) || (version > FORMAT_VERSION)) throw new IOException("Unsupported replay journal version: " + version);
+
+		CustomProperties prop = new CustomProperties();
+
+		try {
+			int type;
+			while((type = in.read()) >= 0) {
+				if(type == RECORD_PROPERTIES) {
+					prop.putAll(readProperties(in));
+				} else if(type == RECORD_INPUT) {
+					int playerID = BinaryReplay.readVarInt(in);
+					int input = BinaryReplay.readVarInt(in);
+					int length = BinaryReplay.readVarInt(in);
+					while(inputs.size() <= playerID) inputs.add(new ReplayData());
+					inputs.get(playerID).addInputData(input, length);
+				} else if(type == RECORD_CHECKPOINT) {
+					int playerID = BinaryReplay.readVarInt(in);
+					int frame = BinaryReplay.readVarInt(in);
+					long fieldHash = readLong(in);
+					CustomProperties stats = readProperties(in);
+					prop.putAll(stats);
+					prop.setProperty(playerID + ".checkpoint.frame", frame);
+					prop.setProperty(playerID + ".checkpoint.fieldHash", Long.toHexString(fieldHash));
+				} else if(type == RECORD_END) {
+					break;
+				} else {
+					log.warn("Unknown replay journal record " + type + ", ignoring the rest");
+					break;
+				}
+			}
+		} catch (EOFException e) {
+			log.info("Replay journal ends in the middle of a record");
+		}
+
+		return prop;
+	}
+
+	/**
+	 * Recover a replay from a journal
+	 * <p>
+	 * Usage: ReplayStreamWriter [-text] &lt;journal file&gt; [output file]
+	 * (the output is binary unless -text is given; default output: journal filename without FILE_EXTENSION)
+	 * @param args Command line arguments
+	 */
+	public static void main(String[] args) throws IOException {
+		boolean text = false;
+		List<String> files = new ArrayList<String>();
+
+		for(int i = 0; i < args.length; i++) {
+			if(args[i].equals("-text")) text = true;
+			else files.add(args[i]);
+		}
+
+		if((files.size() < 1) || (files.size() > 2)) {
+			System.err.println("Usage: ReplayStreamWriter [-text] <journal file> [output file]");
+			System.exit(1);
+		}
+
+		String input = files.get(0);
+		String output = (files.size() > 1) ? files.get(1) : input;
+		if((files.size() == 1) && output.endsWith(FILE_EXTENSION)) output = output.substring(0, output.length() - FILE_EXTENSION.length());
+		if(output.equals(input)) output = input + ".rep";
+
+		BinaryReplay.save(recover(input), output, !text);
+	}
+}